@@ -0,0 +1,60 @@
+package geometries;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Tests a ray against the boxes of all the children of a {@link WideBVH} node with the Vector API -
+ * every step of the slab test is a single operation over the children.
+ * This class needs the incubator module both to compile ({@code --add-modules jdk.incubator.vector})
+ * and to run, the hierarchy loads it only when the VM enables the module.
+ */
+class VectorLanes implements WideBVH.Lanes {
+    /**
+     * constructor for the vector lanes, used by {@link WideBVH} through reflection
+     */
+    VectorLanes() {
+    }
+
+    /**
+     * Finds the species of a width
+     * @param width the amount of children per node
+     * @return the species with the width in lanes
+     */
+    private static VectorSpecies<Double> species(int width)
+    {
+        return switch (width) {
+            case 2 -> DoubleVector.SPECIES_128;
+            case 4 -> DoubleVector.SPECIES_256;
+            default -> DoubleVector.SPECIES_512;
+        };
+    }
+
+    @Override
+    public boolean supports(int width)
+    {
+        // wider vectors than the hardware registers are emulated, much slower than the scalar loop
+        return species(width).vectorBitSize() <= DoubleVector.SPECIES_PREFERRED.vectorBitSize();
+    }
+
+    @Override
+    public void entries(double[] bounds, int offset, double ox, double oy, double oz,
+                        double ix, double iy, double iz, double maxDistance, double[] lanes)
+    {
+        int width = lanes.length;
+        VectorSpecies<Double> species = species(width);
+        DoubleVector x1 = DoubleVector.fromArray(species, bounds, offset).sub(ox).mul(ix);
+        DoubleVector y1 = DoubleVector.fromArray(species, bounds, offset + width).sub(oy).mul(iy);
+        DoubleVector z1 = DoubleVector.fromArray(species, bounds, offset + 2 * width).sub(oz).mul(iz);
+        DoubleVector x2 = DoubleVector.fromArray(species, bounds, offset + 3 * width).sub(ox).mul(ix);
+        DoubleVector y2 = DoubleVector.fromArray(species, bounds, offset + 4 * width).sub(oy).mul(iy);
+        DoubleVector z2 = DoubleVector.fromArray(species, bounds, offset + 5 * width).sub(oz).mul(iz);
+        DoubleVector tmin = x1.min(x2).max(y1.min(y2)).max(z1.min(z2).max(0));
+        DoubleVector tmax = x1.max(x2).min(y1.max(y2)).min(z1.max(z2).min(maxDistance));
+        // a NaN (head on the face of an axis parallel ray) fails the comparison like in the scalar lanes
+        VectorMask<Double> hit = tmin.compare(VectorOperators.LE, tmax);
+        tmin.blend(Double.POSITIVE_INFINITY, hit.not()).intoArray(lanes, 0);
+    }
+}
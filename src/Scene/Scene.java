@@ -2,10 +2,18 @@ package Scene;
 
 
 
+import geometries.Accelerator;
+import geometries.BVHTree;
 import geometries.Geometries;
+import geometries.Intersectable;
+import geometries.KdTree;
+import geometries.UniformGrid;
+import geometries.WideBVH;
 import lighting.AmbientLight;
 import lighting.LightSource;
 import primitives.Color;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -36,8 +44,63 @@ public class Scene {
     public List<LightSource> lights = new LinkedList<>();
     /**
      * The BVH improvement flag
+     *
+     * @deprecated use {@link #acceleration}, a true flag stands for {@link Acceleration#BVH}
+     * while the acceleration is {@link Acceleration#NONE}
      */
+    @Deprecated
     public boolean isBVH = false;
+    /**
+     * The acceleration structures which can be built over the geometries
+     */
+    public enum Acceleration {
+        /**
+         * every ray is intersected with all the geometries
+         */
+        NONE,
+        /**
+         * a bounding volume hierarchy ({@link BVHTree})
+         */
+        BVH,
+        /**
+         * a bounding volume hierarchy with 4 children per node ({@link WideBVH}), faster than {@link #BVH}
+         * only when the VM runs with {@code --add-modules jdk.incubator.vector}
+         */
+        WIDE_BVH,
+        /**
+         * a uniform grid ({@link UniformGrid}), for many similarly sized geometries
+         */
+        GRID,
+        /**
+         * a kd-tree ({@link KdTree}), for static scenes
+         */
+        KD
+    }
+
+    /**
+     * The acceleration structure to render through
+     */
+    public Acceleration acceleration = Acceleration.NONE;
+    /**
+     * The way of building the bounding volume hierarchy
+     */
+    public BVHTree.BuildMode bvhBuildMode = BVHTree.BuildMode.SAH;
+    /**
+     * The directory where bounding volume hierarchies are kept between runs, null to always build them
+     */
+    public Path bvhCache = null;
+    /**
+     * Whether the bounding volume hierarchy keeps its boxes in single precision
+     */
+    public boolean singlePrecision = false;
+    /**
+     * The acceleration structure over the geometries, null when there is no acceleration
+     */
+    private Accelerator accelerator;
+    /**
+     * The settings and the geometries the acceleration structure was built with, null before it is built
+     */
+    private List<Object> acceleratorSettings;
 
     /**
      * Constructs a scene with the given name.
@@ -94,8 +157,142 @@ public class Scene {
         return this;
     }
 
+    /**
+     * Sets the BVH improvement flag.
+     *
+     * @param flag true to render through a bounding volume hierarchy
+     */
+    @SuppressWarnings("deprecation")
     public void setBVH(boolean flag) {
         isBVH = flag;
+        acceleration = flag ? Acceleration.BVH : Acceleration.NONE;
+    }
+
+    /**
+     * Sets the acceleration structure to render through.
+     *
+     * @param acceleration the acceleration structure
+     * @return The scene object.
+     */
+    public Scene setAcceleration(Acceleration acceleration) {
+        this.acceleration = acceleration;
+        return this;
+    }
+
+    /**
+     * Sets the way of building the bounding volume hierarchy.
+     *
+     * @param mode SAH for the fastest rendering, MORTON for the fastest rebuilding,
+     * SPATIAL for scenes of long, thin or overlapping triangles
+     * @return The scene object.
+     */
+    public Scene setBVHBuildMode(BVHTree.BuildMode mode) {
+        this.bvhBuildMode = mode;
+        return this;
+    }
+
+    /**
+     * Sets the directory where the bounding volume hierarchy is kept between runs.
+     * A later render of the same geometries maps the kept hierarchy instead of building it.
+     * The wide hierarchy keeps the binary hierarchy it is collapsed from,
+     * the grid and the kd-tree are always built.
+     *
+     * @param directory the cache directory, null to always build the hierarchy
+     * @return The scene object.
+     */
+    public Scene setBVHCache(Path directory) {
+        this.bvhCache = directory;
+        return this;
+    }
+
+    /**
+     * Sets whether the bounding volume hierarchy keeps its boxes in single precision.
+     * The boxes take half the memory and are rounded outwards, so the images do not change.
+     * Meshes choose their own precision, see {@link geometries.TriangleMesh}.
+     *
+     * @param singlePrecision true to keep the boxes in single precision
+     * @return The scene object.
+     */
+    public Scene setSinglePrecision(boolean singlePrecision) {
+        this.singlePrecision = singlePrecision;
+        return this;
+    }
+
+    /**
+     * Builds the selected acceleration structure over the geometries of the scene,
+     * or drops it when there is no acceleration.
+     * Must be called again after the geometries are changed.
+     */
+    public void buildAccelerator() {
+        acceleratorSettings = currentSettings();
+        accelerator = switch (effectiveAcceleration()) {
+            case NONE -> null;
+            case BVH -> (bvhCache == null ? new BVHTree(geometries, bvhBuildMode)
+                    : new BVHTree(geometries, bvhBuildMode, bvhCache)).setSinglePrecision(singlePrecision);
+            case WIDE_BVH -> new WideBVH(geometries, bvhBuildMode, WideBVH.DEFAULT_WIDTH, bvhCache);
+            case GRID -> new UniformGrid(geometries);
+            case KD -> new KdTree(geometries);
+        };
+    }
+
+    /**
+     * Builds the acceleration structure unless it is already built with the current settings
+     * over the same geometries, so several ray tracers of one scene share one structure.
+     * Adding geometries to the scene or changing its acceleration settings makes it build again,
+     * geometries changed in place still require {@link #buildAccelerator()}.
+     */
+    public void prepareAccelerator() {
+        if (!currentSettings().equals(acceleratorSettings))
+            buildAccelerator();
+    }
+
+    /**
+     * Returns the acceleration structure to build, with the deprecated BVH flag.
+     *
+     * @return the acceleration structure
+     */
+    @SuppressWarnings("deprecation")
+    private Acceleration effectiveAcceleration() {
+        return acceleration == Acceleration.NONE && isBVH ? Acceleration.BVH : acceleration;
+    }
+
+    /**
+     * Returns everything the acceleration structure is built from.
+     *
+     * @return the settings, the geometries and their amount
+     */
+    private List<Object> currentSettings() {
+        return Arrays.asList(effectiveAcceleration(), bvhBuildMode, bvhCache, singlePrecision,
+                geometries, geometries.size());
+    }
+
+    /**
+     * Updates the acceleration structure after geometries of the scene moved.
+     * A hierarchy keeps its structure unless it became too slow to traverse.
+     * Adding or removing geometries still requires {@link #buildAccelerator()}.
+     */
+    public void refitAccelerator() {
+        if (accelerator != null)
+            accelerator.refit();
+    }
+
+    /**
+     * Returns the acceleration structure of the scene.
+     *
+     * @return the acceleration structure, or null if it is not built
+     */
+    public Accelerator getAccelerator() {
+        return accelerator;
+    }
+
+    /**
+     * Returns the object to intersect rays with - the acceleration structure if it is built,
+     * the geometries otherwise.
+     *
+     * @return the intersectable of the scene
+     */
+    public Intersectable getIntersectable() {
+        return accelerator != null ? accelerator : geometries;
     }
 }
 
@@ -0,0 +1,256 @@
+package geometries;
+
+import primitives.Double3;
+import primitives.Ray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * An acceleration structure over the geometries of a scene.
+ * The geometries are flattened into single primitives, and those without a bounding box
+ * (infinite planes and tubes) cannot be placed in the structure, so they are kept aside
+ * and tested by every query.
+ */
+public abstract class Accelerator extends Intersectable {
+    /**
+     * The geometries without a bounding box
+     */
+    protected final List<Intersectable> unbounded = new LinkedList<>();
+
+    /**
+     * The rays which tested the primitives of a structure on a thread, so a primitive
+     * referenced from several cells is tested once per ray
+     */
+    protected static class Mailbox {
+        /**
+         * The stamp of the last ray which tested every primitive
+         */
+        int[] stamps = new int[0];
+        /**
+         * The stamp of the current ray
+         */
+        int ray = 0;
+
+        /**
+         * Starts a new ray
+         * @param size the amount of primitives
+         * @return the stamp of the new ray
+         */
+        int next(int size)
+        {
+            if (stamps.length != size) {
+                stamps = new int[size];
+                ray = 0;
+            }
+            if (++ray == Integer.MAX_VALUE) {
+                Arrays.fill(stamps, 0);
+                ray = 1;
+            }
+            return ray;
+        }
+    }
+
+    /**
+     * A query of a ray against the primitives of a structure - it collects all the intersections,
+     * finds the closest one, or attenuates the light along a shadow ray, while the structure
+     * only decides which primitives the ray meets and in which order
+     */
+    protected static class Query {
+        /**
+         * The kinds of queries
+         */
+        enum Kind {
+            /** all the intersections within the distance */
+            ALL,
+            /** the closest intersection within the distance */
+            CLOSEST,
+            /** the transmittance along a shadow ray */
+            OCCLUSION
+        }
+
+        /**
+         * The kind of the query
+         */
+        final Kind kind;
+        /**
+         * The ray of the query
+         */
+        final Ray ray;
+        /**
+         * The maximum distance of the query
+         */
+        final double maxDistance;
+        /**
+         * All the intersections found, for {@link Kind#ALL}
+         */
+        List<GeoPoint> points = null;
+        /**
+         * The closest intersection found so far, for {@link Kind#CLOSEST}
+         */
+        GeoPoint closest = null;
+        /**
+         * The distance of the closest intersection found so far, for {@link Kind#CLOSEST}
+         */
+        double closestDistance;
+        /**
+         * The transmittance accumulated so far, for {@link Kind#OCCLUSION}
+         */
+        Double3 ktr = Double3.ONE;
+
+        /**
+         * constructor for a query
+         * @param kind the kind of the query
+         * @param ray the ray
+         * @param maxDistance the maximum distance
+         */
+        Query(Kind kind, Ray ray, double maxDistance)
+        {
+            this.kind = kind;
+            this.ray = ray;
+            this.maxDistance = maxDistance;
+            this.closestDistance = maxDistance;
+        }
+
+        /**
+         * Tests the ray against a primitive
+         * @param primitive the primitive
+         * @return true if the query is answered and the rest of the primitives can be skipped
+         */
+        boolean test(Intersectable primitive)
+        {
+            switch (kind) {
+                case ALL -> points = addAll(points, primitive.findGeoIntersections(ray, maxDistance));
+                case CLOSEST -> {
+                    GeoPoint gp = primitive.findClosestIntersection(ray, closestDistance);
+                    if (gp != null) {
+                        closest = gp;
+                        closestDistance = ray.getHead().distance(gp.point);
+                    }
+                }
+                case OCCLUSION -> {
+                    ktr = primitive.occlusion(ray, maxDistance, ktr);
+                    return ktr == Double3.ZERO;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Checks whether an intersection was found before the given distance, so the primitives
+         * which the ray meets beyond it cannot be closer
+         * @param distance the distance along the ray
+         * @return true if the closest intersection so far is not farther than the distance
+         */
+        boolean closestBefore(double distance)
+        {
+            return closest != null && closestDistance <= distance;
+        }
+    }
+
+    /**
+     * Flattens the geometries into single primitives, constructs their boxes and keeps the unbounded ones aside
+     * @param geometries the geometries collection
+     * @return the bounded primitives
+     */
+    protected Intersectable[] collect(Geometries geometries)
+    {
+        List<Intersectable> all = new ArrayList<>();
+        collect(geometries, all);
+        // constructing the boxes of many primitives is worth a parallel pass
+        all.parallelStream().forEach(Intersectable::constructBox);
+        List<Intersectable> bounded = new ArrayList<>(all.size());
+        for (Intersectable g : all) {
+            if (g.box == null)
+                unbounded.add(g);
+            else
+                bounded.add(g);
+        }
+        return bounded.toArray(new Intersectable[0]);
+    }
+
+    /**
+     * Flattens nested geometries collections into single primitives
+     * @param geometries the geometries collection
+     * @param all the list to fill with the primitives
+     */
+    private static void collect(Geometries geometries, List<Intersectable> all)
+    {
+        for (Intersectable g : geometries.geometries) {
+            if (g instanceof Geometries nested)
+                collect(nested, all);
+            else if (g instanceof TriangleMesh mesh)
+                // the accelerators index the triangles of a mesh directly
+                all.addAll(Arrays.asList(mesh.getFaces()));
+            else
+                all.add(g);
+        }
+    }
+
+    /**
+     * Updates the structure after the geometries moved or changed their shape.
+     * Geometries must not be added or removed between the build and a refit
+     * @return true if the structure was built again, false if it was only updated
+     */
+    public abstract boolean refit();
+
+    /**
+     * Finds the closest intersection point between the given ray and the unbounded geometries
+     * @param ray the ray to intersect with the geometries
+     * @param tMax the distance which the point must be nearer than
+     * @return the closest intersection point, or null if there is no intersection nearer than tMax
+     */
+    protected GeoPoint findClosestUnbounded(Ray ray, double tMax)
+    {
+        GeoPoint closest = null;
+        for (Intersectable g : unbounded) {
+            GeoPoint gp = g.findClosestIntersection(ray, tMax);
+            if (gp != null) {
+                closest = gp;
+                tMax = ray.getHead().distance(gp.point);
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Attenuates the transmittance of a shadow ray by the unbounded geometries
+     * @param ray the shadow ray
+     * @param maxDistance the distance to the light source
+     * @param ktr the transmittance accumulated so far
+     * @return the attenuated transmittance, {@link Double3#ZERO} if the light is blocked
+     */
+    protected Double3 occlusionUnbounded(Ray ray, double maxDistance, Double3 ktr)
+    {
+        for (Intersectable g : unbounded) {
+            ktr = g.occlusion(ray, maxDistance, ktr);
+            if (ktr == Double3.ZERO)
+                return ktr;
+        }
+        return ktr;
+    }
+
+    /**
+     * Adds intersection points to a result list, creating the list on the first points
+     * @param result the result list, null if there are no points yet
+     * @param points the points to add, may be null
+     * @return the result list
+     */
+    protected static List<GeoPoint> addAll(List<GeoPoint> result, List<GeoPoint> points)
+    {
+        if (points == null)
+            return result;
+        if (result == null)
+            result = new LinkedList<>();
+        result.addAll(points);
+        return result;
+    }
+
+    @Override
+    public boolean isIntersectBox(Ray ray, double maxDistance)
+    {
+        return box == null || box.intersects(ray, maxDistance);
+    }
+}
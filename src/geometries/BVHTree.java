@@ -1,121 +1,1496 @@
-package scene;
+package geometries;
 
 import geometries.Intersectable.Box;
-import geometries.Geometries;
-import geometries.Geometry;
-import geometries.Intersectable;
+import primitives.Double3;
+import primitives.Point;
 import primitives.Ray;
 
-import java.util.LinkedList;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
 /**
- * Node class for Bounding Volume Hierarchy
+ * Bounding Volume Hierarchy.
+ * The hierarchy is built top-down by partitioning the primitives according to the
+ * centroids of their boxes, choosing every split with the Surface Area Heuristic (SAH)
+ * evaluated over a fixed number of bins on each of the three axes.
+ * Geometries without a bounding box (infinite planes and tubes) cannot be placed in the
+ * hierarchy, so they are kept aside and returned with every query.
+ * Alternatively, the hierarchy can be emitted from the primitives sorted by the Morton codes
+ * of their centroids (a linear BVH), trading some traversal speed for a much faster build.
+ * When only the geometries move, {@link #refit()} updates the boxes without a rebuild.
+ * The boxes of the primitives are constructed in a parallel pass and large subtrees are
+ * built in parallel on the common fork-join pool.
+ * The built tree is stored in primitive arrays in depth-first order with the left child
+ * right after its parent, and it is traversed iteratively with a per thread stack.
+ * The closest intersection is found front-to-back: the nearer child is visited first
+ * and nodes entered beyond the closest intersection found so far are skipped.
+ * Packets of coherent primary rays walk the hierarchy together, see {@link #findClosestIntersections(Ray[])}.
+ * The spatial split build references long or overlapping primitives from several leaves, each leaf
+ * bounding only the part of the primitive on its side, see {@link BuildMode#SPATIAL}.
+ * A built hierarchy can be kept in a cache directory, keyed by a hash of the primitive boxes,
+ * so a later process with the same geometries maps the file instead of building again.
+ * The quality of the built tree is summarized by {@link #getReport()}, and the work of the traversals
+ * can be counted over a render, see {@link #setCounting(boolean)}.
+ * The node boxes can be kept in single precision, rounded outwards, see {@link #setSinglePrecision(boolean)}.
  */
-class Node {
-    private Node left;
-    private Node right;
-    private Box box;
-    private Geometries geometries;
+public class BVHTree extends Accelerator {
+    /**
+     * The default maximal amount of primitives in a leaf
+     */
+    public static final int DEFAULT_LEAF_SIZE = 4;
+    /**
+     * The default maximal depth of the hierarchy
+     */
+    public static final int DEFAULT_MAX_DEPTH = 64;
+    /**
+     * The amount of bins used to evaluate the SAH on each axis
+     */
+    private static final int BINS = 16;
+    /**
+     * The minimal amount of primitives for building the two subtrees of a node in parallel
+     */
+    private static final int PARALLEL_THRESHOLD = 4096;
+    /**
+     * The cost of traversing an inner node relative to intersecting one primitive
+     */
+    private static final double TRAVERSAL_COST = 1d;
+    /**
+     * The default allowed growth of the SAH cost on a refit before the hierarchy is rebuilt
+     */
+    public static final double DEFAULT_REBUILD_THRESHOLD = 1.5;
+    /**
+     * The amount of rays of a packet which still enter a node, below which the packet has diverged
+     * and the subtree is traversed ray by ray
+     */
+    private static final int MIN_PACKET_RAYS = 4;
+    /**
+     * The first bytes of a cache file ("BVH2")
+     */
+    private static final int CACHE_MAGIC = 0x42564832;
+    /**
+     * The size of the header of a cache file - magic, key, primitive count, node count, depth
+     * and reference count, padded so the node boxes are aligned
+     */
+    private static final int CACHE_HEADER = 4 + 32 + 4 + 4 + 4 + 4 + 4;
+    /**
+     * The size of an array header in the heap, for the memory footprint
+     */
+    private static final int ARRAY_HEADER = 16;
+    /**
+     * The size of an object reference in the heap (compressed below 32 GB of heap), for the memory footprint
+     */
+    private static final int REFERENCE_SIZE = 4;
+
+    /**
+     * The node boxes - minX, minY, minZ, maxX, maxY, maxZ per node, in depth-first order,
+     * null when the boxes are kept in single precision
+     */
+    private double[] nodeBounds;
+    /**
+     * The node boxes in single precision, every side rounded outwards so a box still bounds its primitives,
+     * null when the boxes are kept in double precision
+     */
+    private float[] singleBounds;
+    /**
+     * Two values per node in the order of the boxes.
+     * An inner node holds the index of its right child and 0, its left child is the next node.
+     * A leaf holds the index of its first primitive and the (positive) amount of its primitives
+     */
+    private int[] nodeData;
+    /**
+     * The amount of levels in the hierarchy
+     */
+    private int depth;
+    /**
+     * Per thread stack of the nodes left to visit, so a traversal allocates nothing
+     */
+    private final ThreadLocal<TraversalStack> traversalStack;
+
+    /**
+     * Stack of the nodes left to visit with the distances the ray enters them
+     */
+    private static class TraversalStack {
+        /**
+         * The node indices
+         */
+        final int[] nodes;
+        /**
+         * The distances the ray enters the nodes
+         */
+        final double[] entries;
 
+        /**
+         * Constructs a stack
+         * @param size the maximal amount of nodes on the stack
+         */
+        TraversalStack(int size) {
+            nodes = new int[size];
+            entries = new double[size];
+        }
+    }
+    /**
+     * The way of building the hierarchy
+     */
+    private final BuildMode mode;
+    /**
+     * The SAH cost of the hierarchy right after it was built
+     */
+    private double buildCost;
+    /**
+     * The allowed ratio of the SAH cost after a refit to the cost after the build
+     */
+    private double rebuildThreshold = DEFAULT_REBUILD_THRESHOLD;
+    /**
+     * The maximal amount of primitives in a leaf
+     */
+    private final int leafSize;
+    /**
+     * The maximal depth of the hierarchy
+     */
+    private final int maxDepth;
+    /**
+     * The bounded primitives, ordered so every leaf covers a continuous range
+     */
+    private Intersectable[] primitives;
+    /**
+     * The index of the distinct primitive of every leaf primitive after a spatial split build,
+     * where a primitive may be in several leaves; null after the other builds
+     */
+    private int[] references;
+    /**
+     * The distinct primitives after a spatial split build, null after the other builds
+     */
+    private Intersectable[] distinct;
     /**
-     * constructor for Node class
-     * @param left left node
-     * @param right right node
-     * @param box bounding box
+     * The mailbox of every thread, so a primitive in several leaves is tested once per ray
      */
-    public Node(Node left, Node right, Box box)
+    private final ThreadLocal<Mailbox> mailbox = ThreadLocal.withInitial(Mailbox::new);
+    /**
+     * Whether the traversals count their work
+     */
+    private volatile boolean counting = false;
+    /**
+     * The rays which queried the hierarchy since the counters were reset
+     */
+    private final LongAdder rayCount = new LongAdder();
+    /**
+     * The nodes which the rays entered since the counters were reset
+     */
+    private final LongAdder nodeVisits = new LongAdder();
+    /**
+     * The intersection tests of the rays with primitives since the counters were reset
+     */
+    private final LongAdder primitiveTests = new LongAdder();
+
+    /**
+     * Primitive boxes during the build - minX, minY, minZ, maxX, maxY, maxZ per primitive
+     */
+    private double[] bounds;
+    /**
+     * Primitive box centroids during the build - x, y, z per primitive
+     */
+    private double[] centroids;
+    /**
+     * Primitive indices during the build, partitioned in place
+     */
+    private int[] indices;
+
+    /**
+     * Morton codes of the primitive centroids during a Morton build, sorted with the indices
+     */
+    private long[] codes;
+
+    /**
+     * The ways of building the hierarchy
+     */
+    public enum BuildMode {
+        /**
+         * Top-down build with Surface Area Heuristic splits - slower build, faster traversal
+         */
+        SAH,
+        /**
+         * Linear BVH over the primitives sorted by the Morton codes of their centroids -
+         * the build takes a small fraction of the SAH build, for scenes which change every frame
+         */
+        MORTON,
+        /**
+         * SAH build which may also split a node by a plane, referencing the primitives crossing the plane
+         * from both children with the parts of the primitives on their sides (SBVH).
+         * Long, thin and overlapping primitives no longer stretch the boxes of the nodes, at the price
+         * of a slower build and of up to {@code 30%} more references than primitives
+         */
+        SPATIAL
+    }
+
+    /**
+     * constructor for Bvh class
+     * @param geometries list of geometries
+     */
+    public BVHTree(Geometries geometries)
     {
-        this.left = left;
-        this.right = right;
-        this.box = box;
+        this(geometries, BuildMode.SAH);
     }
 
     /**
-     * constructor for a leaf node
-     * @param box  bounding box
+     * constructor for Bvh class
      * @param geometries list of geometries
+     * @param mode the way of building the hierarchy
      */
-    public Node(Box box, Geometries geometries)
+    public BVHTree(Geometries geometries, BuildMode mode)
     {
-        this.box = box;
-        this.geometries = geometries;
+        this(geometries, mode, DEFAULT_LEAF_SIZE, DEFAULT_MAX_DEPTH);
     }
 
     /**
-     * checks if the node is a leaf
-     * @return true if the node is a leaf, false otherwise
+     * constructor for Bvh class
+     * @param geometries list of geometries
+     * @param leafSize the maximal amount of primitives in a leaf
+     * @param maxDepth the maximal depth of the hierarchy
+     * @throws IllegalArgumentException if the leaf size or the depth is not positive
      */
-    public boolean isLeaf()
+    public BVHTree(Geometries geometries, int leafSize, int maxDepth)
     {
-        return geometries != null;
+        this(geometries, BuildMode.SAH, leafSize, maxDepth);
     }
 
     /**
-     * getter for left node
-     * @return left node
+     * constructor for Bvh class
+     * @param geometries list of geometries
+     * @param mode the way of building the hierarchy
+     * @param leafSize the maximal amount of primitives in a leaf
+     * @param maxDepth the maximal depth of the hierarchy
+     * @throws IllegalArgumentException if the leaf size or the depth is not positive
      */
-    public Node getLeft() {
-        return left;
+    public BVHTree(Geometries geometries, BuildMode mode, int leafSize, int maxDepth)
+    {
+        if (leafSize < 1)
+            throw new IllegalArgumentException("leaf size must be positive");
+        if (maxDepth < 1)
+            throw new IllegalArgumentException("max depth must be positive");
+        this.mode = mode;
+        this.leafSize = leafSize;
+        this.maxDepth = maxDepth;
+        // a rebuild may change the depth, but it never exceeds the maximal depth
+        traversalStack = ThreadLocal.withInitial(() -> new TraversalStack(maxDepth + 1));
+
+        build(collect(geometries));
     }
 
     /**
-     * getter for right node
-     * @return right node
+     * constructor for a hierarchy kept in a cache directory, with the default leaf size and depth
+     * @param geometries list of geometries
+     * @param mode the way of building the hierarchy
+     * @param cacheDirectory the directory of the cache files
+     * @throws UncheckedIOException if a built hierarchy cannot be written to the directory
+     * @see #BVHTree(Geometries, BuildMode, int, int, Path)
      */
-    public Node getRight() {
-        return right;
+    public BVHTree(Geometries geometries, BuildMode mode, Path cacheDirectory)
+    {
+        this(geometries, mode, DEFAULT_LEAF_SIZE, DEFAULT_MAX_DEPTH, cacheDirectory);
     }
 
     /**
-     * getter for bounding box
-     * @return bounding box
+     * constructor for a hierarchy kept in a cache directory.
+     * The key of the hierarchy is a hash of the boxes of the primitives in their order and of the build
+     * parameters - everything the build depends on. The spatial split build also clips the polygons
+     * and the mesh faces by their vertices, so for it the vertices are hashed as well.
+     * When the directory has a file with the key, the file is memory-mapped and the hierarchy
+     * is read from it instead of being built, otherwise the hierarchy is built and written
+     * to the directory for the next time
+     * @param geometries list of geometries
+     * @param mode the way of building the hierarchy
+     * @param leafSize the maximal amount of primitives in a leaf
+     * @param maxDepth the maximal depth of the hierarchy
+     * @param cacheDirectory the directory of the cache files
+     * @throws IllegalArgumentException if the leaf size or the depth is not positive
+     * @throws UncheckedIOException if a built hierarchy cannot be written to the directory
      */
-    public Box getBox() {
-        return box;
+    public BVHTree(Geometries geometries, BuildMode mode, int leafSize, int maxDepth, Path cacheDirectory)
+    {
+        if (leafSize < 1)
+            throw new IllegalArgumentException("leaf size must be positive");
+        if (maxDepth < 1)
+            throw new IllegalArgumentException("max depth must be positive");
+        this.mode = mode;
+        this.leafSize = leafSize;
+        this.maxDepth = maxDepth;
+        traversalStack = ThreadLocal.withInitial(() -> new TraversalStack(maxDepth + 1));
+
+        Intersectable[] input = collect(geometries);
+        byte[] key = cacheKey(input);
+        Path file = cacheDirectory.resolve(HexFormat.of().formatHex(key) + ".bvh");
+        if (Files.isRegularFile(file) && load(file, key, input))
+            return;
+        save(file, key, build(input));
     }
 
     /**
-     * getter for geometries
-     * @return geometries
+     * Builds the hierarchy over bounded primitives with constructed boxes
+     * @param input the primitives
+     * @return the index in the input of every primitive in the order of the leaves
      */
-    public Geometries getGeometries() {
-        return geometries;
+    private int[] build(Intersectable[] input)
+    {
+        int n = input.length;
+        if (mode == BuildMode.SPATIAL) {
+            SpatialBuild spatial = new SpatialBuild(input, leafSize, maxDepth);
+            layOut(n > 0 ? spatial.build() : null);
+            references = n > 0 ? spatial.getReferences() : new int[0];
+            distinct = input;
+            return order(input, references);
+        }
+
+        bounds = new double[6 * n];
+        centroids = new double[3 * n];
+        indices = new int[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            Box primitiveBox = input[i].box;
+            bounds[6 * i] = primitiveBox.minX;
+            bounds[6 * i + 1] = primitiveBox.minY;
+            bounds[6 * i + 2] = primitiveBox.minZ;
+            bounds[6 * i + 3] = primitiveBox.maxX;
+            bounds[6 * i + 4] = primitiveBox.maxY;
+            bounds[6 * i + 5] = primitiveBox.maxZ;
+            centroids[3 * i] = (primitiveBox.minX + primitiveBox.maxX) / 2;
+            centroids[3 * i + 1] = (primitiveBox.minY + primitiveBox.maxY) / 2;
+            centroids[3 * i + 2] = (primitiveBox.minZ + primitiveBox.maxZ) / 2;
+            indices[i] = i;
+        });
+
+        if (n > 0) {
+            Node root;
+            if (mode == BuildMode.MORTON) {
+                sortByMortonCodes();
+                root = ForkJoinPool.commonPool().invoke(new MortonTask(0, n, 1));
+            } else
+                root = ForkJoinPool.commonPool().invoke(new BuildTask(0, n, 1));
+            layOut(root);
+        } else
+            layOut(null);
+
+        int[] order = indices;
+        // the build buffers are not needed anymore
+        bounds = null;
+        centroids = null;
+        indices = null;
+        codes = null;
+        references = null;
+        distinct = null;
+        return order(input, order);
     }
 
-}
+    /**
+     * Lays the built tree out in the node arrays
+     * @param root the root of the built tree, null for an empty hierarchy
+     */
+    private void layOut(Node root)
+    {
+        if (root == null) {
+            nodeBounds = new double[0];
+            nodeData = new int[0];
+            return;
+        }
+        int size = countNodes(root);
+        nodeBounds = new double[6 * size];
+        nodeData = new int[2 * size];
+        depth = 0;
+        flatten(root, 0, 1);
+    }
 
-/**
- * Bounding Volume Hierarchy
- */
-public class BVHTree {
+    /**
+     * Orders the primitives by the leaves and completes the build
+     * @param input the primitives
+     * @param order the index in the input of every primitive in the order of the leaves
+     * @return the order
+     */
+    private int[] order(Intersectable[] input, int[] order)
+    {
+        primitives = new Intersectable[order.length];
+        for (int i = 0; i < order.length; i++)
+            primitives[i] = input[order[i]];
+        constructBox();
+        buildCost = getSAHCost();
+        return order;
+    }
 
-    private Node root;
+    /**
+     * Calculates the cache key of primitives - a SHA-256 hash of the build parameters and of the boxes
+     * of the primitives in their order, and for the spatial split build of the vertices it clips,
+     * which is all the build depends on
+     * @param input the primitives with constructed boxes
+     * @return the 32 bytes of the hash
+     */
+    private byte[] cacheKey(Intersectable[] input)
+    {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(16, 48 * Math.min(input.length, 1024)))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(mode.ordinal()).putInt(leafSize).putInt(maxDepth).putInt(input.length);
+        for (Intersectable primitive : input) {
+            if (buffer.remaining() < 48) {
+                digest.update(buffer.flip());
+                buffer.clear();
+            }
+            Box primitiveBox = primitive.box;
+            buffer.putDouble(primitiveBox.minX).putDouble(primitiveBox.minY).putDouble(primitiveBox.minZ)
+                    .putDouble(primitiveBox.maxX).putDouble(primitiveBox.maxY).putDouble(primitiveBox.maxZ);
+            // the same boxes may hold other polygons, which the spatial splits clip differently
+            List<double[]> vertices = mode == BuildMode.SPATIAL ? SpatialBuild.vertices(primitive) : null;
+            if (vertices == null)
+                continue;
+            digest.update(buffer.flip());
+            buffer.clear().putInt(vertices.size());
+            for (double[] vertex : vertices) {
+                if (buffer.remaining() < 24) {
+                    digest.update(buffer.flip());
+                    buffer.clear();
+                }
+                buffer.putDouble(vertex[0]).putDouble(vertex[1]).putDouble(vertex[2]);
+            }
+        }
+        digest.update(buffer.flip());
+        return digest.digest();
+    }
 
     /**
-     * constructor for Bvh class
-     * @param geometries list of geometries
+     * Reads the hierarchy from a memory-mapped cache file.
+     * The file holds the header, the node boxes, the node topology and the order of the primitives
+     * in the leaves, all little-endian
+     * @param file the cache file
+     * @param key the expected key of the file
+     * @param input the primitives in the order they were collected
+     * @return true if the hierarchy was read, false if the file does not fit the primitives
      */
-    public BVHTree(Geometries geometries)
+    private boolean load(Path file, byte[] key, Intersectable[] input)
     {
-        root = buildTree(geometries);
+        int n = input.length;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < CACHE_HEADER)
+                return false;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != CACHE_MAGIC)
+                return false;
+            byte[] fileKey = new byte[key.length];
+            buffer.get(fileKey);
+            if (!Arrays.equals(fileKey, key) || buffer.getInt() != n)
+                return false;
+            int size = buffer.getInt();
+            int levels = buffer.getInt();
+            int count = buffer.getInt();
+            if (size < 0 || levels < 0 || levels > maxDepth || count < n || mode != BuildMode.SPATIAL && count != n
+                    || channel.size() != CACHE_HEADER + 48L * size + 8L * size + 4L * count)
+                return false;
+            double[] loadedBounds = new double[6 * size];
+            int[] loadedData = new int[2 * size];
+            int[] order = new int[count];
+            buffer.position(CACHE_HEADER);
+            buffer.asDoubleBuffer().get(loadedBounds);
+            buffer.position(CACHE_HEADER + 48 * size);
+            buffer.asIntBuffer().get(loadedData).get(order);
+            // the traversal stacks are as deep as the stored depth, so the tree must not be deeper
+            if (depth(loadedData, count) != levels || !validOrder(order, n))
+                return false;
+
+            nodeBounds = loadedBounds;
+            nodeData = loadedData;
+            depth = levels;
+            references = mode == BuildMode.SPATIAL ? order : null;
+            distinct = mode == BuildMode.SPATIAL ? input : null;
+            primitives = new Intersectable[count];
+            for (int i = 0; i < count; i++)
+                primitives[i] = input[order[i]];
+        } catch (IOException e) {
+            // an unreadable cache is built again
+            return false;
+        }
+        constructBox();
+        buildCost = getSAHCost();
+        return true;
     }
 
     /**
-     * builds the tree recursively
-     * @param geometries list of geometries
-     * @return root node
+     * Walks the node topology of a cache file from the root and measures the depth of the tree.
+     * Every child must follow its parent and be reached once, every node must be reached
+     * and every leaf must be within the primitives
+     * @param data the right child or the first primitive, and the amount of primitives, per node
+     * @param n the amount of leaf primitives
+     * @return the amount of levels of the tree, -1 if the topology is not a tree over the primitives
+     */
+    private static int depth(int[] data, int n)
+    {
+        int size = data.length / 2;
+        if (size == 0)
+            return 0;
+        boolean[] reached = new boolean[size];
+        // a node is pushed only when it is first reached, so the stack never holds more than all the nodes
+        int[] nodes = new int[size];
+        int[] levels = new int[size];
+        int top = 0;
+        nodes[top] = 0;
+        levels[top++] = 1;
+        reached[0] = true;
+        int visited = 0;
+        int depth = 0;
+        while (top > 0) {
+            int node = nodes[--top];
+            int level = levels[top];
+            visited++;
+            depth = Math.max(depth, level);
+            int first = data[2 * node];
+            int count = data[2 * node + 1];
+            if (count == 0 ? first <= node + 1 || first >= size || reached[node + 1] || reached[first]
+                    : count < 0 || first < 0 || first > n - count)
+                return -1;
+            if (count == 0)
+                for (int child : new int[]{node + 1, first}) {
+                    reached[child] = true;
+                    nodes[top] = child;
+                    levels[top++] = level + 1;
+                }
+        }
+        return visited == size ? depth : -1;
+    }
+
+    /**
+     * Checks that the primitive order of a cache file covers the collected primitives,
+     * which makes it a permutation when there is a leaf primitive per collected primitive
+     * @param order the index of the collected primitive of every leaf primitive
+     * @param n the amount of collected primitives
+     * @return true if every primitive appears at least once
+     */
+    private static boolean validOrder(int[] order, int n)
+    {
+        boolean[] seen = new boolean[n];
+        int covered = 0;
+        for (int index : order) {
+            if (index < 0 || index >= n)
+                return false;
+            if (!seen[index]) {
+                seen[index] = true;
+                covered++;
+            }
+        }
+        return covered == n;
+    }
+
+    /**
+     * Writes the hierarchy to a cache file through a memory mapping.
+     * The file is written under a temporary name and then renamed, so a concurrent render never maps
+     * a partial file
+     * @param file the cache file
+     * @param key the key of the file
+     * @param order the index of the collected primitive of every leaf primitive
+     * @throws UncheckedIOException if the file cannot be written
+     */
+    private void save(Path file, byte[] key, int[] order)
+    {
+        int n = distinct == null ? order.length : distinct.length;
+        int count = order.length;
+        int size = nodeData.length / 2;
+        try {
+            Files.createDirectories(file.getParent());
+            Path temporary = Files.createTempFile(file.getParent(), "bvh", ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        CACHE_HEADER + 48L * size + 8L * size + 4L * count);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(CACHE_MAGIC).put(key).putInt(n).putInt(size).putInt(depth).putInt(count);
+                buffer.position(CACHE_HEADER);
+                buffer.asDoubleBuffer().put(nodeBounds);
+                buffer.position(CACHE_HEADER + 48 * size);
+                buffer.asIntBuffer().put(nodeData).put(order);
+                buffer.force();
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot write the hierarchy cache " + file, e);
+        }
+    }
+
+    /**
+     * Updates the hierarchy after the geometries moved or changed their shape.
+     * The boxes of all the primitives are constructed again and the node boxes are
+     * recalculated bottom-up, keeping the topology of the tree. When the moves made the
+     * tree much worse - its SAH cost grew beyond the rebuild threshold relative to the
+     * cost after the last build - the hierarchy is built again from scratch instead.
+     * After a spatial split build the leaves bound the whole primitives instead of their parts.
+     * Geometries must not be added or removed between the build and a refit
+     * @return true if the hierarchy was built again, false if it was only refitted
      */
-    private Node buildTree(Geometries geometries)
+    @Override
+    public boolean refit()
     {
-        Box box = new Box(geometries.box.minX, geometries.box.minY, geometries.box.minZ, geometries.box.maxX, geometries.box.maxY, geometries.box.maxZ);
-        if(geometries.size() <= 4)
+        // the boxes are recalculated in double precision and rounded again
+        boolean single = singleBounds != null;
+        setSinglePrecision(false);
+        boolean rebuilt = refitBounds();
+        setSinglePrecision(single);
+        return rebuilt;
+    }
+
+    /**
+     * Refits the node boxes in double precision, or builds the hierarchy again if the refit made it too slow
+     * @return true if the hierarchy was built again, false if it was only refitted
+     */
+    private boolean refitBounds()
+    {
+        Arrays.stream(distinct == null ? primitives : distinct).parallel().forEach(Intersectable::constructBox);
+        // children follow their parents, so in reverse order every child is refitted before its parent
+        for (int node = nodeData.length / 2 - 1; node >= 0; node--) {
+            int b = 6 * node;
+            int count = nodeData[2 * node + 1];
+            if (count == 0) {
+                int l = 6 * (node + 1);
+                int r = 6 * nodeData[2 * node];
+                for (int axis = 0; axis < 3; axis++) {
+                    nodeBounds[b + axis] = Math.min(nodeBounds[l + axis], nodeBounds[r + axis]);
+                    nodeBounds[b + axis + 3] = Math.max(nodeBounds[l + axis + 3], nodeBounds[r + axis + 3]);
+                }
+                continue;
+            }
+            int start = nodeData[2 * node];
+            Box first = primitives[start].box;
+            double minX = first.minX, minY = first.minY, minZ = first.minZ;
+            double maxX = first.maxX, maxY = first.maxY, maxZ = first.maxZ;
+            for (int i = start + 1; i < start + count; i++) {
+                Box box = primitives[i].box;
+                minX = Math.min(minX, box.minX);
+                minY = Math.min(minY, box.minY);
+                minZ = Math.min(minZ, box.minZ);
+                maxX = Math.max(maxX, box.maxX);
+                maxY = Math.max(maxY, box.maxY);
+                maxZ = Math.max(maxZ, box.maxZ);
+            }
+            nodeBounds[b] = minX;
+            nodeBounds[b + 1] = minY;
+            nodeBounds[b + 2] = minZ;
+            nodeBounds[b + 3] = maxX;
+            nodeBounds[b + 4] = maxY;
+            nodeBounds[b + 5] = maxZ;
+        }
+        constructBox();
+
+        if (getSAHCost() <= buildCost * rebuildThreshold)
+            return false;
+        build(distinct == null ? primitives.clone() : distinct);
+        return true;
+    }
+
+    /**
+     * A summary of the quality of a built hierarchy
+     * @param nodes the amount of nodes
+     * @param leaves the amount of leaves
+     * @param maxDepth the amount of levels
+     * @param averageDepth the average level of the leaves, the root is at level 1
+     * @param leafSizes the amount of leaves with every amount of primitives
+     * @param sahCost the SAH cost, see {@link #getSAHCost()}
+     * @param memory the bytes of the node arrays and of the primitive references,
+     * without the primitives which the scene holds anyway
+     */
+    public record Report(int nodes, int leaves, int maxDepth, double averageDepth, int[] leafSizes,
+                         double sahCost, long memory) {
+        @Override
+        public String toString()
+        {
+            StringBuilder histogram = new StringBuilder();
+            for (int count = 0; count < leafSizes.length; count++)
+                if (leafSizes[count] != 0)
+                    histogram.append(histogram.isEmpty() ? "" : ", ").append(count).append(": ").append(leafSizes[count]);
+            return String.format("%d nodes, %d leaves, depth %d (leaves %.1f on average), "
+                            + "primitives per leaf {%s}, SAH cost %.2f, %d bytes",
+                    nodes, leaves, maxDepth, averageDepth, histogram, sahCost, memory);
+        }
+    }
+
+    /**
+     * The work of the traversals over some rays
+     * @param rays the rays which queried the hierarchy
+     * @param nodeVisits the nodes which the rays entered
+     * @param primitiveTests the intersection tests of the rays with primitives
+     */
+    public record Counters(long rays, long nodeVisits, long primitiveTests) {
+        /**
+         * Calculates the nodes a ray entered on average
+         * @return the average node visits per ray, 0 without rays
+         */
+        public double nodeVisitsPerRay()
+        {
+            return rays == 0 ? 0 : (double) nodeVisits / rays;
+        }
+
+        /**
+         * Calculates the primitives a ray tested on average
+         * @return the average primitive tests per ray, 0 without rays
+         */
+        public double primitiveTestsPerRay()
         {
-            return new Node(box, geometries);
+            return rays == 0 ? 0 : (double) primitiveTests / rays;
         }
 
-        Geometries newGeometries = geometries.splitAxisAligned(box);
-        return new Node(buildTree(geometries), buildTree(newGeometries), box);
+        @Override
+        public String toString()
+        {
+            return String.format("%d rays, %.1f nodes and %.1f primitives per ray",
+                    rays, nodeVisitsPerRay(), primitiveTestsPerRay());
+        }
+    }
+
+    /**
+     * Summarizes the quality of the hierarchy - a slow render of a hierarchy with a high SAH cost,
+     * deep or crowded leaves is a bad tree, otherwise the scene is just expensive
+     * @return the report of the hierarchy
+     */
+    public Report getReport()
+    {
+        int size = nodeData.length / 2;
+        int leaves = 0;
+        long leafLevels = 0;
+        int largest = 0;
+        for (int node = 0; node < size; node++)
+            largest = Math.max(largest, nodeData[2 * node + 1]);
+        int[] leafSizes = new int[largest + 1];
+        // the levels of the nodes, filled as the parents are met before their children
+        int[] levels = new int[size];
+        if (size > 0)
+            levels[0] = 1;
+        for (int node = 0; node < size; node++) {
+            int count = nodeData[2 * node + 1];
+            if (count == 0) {
+                levels[node + 1] = levels[node] + 1;
+                levels[nodeData[2 * node]] = levels[node] + 1;
+                continue;
+            }
+            leaves++;
+            leafLevels += levels[node];
+            leafSizes[count]++;
+        }
+        long memory = ARRAY_HEADER + (nodeBounds != null ? 8L * nodeBounds.length : 4L * singleBounds.length)
+                + ARRAY_HEADER + 4L * nodeData.length
+                + ARRAY_HEADER + (long) REFERENCE_SIZE * primitives.length
+                + (references == null ? 0 : ARRAY_HEADER + 4L * references.length);
+        return new Report(size, leaves, depth, leaves == 0 ? 0 : (double) leafLevels / leaves, leafSizes,
+                getSAHCost(), memory);
+    }
+
+    /**
+     * Turns the counting of the traversal work on or off, and resets the counters.
+     * Every query adds its ray, the nodes it entered and the primitives it tested, so the counters
+     * taken after a render tell how much work the render did per ray
+     * @param counting true to count the work of the traversals
+     * @return the hierarchy
+     */
+    public BVHTree setCounting(boolean counting)
+    {
+        this.counting = counting;
+        resetCounters();
+        return this;
+    }
+
+    /**
+     * Resets the traversal counters, for counting the next render
+     */
+    public void resetCounters()
+    {
+        rayCount.reset();
+        nodeVisits.reset();
+        primitiveTests.reset();
+    }
+
+    /**
+     * getter for the traversal counters
+     * @return the work counted since the counters were reset, zero when counting is off
+     */
+    public Counters getCounters()
+    {
+        return new Counters(rayCount.sum(), nodeVisits.sum(), primitiveTests.sum());
+    }
+
+    /**
+     * Adds the work of a traversal to the counters, when counting is on
+     * @param rays the rays of the traversal
+     * @param visits the nodes the rays entered
+     * @param tests the intersection tests of the rays with primitives
+     */
+    private void count(int rays, long visits, long tests)
+    {
+        if (!counting)
+            return;
+        rayCount.add(rays);
+        nodeVisits.add(visits);
+        primitiveTests.add(tests);
+    }
+
+    /**
+     * Calculates the SAH cost of the hierarchy - the expected cost of a ray which hits the root:
+     * every node costs its traversal, and every leaf the intersection of its primitives,
+     * weighted by the probability of hitting the node which is the ratio of its surface area
+     * to the surface area of the root
+     * @return the SAH cost, 0 for an empty hierarchy
+     */
+    public double getSAHCost()
+    {
+        if (nodeData.length == 0)
+            return 0;
+        double rootArea = nodeArea(0);
+        if (rootArea == 0)
+            return nodeData.length / 2d;
+        double cost = 0;
+        for (int node = 0; node < nodeData.length / 2; node++) {
+            int count = nodeData[2 * node + 1];
+            cost += nodeArea(node) * (count == 0 ? TRAVERSAL_COST : count);
+        }
+        return cost / rootArea;
+    }
+
+    /**
+     * Calculates the surface area of the box of a node
+     * @param node the node index
+     * @return the surface area
+     */
+    private double nodeArea(int node)
+    {
+        int b = 6 * node;
+        double dx = bound(b + 3) - bound(b);
+        double dy = bound(b + 4) - bound(b + 1);
+        double dz = bound(b + 5) - bound(b + 2);
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    /**
+     * Keeps the node boxes in single or in double precision.
+     * In single precision every side of a box is rounded outwards to the nearest float, so the boxes
+     * still bound their primitives and no intersection is lost, they are only slightly larger.
+     * The boxes take half the memory, the primitives and the intersections with them keep their own precision.
+     * A refit recalculates the boxes in double precision and rounds them again
+     * @param single true for single precision, false for double precision
+     * @return the hierarchy
+     */
+    public BVHTree setSinglePrecision(boolean single)
+    {
+        if (single && nodeBounds != null) {
+            singleBounds = roundOutwards(nodeBounds);
+            nodeBounds = null;
+        }
+        else if (!single && singleBounds != null) {
+            nodeBounds = widen(singleBounds);
+            singleBounds = null;
+        }
+        return this;
+    }
+
+    /**
+     * Checks whether the node boxes are kept in single precision
+     * @return true if the boxes are floats
+     */
+    public boolean isSinglePrecision()
+    {
+        return singleBounds != null;
+    }
+
+    /**
+     * Rounds boxes to single precision, the minimum sides down and the maximum sides up
+     * @param bounds minX, minY, minZ, maxX, maxY, maxZ per box
+     * @return the rounded boxes
+     */
+    static float[] roundOutwards(double[] bounds)
+    {
+        float[] result = new float[bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            float rounded = (float) bounds[i];
+            if (i % 6 < 3 && rounded > bounds[i])
+                rounded = Math.nextDown(rounded);
+            else if (i % 6 >= 3 && rounded < bounds[i])
+                rounded = Math.nextUp(rounded);
+            result[i] = rounded;
+        }
+        return result;
+    }
+
+    /**
+     * Widens boxes from single precision, exactly
+     * @param bounds the boxes in single precision
+     * @return the same boxes in double precision
+     */
+    private static double[] widen(float[] bounds)
+    {
+        double[] result = new double[bounds.length];
+        for (int i = 0; i < bounds.length; i++)
+            result[i] = bounds[i];
+        return result;
+    }
+
+    /**
+     * Returns a side of a node box in the precision the boxes are kept in
+     * @param index the index of the side - six per node
+     * @return the coordinate of the side
+     */
+    private double bound(int index)
+    {
+        return nodeBounds != null ? nodeBounds[index] : singleBounds[index];
+    }
+
+    /**
+     * Sets the threshold for rebuilding the hierarchy on a refit
+     * @param threshold the allowed ratio of the SAH cost after a refit to the cost after the build
+     * @return the hierarchy
+     * @throws IllegalArgumentException if the threshold is lower than 1
+     */
+    public BVHTree setRebuildThreshold(double threshold)
+    {
+        if (threshold < 1)
+            throw new IllegalArgumentException("rebuild threshold must be at least 1");
+        rebuildThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * Task which builds the subtree over a range of the primitive indices.
+     * Ranges larger than {@link #PARALLEL_THRESHOLD} build their two subtrees in parallel,
+     * the ranges are disjoint so the tasks partition the shared index array safely
+     */
+    private class BuildTask extends RecursiveTask<Node> {
+        /**
+         * the version of the serialized form, tasks are never serialized
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * the first index of the range
+         */
+        private final int start;
+        /**
+         * the index after the last one of the range
+         */
+        private final int end;
+        /**
+         * the depth of the node, the root is at depth 1
+         */
+        private final int depth;
+
+        /**
+         * constructor for a build task
+         * @param start the first index of the range
+         * @param end the index after the last one of the range
+         * @param depth the depth of the node, the root is at depth 1
+         */
+        BuildTask(int start, int end, int depth)
+        {
+            this.start = start;
+            this.end = end;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Node compute()
+        {
+            double[] box = rangeBounds(start, end, bounds, 6);
+            Box nodeBox = new Box(box[0], box[1], box[2], box[3], box[4], box[5]);
+            int count = end - start;
+            if (count <= leafSize || depth >= maxDepth)
+                return new Node(nodeBox, start, count);
+
+            int mid = partition(start, end);
+            // all the centroids are in the same point - nothing left to split
+            if (mid == start || mid == end)
+                return new Node(nodeBox, start, count);
+
+            BuildTask left = new BuildTask(start, mid, depth + 1);
+            BuildTask right = new BuildTask(mid, end, depth + 1);
+            if (count < PARALLEL_THRESHOLD)
+                return new Node(left.compute(), right.compute(), nodeBox);
+            right.fork();
+            return new Node(left.compute(), right.join(), nodeBox);
+        }
+    }
+
+    /**
+     * Calculates the 63 bit Morton codes of the primitive centroids and sorts the primitive
+     * indices by them, so primitives close in space are close in the index array
+     */
+    private void sortByMortonCodes()
+    {
+        int n = indices.length;
+        double[] centroidBox = rangeBounds(0, n, centroids, 3);
+        double[] scale = new double[3];
+        for (int axis = 0; axis < 3; axis++) {
+            double extent = centroidBox[axis + 3] - centroidBox[axis];
+            scale[axis] = extent > 0 ? MORTON_GRID / extent : 0;
+        }
+        codes = new long[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            long code = 0;
+            for (int axis = 0; axis < 3; axis++) {
+                long cell = (long) ((centroids[3 * i + axis] - centroidBox[axis]) * scale[axis]);
+                code |= spreadBits(Math.min(cell, MORTON_GRID - 1)) << (2 - axis);
+            }
+            codes[i] = code;
+        });
+        radixSort(codes, indices);
+    }
+
+    /**
+     * The amount of cells on every axis of the Morton grid - 21 bits per axis
+     */
+    private static final long MORTON_GRID = 1L << 21;
+
+    /**
+     * Spreads the 21 low bits of a value so there are two zero bits between every two bits
+     * @param value the value
+     * @return the spread bits
+     */
+    private static long spreadBits(long value)
+    {
+        long x = value & 0x1fffffL;
+        x = (x | x << 32) & 0x1f00000000ffffL;
+        x = (x | x << 16) & 0x1f0000ff0000ffL;
+        x = (x | x << 8) & 0x100f00f00f00f00fL;
+        x = (x | x << 4) & 0x10c30c30c30c30c3L;
+        x = (x | x << 2) & 0x1249249249249249L;
+        return x;
+    }
+
+    /**
+     * The amount of bits sorted in one pass of the radix sort
+     */
+    private static final int RADIX_BITS = 8;
+
+    /**
+     * Sorts non-negative keys with their values by a parallel least significant digit radix sort.
+     * Every pass counts the digits of every chunk of the keys in parallel, and then every chunk
+     * scatters its keys in parallel into its own ranges of the output, so the sort is stable
+     * @param keys the keys to sort
+     * @param values the values to reorder with the keys
+     */
+    private static void radixSort(long[] keys, int[] values)
+    {
+        int n = keys.length;
+        int buckets = 1 << RADIX_BITS;
+        int chunks = Math.max(1, Math.min(4 * ForkJoinPool.getCommonPoolParallelism(), n / PARALLEL_THRESHOLD));
+        int chunkSize = (n + chunks - 1) / chunks;
+        long[] keysBuffer = new long[n];
+        int[] valuesBuffer = new int[n];
+        long[] srcKeys = keys;
+        int[] srcValues = values;
+        long[] dstKeys = keysBuffer;
+        int[] dstValues = valuesBuffer;
+        int[][] offsets = new int[chunks][buckets];
+        for (int shift = 0; shift < Long.SIZE - 1; shift += RADIX_BITS) {
+            final int digitShift = shift;
+            final long[] inKeys = srcKeys;
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                int[] count = offsets[c];
+                Arrays.fill(count, 0);
+                for (int i = c * chunkSize; i < Math.min(n, (c + 1) * chunkSize); i++)
+                    count[(int) (inKeys[i] >>> digitShift) & (buckets - 1)]++;
+            });
+            // all the keys share the digit - nothing to reorder in this pass
+            boolean skip = false;
+            for (int d = 0; d < buckets && !skip; d++) {
+                int total = 0;
+                for (int c = 0; c < chunks; c++) total += offsets[c][d];
+                skip = total == n;
+            }
+            if (skip) continue;
+            // turn the counts into the first output index of every digit of every chunk
+            int next = 0;
+            for (int d = 0; d < buckets; d++)
+                for (int c = 0; c < chunks; c++) {
+                    int count = offsets[c][d];
+                    offsets[c][d] = next;
+                    next += count;
+                }
+            final int[] inValues = srcValues;
+            final long[] outKeys = dstKeys;
+            final int[] outValues = dstValues;
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                int[] offset = offsets[c];
+                for (int i = c * chunkSize; i < Math.min(n, (c + 1) * chunkSize); i++) {
+                    int o = offset[(int) (inKeys[i] >>> digitShift) & (buckets - 1)]++;
+                    outKeys[o] = inKeys[i];
+                    outValues[o] = inValues[i];
+                }
+            });
+            dstKeys = srcKeys;
+            dstValues = srcValues;
+            srcKeys = outKeys;
+            srcValues = outValues;
+        }
+        if (srcKeys != keys) {
+            System.arraycopy(srcKeys, 0, keys, 0, n);
+            System.arraycopy(srcValues, 0, values, 0, n);
+        }
+    }
+
+    /**
+     * Task which emits the subtree over a range of the primitives sorted by Morton codes.
+     * Every node is split where the highest bit differing inside its range changes,
+     * found by a binary search, so the hierarchy needs no SAH evaluation at all
+     */
+    private class MortonTask extends RecursiveTask<Node> {
+        /**
+         * the version of the serialized form, tasks are never serialized
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * the first index of the range
+         */
+        private final int start;
+        /**
+         * the index after the last one of the range
+         */
+        private final int end;
+        /**
+         * the depth of the node, the root is at depth 1
+         */
+        private final int depth;
+
+        /**
+         * constructor for a Morton build task
+         * @param start the first index of the range
+         * @param end the index after the last one of the range
+         * @param depth the depth of the node, the root is at depth 1
+         */
+        MortonTask(int start, int end, int depth)
+        {
+            this.start = start;
+            this.end = end;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Node compute()
+        {
+            int count = end - start;
+            if (count <= leafSize || depth >= maxDepth) {
+                double[] box = rangeBounds(start, end, bounds, 6);
+                return new Node(new Box(box[0], box[1], box[2], box[3], box[4], box[5]), start, count);
+            }
+
+            int mid = mortonSplit(start, end);
+            MortonTask left = new MortonTask(start, mid, depth + 1);
+            MortonTask right = new MortonTask(mid, end, depth + 1);
+            Node leftNode;
+            Node rightNode;
+            if (count < PARALLEL_THRESHOLD) {
+                leftNode = left.compute();
+                rightNode = right.compute();
+            } else {
+                right.fork();
+                leftNode = left.compute();
+                rightNode = right.join();
+            }
+            Box l = leftNode.getBox();
+            Box r = rightNode.getBox();
+            Box box = new Box(Math.min(l.minX, r.minX), Math.min(l.minY, r.minY), Math.min(l.minZ, r.minZ),
+                    Math.max(l.maxX, r.maxX), Math.max(l.maxY, r.maxY), Math.max(l.maxZ, r.maxZ));
+            return new Node(leftNode, rightNode, box);
+        }
+    }
+
+    /**
+     * Finds the split of a range of the primitives sorted by Morton codes
+     * @param start the first index of the range
+     * @param end the index after the last one of the range
+     * @return the index of the first primitive of the right part
+     */
+    private int mortonSplit(int start, int end)
+    {
+        long first = codes[start];
+        long last = codes[end - 1];
+        // identical codes - split the range in the middle
+        if (first == last)
+            return (start + end) >>> 1;
+
+        int commonPrefix = Long.numberOfLeadingZeros(first ^ last);
+        // find the last code which shares more than the common prefix with the first one
+        int split = start;
+        int step = end - 1 - start;
+        do {
+            step = (step + 1) >>> 1;
+            int candidate = split + step;
+            if (candidate < end - 1 && Long.numberOfLeadingZeros(first ^ codes[candidate]) > commonPrefix)
+                split = candidate;
+        } while (step > 1);
+        return split + 1;
+    }
+
+    /**
+     * Partitions a range of the primitive indices by the best SAH split.
+     * The SAH cost of a split is proportional to SA(left) * N(left) + SA(right) * N(right),
+     * the area of the parent and the traversal cost are the same for all the candidates
+     * @param start the first index of the range
+     * @param end the index after the last one of the range
+     * @return the index of the first primitive of the right part
+     */
+    private int partition(int start, int end)
+    {
+        double[] centroidBox = rangeBounds(start, end, centroids, 3);
+
+        int bestAxis = -1;
+        int bestBin = -1;
+        double bestCost = Double.POSITIVE_INFINITY;
+        int[] binCounts = new int[BINS];
+        double[] binBounds = new double[6 * BINS];
+        double[] rightAreas = new double[BINS];
+        int[] rightCounts = new int[BINS];
+        for (int axis = 0; axis < 3; axis++) {
+            double min = centroidBox[axis];
+            double extent = centroidBox[axis + 3] - min;
+            if (extent <= 0) continue;
+            double scale = BINS / extent;
+
+            Arrays.fill(binCounts, 0);
+            for (int b = 0; b < BINS; b++) resetBounds(binBounds, b);
+            for (int i = start; i < end; i++) {
+                int p = indices[i];
+                int b = bin(centroids[3 * p + axis], min, scale);
+                binCounts[b]++;
+                growBounds(binBounds, b, bounds, p);
+            }
+
+            // sweep from the right to get the area and count of every right part
+            double[] acc = new double[6];
+            resetBounds(acc, 0);
+            int accCount = 0;
+            for (int b = BINS - 1; b > 0; b--) {
+                growBounds(acc, 0, binBounds, b);
+                accCount += binCounts[b];
+                rightAreas[b] = accCount == 0 ? 0 : surfaceArea(acc);
+                rightCounts[b] = accCount;
+            }
+            // sweep from the left and evaluate the cost of splitting before every bin
+            resetBounds(acc, 0);
+            accCount = 0;
+            for (int b = 1; b < BINS; b++) {
+                growBounds(acc, 0, binBounds, b - 1);
+                accCount += binCounts[b - 1];
+                if (accCount == 0 || rightCounts[b] == 0) continue;
+                double cost = surfaceArea(acc) * accCount + rightAreas[b] * rightCounts[b];
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestBin = b;
+                }
+            }
+        }
+
+        // all the centroids are in the same point
+        if (bestAxis == -1)
+            return start;
+
+        double min = centroidBox[bestAxis];
+        double scale = BINS / (centroidBox[bestAxis + 3] - min);
+        int i = start;
+        int j = end - 1;
+        while (i <= j) {
+            if (bin(centroids[3 * indices[i] + bestAxis], min, scale) < bestBin)
+                i++;
+            else {
+                int temp = indices[i];
+                indices[i] = indices[j];
+                indices[j--] = temp;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Calculates the bin of a centroid coordinate
+     * @param value the centroid coordinate
+     * @param min the minimal centroid coordinate on the axis
+     * @param scale the amount of bins per unit on the axis
+     * @return the bin index
+     */
+    private static int bin(double value, double min, double scale)
+    {
+        int b = (int) ((value - min) * scale);
+        return b < 0 ? 0 : Math.min(b, BINS - 1);
+    }
+
+    /**
+     * Calculates the bounds of a range of the primitives
+     * @param start the first index of the range
+     * @param end the index after the last one of the range
+     * @param source the per primitive values - boxes or centroids
+     * @param stride the amount of values per primitive - 6 for boxes and 3 for centroids
+     * @return minX, minY, minZ, maxX, maxY, maxZ of the range
+     */
+    private double[] rangeBounds(int start, int end, double[] source, int stride)
+    {
+        double[] result = new double[6];
+        resetBounds(result, 0);
+        int high = stride == 6 ? 3 : 0;
+        for (int i = start; i < end; i++) {
+            int offset = stride * indices[i];
+            for (int axis = 0; axis < 3; axis++) {
+                result[axis] = Math.min(result[axis], source[offset + axis]);
+                result[axis + 3] = Math.max(result[axis + 3], source[offset + axis + high]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sets a box in an array of boxes to an empty box
+     * @param boxes the array of boxes
+     * @param index the index of the box in the array
+     */
+    private static void resetBounds(double[] boxes, int index)
+    {
+        for (int axis = 0; axis < 3; axis++) {
+            boxes[6 * index + axis] = Double.POSITIVE_INFINITY;
+            boxes[6 * index + axis + 3] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Grows a box in an array of boxes to contain another box
+     * @param boxes the array of boxes to grow
+     * @param index the index of the box to grow
+     * @param other the array of the box to contain
+     * @param otherIndex the index of the box to contain
+     */
+    private static void growBounds(double[] boxes, int index, double[] other, int otherIndex)
+    {
+        for (int axis = 0; axis < 3; axis++) {
+            boxes[6 * index + axis] = Math.min(boxes[6 * index + axis], other[6 * otherIndex + axis]);
+            boxes[6 * index + axis + 3] = Math.max(boxes[6 * index + axis + 3], other[6 * otherIndex + axis + 3]);
+        }
+    }
+
+    /**
+     * Calculates the surface area of a box
+     * @param box minX, minY, minZ, maxX, maxY, maxZ of the box
+     * @return the surface area
+     */
+    private static double surfaceArea(double[] box)
+    {
+        double dx = box[3] - box[0];
+        double dy = box[4] - box[1];
+        double dz = box[5] - box[2];
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    /**
+     * Lays the built tree out in the node arrays in depth-first order
+     * @param node the root of the subtree to lay out
+     * @param index the index of the subtree root in the node arrays
+     * @param level the level of the subtree root, the root is at level 1
+     * @return the index after the last node of the subtree
+     */
+    private int flatten(Node node, int index, int level)
+    {
+        Box box = node.getBox();
+        nodeBounds[6 * index] = box.minX;
+        nodeBounds[6 * index + 1] = box.minY;
+        nodeBounds[6 * index + 2] = box.minZ;
+        nodeBounds[6 * index + 3] = box.maxX;
+        nodeBounds[6 * index + 4] = box.maxY;
+        nodeBounds[6 * index + 5] = box.maxZ;
+        depth = Math.max(depth, level);
+        if (node.isLeaf()) {
+            nodeData[2 * index] = node.getStart();
+            nodeData[2 * index + 1] = node.getCount();
+            return index + 1;
+        }
+        // the left child follows its parent, the right child follows the left subtree
+        int right = flatten(node.getLeft(), index + 1, level + 1);
+        nodeData[2 * index] = right;
+        nodeData[2 * index + 1] = 0;
+        return flatten(node.getRight(), right, level + 1);
+    }
+
+    /**
+     * counts the nodes of a subtree
+     * @param node the root of the subtree
+     * @return the amount of nodes in the subtree
+     */
+    private static int countNodes(Node node)
+    {
+        return node.isLeaf() ? 1 : 1 + countNodes(node.getLeft()) + countNodes(node.getRight());
+    }
+
+    /**
+     * Calculates the distance a ray enters the box of a node within the maximum distance.
+     * The inverse of the ray direction is calculated once per ray by the ray itself, an axis
+     * parallel ray gets a positive infinite inverse (see {@link Ray#getInverseDirection()})
+     * @param node the node index
+     * @param ox the x coordinate of the ray head
+     * @param oy the y coordinate of the ray head
+     * @param oz the z coordinate of the ray head
+     * @param ix the inverse of the x coordinate of the ray direction
+     * @param iy the inverse of the y coordinate of the ray direction
+     * @param iz the inverse of the z coordinate of the ray direction
+     * @param maxDistance the maximum distance for intersection
+     * @return the entry distance (0 if the head is inside the box),
+     * or positive infinity if the ray misses the box within the maximum distance
+     */
+    private double entry(int node, double ox, double oy, double oz,
+                                   double ix, double iy, double iz, double maxDistance)
+    {
+        int b = 6 * node;
+        double tmin = Double.NEGATIVE_INFINITY;
+        double tmax = Double.POSITIVE_INFINITY;
+        double near = (bound(b) - ox) * ix;
+        double far = (bound(b + 3) - ox) * ix;
+        // a NaN (head on the slab of an axis parallel ray) fails every comparison and is ignored
+        if (near > far) { double t = near; near = far; far = t; }
+        if (near > tmin) tmin = near;
+        if (far < tmax) tmax = far;
+        near = (bound(b + 1) - oy) * iy;
+        far = (bound(b + 4) - oy) * iy;
+        if (near > far) { double t = near; near = far; far = t; }
+        if (near > tmin) tmin = near;
+        if (far < tmax) tmax = far;
+        near = (bound(b + 2) - oz) * iz;
+        far = (bound(b + 5) - oz) * iz;
+        if (near > far) { double t = near; near = far; far = t; }
+        if (near > tmin) tmin = near;
+        if (far < tmax) tmax = far;
+        return tmax >= 0 && tmin <= tmax && tmin <= maxDistance ? Math.max(tmin, 0) : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Checks if a ray meets a leaf primitive for the first time and marks it in the mailbox.
+     * Only after a spatial split build a primitive may be in several leaves, otherwise there is no mailbox
+     * @param box the mailbox of the thread, null if every primitive is in one leaf
+     * @param stamp the stamp of the ray
+     * @param i the index of the leaf primitive
+     * @return true if the ray has not met the primitive yet
+     */
+    private boolean firstVisit(Mailbox box, int stamp, int i)
+    {
+        if (box == null)
+            return true;
+        int[] stamps = box.stamps;
+        int primitive = references[i];
+        if (stamps[primitive] == stamp)
+            return false;
+        stamps[primitive] = stamp;
+        return true;
     }
 
     /**
@@ -125,39 +1500,539 @@ public class BVHTree {
      */
     public Geometries getIntersectedGeometries(Ray ray)
     {
-        return getIntersectedGeometries(ray, root);
+        Geometries result = new Geometries();
+        for (Intersectable g : unbounded)
+            result.add(g);
+        if (nodeData.length == 0)
+            return result;
+
+        double ox = ray.getHead().getX();
+        double oy = ray.getHead().getY();
+        double oz = ray.getHead().getZ();
+        double[] inverse = ray.getInverseDirection();
+        double ix = inverse[0];
+        double iy = inverse[1];
+        double iz = inverse[2];
+        Mailbox box = references == null ? null : mailbox.get();
+        int stamp = box == null ? 0 : box.next(distinct.length);
+        int[] stack = traversalStack.get().nodes;
+        int top = 0;
+        int node = 0;
+        while (true) {
+            if (entry(node, ox, oy, oz, ix, iy, iz, Double.POSITIVE_INFINITY) != Double.POSITIVE_INFINITY) {
+                int count = nodeData[2 * node + 1];
+                if (count == 0) {
+                    // visit the left child now and the right one later
+                    stack[top++] = nodeData[2 * node];
+                    node++;
+                    continue;
+                }
+                int start = nodeData[2 * node];
+                for (int i = start; i < start + count; i++)
+                    if (firstVisit(box, stamp, i))
+                        result.add(primitives[i]);
+            }
+            if (top == 0)
+                return result;
+            node = stack[--top];
+        }
     }
 
+    @Override
+    protected List<GeoPoint> findGeoIntersectionsHelper(Ray ray, double maxDistance)
+    {
+        List<GeoPoint> result = null;
+        for (Intersectable g : unbounded)
+            result = addAll(result, g.findGeoIntersections(ray, maxDistance));
+        if (nodeData.length == 0)
+            return result;
 
+        double ox = ray.getHead().getX();
+        double oy = ray.getHead().getY();
+        double oz = ray.getHead().getZ();
+        double[] inverse = ray.getInverseDirection();
+        double ix = inverse[0];
+        double iy = inverse[1];
+        double iz = inverse[2];
+        Mailbox box = references == null ? null : mailbox.get();
+        int stamp = box == null ? 0 : box.next(distinct.length);
+        int[] stack = traversalStack.get().nodes;
+        int top = 0;
+        int node = 0;
+        int visits = 0;
+        int tests = 0;
+        while (true) {
+            if (entry(node, ox, oy, oz, ix, iy, iz, maxDistance) != Double.POSITIVE_INFINITY) {
+                visits++;
+                int count = nodeData[2 * node + 1];
+                if (count == 0) {
+                    stack[top++] = nodeData[2 * node];
+                    node++;
+                    continue;
+                }
+                int start = nodeData[2 * node];
+                for (int i = start; i < start + count; i++)
+                    if (firstVisit(box, stamp, i)) {
+                        tests++;
+                        result = addAll(result, primitives[i].findGeoIntersections(ray, maxDistance));
+                    }
+            }
+            if (top == 0) {
+                count(1, visits, tests);
+                return result;
+            }
+            node = stack[--top];
+        }
+    }
 
+    /**
+     * Attenuates the transmittance of a shadow ray by the geometries.
+     * The order of the hits does not matter, so the nodes are visited in the order of the hierarchy
+     * and the walk ends at the first hit which blocks the light
+     * @param ray the shadow ray
+     * @param maxDistance the distance to the light source
+     * @param ktr the transmittance accumulated so far
+     * @return the attenuated transmittance, {@link Double3#ZERO} if the light is blocked
+     */
+    @Override
+    protected Double3 occlusion(Ray ray, double maxDistance, Double3 ktr)
+    {
+        ktr = occlusionUnbounded(ray, maxDistance, ktr);
+        if (ktr == Double3.ZERO || nodeData.length == 0)
+            return ktr;
+
+        double ox = ray.getHead().getX();
+        double oy = ray.getHead().getY();
+        double oz = ray.getHead().getZ();
+        double[] inverse = ray.getInverseDirection();
+        double ix = inverse[0];
+        double iy = inverse[1];
+        double iz = inverse[2];
+        Mailbox box = references == null ? null : mailbox.get();
+        int stamp = box == null ? 0 : box.next(distinct.length);
+        int[] stack = traversalStack.get().nodes;
+        int top = 0;
+        int node = 0;
+        int visits = 0;
+        int tests = 0;
+        while (true) {
+            if (entry(node, ox, oy, oz, ix, iy, iz, maxDistance) != Double.POSITIVE_INFINITY) {
+                visits++;
+                int count = nodeData[2 * node + 1];
+                if (count == 0) {
+                    stack[top++] = nodeData[2 * node];
+                    node++;
+                    continue;
+                }
+                int start = nodeData[2 * node];
+                for (int i = start; i < start + count; i++) {
+                    if (!firstVisit(box, stamp, i))
+                        continue;
+                    tests++;
+                    ktr = primitives[i].occlusion(ray, maxDistance, ktr);
+                    if (ktr == Double3.ZERO) {
+                        count(1, visits, tests);
+                        return ktr;
+                    }
+                }
+            }
+            if (top == 0) {
+                count(1, visits, tests);
+                return ktr;
+            }
+            node = stack[--top];
+        }
+    }
 
     /**
-     * returns the intersected geometries
-     * @param ray ray
-     * @param node node
-     * @return list of intersected geometries
+     * Finds the closest intersection point between the given ray and the geometries.
+     * The children of every node are visited front-to-back and any node the ray enters
+     * beyond the closest intersection found so far is skipped with all its subtree
+     * @param ray the ray to intersect with the geometries
+     * @param tMax the distance which the point must be nearer than
+     * @return the closest intersection point, or null if there is no intersection nearer than tMax
      */
-    private Geometries getIntersectedGeometries(Ray ray, Node node)
+    @Override
+    public GeoPoint findClosestIntersection(Ray ray, double tMax)
     {
-        if(node.isLeaf())
-        {
-            return (node.getGeometries());
-            //return geometries;
+        Point head = ray.getHead();
+        GeoPoint closest = findClosestUnbounded(ray, tMax);
+        double closestDistance = closest == null ? tMax : head.distance(closest.point);
+        if (nodeData.length == 0)
+            return closest;
+
+        double ox = head.getX();
+        double oy = head.getY();
+        double oz = head.getZ();
+        double[] inverse = ray.getInverseDirection();
+        double ix = inverse[0];
+        double iy = inverse[1];
+        double iz = inverse[2];
+        count(1, 0, 0);
+        if (entry(0, ox, oy, oz, ix, iy, iz, closestDistance) == Double.POSITIVE_INFINITY)
+            return closest;
+        return findClosestInSubtree(0, ray, ox, oy, oz, ix, iy, iz, closest, closestDistance);
+    }
+
+    /**
+     * Finds the closest intersection point between the given ray and the primitives of a subtree,
+     * front-to-back like {@link #findClosestIntersection(Ray, double)}
+     * @param root the root node of the subtree, which the ray enters before the closest distance
+     * @param ray the ray to intersect with the primitives
+     * @param ox the x coordinate of the ray head
+     * @param oy the y coordinate of the ray head
+     * @param oz the z coordinate of the ray head
+     * @param ix the inverse of the x coordinate of the ray direction
+     * @param iy the inverse of the y coordinate of the ray direction
+     * @param iz the inverse of the z coordinate of the ray direction
+     * @param closest the closest intersection point found so far, may be null
+     * @param closestDistance the distance which the point must be nearer than
+     * @return the closest intersection point, the given one if the subtree has no nearer point
+     */
+    private GeoPoint findClosestInSubtree(int root, Ray ray, double ox, double oy, double oz,
+                                          double ix, double iy, double iz, GeoPoint closest, double closestDistance)
+    {
+        Point head = ray.getHead();
+        TraversalStack stack = traversalStack.get();
+        int top = 0;
+        int node = root;
+        int visits = 0;
+        int tests = 0;
+        while (true) {
+            visits++;
+            int count = nodeData[2 * node + 1];
+            if (count == 0) {
+                int left = node + 1;
+                int right = nodeData[2 * node];
+                double leftEntry = entry(left, ox, oy, oz, ix, iy, iz, closestDistance);
+                double rightEntry = entry(right, ox, oy, oz, ix, iy, iz, closestDistance);
+                if (leftEntry != Double.POSITIVE_INFINITY && rightEntry != Double.POSITIVE_INFINITY) {
+                    // visit the nearer child now and keep the farther one with its entry distance
+                    boolean leftFirst = leftEntry <= rightEntry;
+                    stack.nodes[top] = leftFirst ? right : left;
+                    stack.entries[top++] = leftFirst ? rightEntry : leftEntry;
+                    node = leftFirst ? left : right;
+                    continue;
+                }
+                if (leftEntry != Double.POSITIVE_INFINITY) {
+                    node = left;
+                    continue;
+                }
+                if (rightEntry != Double.POSITIVE_INFINITY) {
+                    node = right;
+                    continue;
+                }
+            } else {
+                int start = nodeData[2 * node];
+                tests += count;
+                for (int i = start; i < start + count; i++) {
+                    GeoPoint gp = primitives[i].findClosestIntersection(ray, closestDistance);
+                    if (gp != null) {
+                        closest = gp;
+                        closestDistance = head.distance(gp.point);
+                    }
+                }
+            }
+            // continue with the next node which the ray enters before the closest intersection
+            do {
+                if (top == 0) {
+                    // the rays are counted by the callers
+                    count(0, visits, tests);
+                    return closest;
+                }
+                node = stack.nodes[--top];
+            } while (stack.entries[top] > closestDistance);
         }
+    }
+
+    /**
+     * A packet of rays with the bounds of their heads and of the inverses of their directions,
+     * for the interval test of a whole packet against a box
+     */
+    private static class RayPacket {
+        /**
+         * The heads and the inverse directions of the rays
+         */
+        final double[] ox, oy, oz, ix, iy, iz;
+        /**
+         * The bounds of the heads and of the inverse directions over the rays -
+         * minimum and maximum of x, y and z for each
+         */
+        final double[] headBounds = new double[6], inverseBounds = new double[6];
+        /**
+         * Whether the directions of all the rays have the same signs and no zero coordinate,
+         * otherwise the interval test does not bound the rays
+         */
+        final boolean coherent;
 
-        Geometries geometries1 = new Geometries();
-        if(node.getLeft() != null && node.getLeft().getBox().intersects(ray, Double.POSITIVE_INFINITY))
+        /**
+         * constructor for a packet
+         * @param rays the rays of the packet
+         */
+        RayPacket(Ray[] rays)
         {
-            Geometries geoLeft = getIntersectedGeometries(ray, node.getLeft());
-            if(geoLeft != null && geoLeft.size() > 0)
-                geometries1.add(geoLeft);
+            int n = rays.length;
+            ox = new double[n];
+            oy = new double[n];
+            oz = new double[n];
+            ix = new double[n];
+            iy = new double[n];
+            iz = new double[n];
+            Arrays.fill(headBounds, 0, 3, Double.POSITIVE_INFINITY);
+            Arrays.fill(headBounds, 3, 6, Double.NEGATIVE_INFINITY);
+            Arrays.fill(inverseBounds, 0, 3, Double.POSITIVE_INFINITY);
+            Arrays.fill(inverseBounds, 3, 6, Double.NEGATIVE_INFINITY);
+            boolean same = true;
+            for (int i = 0; i < n; i++) {
+                Point head = rays[i].getHead();
+                ox[i] = head.getX();
+                oy[i] = head.getY();
+                oz[i] = head.getZ();
+                double[] inverse = rays[i].getInverseDirection();
+                ix[i] = inverse[0];
+                iy[i] = inverse[1];
+                iz[i] = inverse[2];
+                grow(headBounds, ox[i], oy[i], oz[i]);
+                grow(inverseBounds, ix[i], iy[i], iz[i]);
+            }
+            for (int axis = 0; axis < 3; axis++) {
+                double low = inverseBounds[axis], high = inverseBounds[axis + 3];
+                if (Double.isInfinite(low) || Double.isInfinite(high) || low < 0 != high < 0)
+                    same = false;
+            }
+            coherent = same;
         }
-        if(node.getRight() != null && node.getRight().getBox().intersects(ray, Double.POSITIVE_INFINITY))
+
+        /**
+         * Grows bounds to contain a point
+         * @param bounds the minimum and maximum of x, y and z
+         * @param x the x coordinate
+         * @param y the y coordinate
+         * @param z the z coordinate
+         */
+        private static void grow(double[] bounds, double x, double y, double z)
         {
-            Geometries geoRight = getIntersectedGeometries(ray, node.getRight());
-            if(geoRight != null && geoRight.size() > 0)
-                geometries1.add(geoRight);
+            bounds[0] = Math.min(bounds[0], x);
+            bounds[1] = Math.min(bounds[1], y);
+            bounds[2] = Math.min(bounds[2], z);
+            bounds[3] = Math.max(bounds[3], x);
+            bounds[4] = Math.max(bounds[4], y);
+            bounds[5] = Math.max(bounds[5], z);
+        }
+    }
+
+    /**
+     * Checks with interval arithmetic whether any ray of a coherent packet may enter the box of a node.
+     * The entry and exit distances on every axis are bounded over all the heads and directions
+     * of the packet, so a box which fails the test is missed by every ray of the packet
+     * @param node the node index
+     * @param packet the coherent packet
+     * @param maxDistance the largest distance the rays of the packet still search to
+     * @return false if no ray of the packet enters the box within the distance, true if some ray may
+     */
+    private boolean packetMayEnter(int node, RayPacket packet, double maxDistance)
+    {
+        int b = 6 * node;
+        double near = 0;
+        double far = maxDistance;
+        for (int axis = 0; axis < 3; axis++) {
+            double inverseLow = packet.inverseBounds[axis];
+            double inverseHigh = packet.inverseBounds[axis + 3];
+            // the rays enter the slab through the side their direction faces
+            double entrySide = inverseLow > 0 ? bound(b + axis) : bound(b + axis + 3);
+            double exitSide = inverseLow > 0 ? bound(b + axis + 3) : bound(b + axis);
+            double entryLow = entrySide - packet.headBounds[axis + 3];
+            double entryHigh = entrySide - packet.headBounds[axis];
+            double exitLow = exitSide - packet.headBounds[axis + 3];
+            double exitHigh = exitSide - packet.headBounds[axis];
+            near = Math.max(near, Math.min(Math.min(entryLow * inverseLow, entryLow * inverseHigh),
+                    Math.min(entryHigh * inverseLow, entryHigh * inverseHigh)));
+            far = Math.min(far, Math.max(Math.max(exitLow * inverseLow, exitLow * inverseHigh),
+                    Math.max(exitHigh * inverseLow, exitHigh * inverseHigh)));
+        }
+        return near <= far;
+    }
+
+    /**
+     * Finds the closest intersection points of a packet of neighbouring rays.
+     * A coherent packet (directions with the same signs) walks the hierarchy once:
+     * every node is first tested against the whole packet with interval arithmetic,
+     * then the rays from the first active one are tested until the first which enters the node,
+     * and the children inherit that ray as their first active one.
+     * When fewer than {@value #MIN_PACKET_RAYS} rays still enter a node the packet has diverged,
+     * and each of them continues through the subtree alone.
+     * An incoherent packet is traced ray by ray
+     * @param rays the rays of the packet
+     * @return the closest intersection point of every ray, null for the rays without an intersection
+     */
+    @Override
+    public GeoPoint[] findClosestIntersections(Ray[] rays)
+    {
+        RayPacket packet = new RayPacket(rays);
+        if (!packet.coherent || nodeData.length == 0)
+            return super.findClosestIntersections(rays);
+
+        int n = rays.length;
+        count(n, 0, 0);
+        GeoPoint[] closest = new GeoPoint[n];
+        double[] closestDistances = new double[n];
+        for (int i = 0; i < n; i++) {
+            closest[i] = findClosestUnbounded(rays[i], Double.POSITIVE_INFINITY);
+            closestDistances[i] = closest[i] == null ? Double.POSITIVE_INFINITY
+                    : rays[i].getHead().distance(closest[i].point);
+        }
+        // the farthest distance which the rays from every index on still search to
+        double[] farthest = new double[n];
+        updateFarthest(closestDistances, farthest);
+
+        // the packet stack is separate from the per thread one which the diverged rays use
+        int[] nodes = new int[depth + 1];
+        int[] firsts = new int[depth + 1];
+        int top = 0;
+        int node = 0;
+        int first = 0;
+        // a node entered by the packet is one visit, the diverged rays count their own visits
+        int visits = 0;
+        int tests = 0;
+        while (true) {
+            if (packetMayEnter(node, packet, farthest[first])) {
+                visits++;
+                int count = nodeData[2 * node + 1];
+                if (count != 0) {
+                    int start = nodeData[2 * node];
+                    for (int r = first; r < n; r++) {
+                        if (entry(node, packet.ox[r], packet.oy[r], packet.oz[r],
+                                packet.ix[r], packet.iy[r], packet.iz[r], closestDistances[r]) == Double.POSITIVE_INFINITY)
+                            continue;
+                        tests += count;
+                        for (int i = start; i < start + count; i++) {
+                            GeoPoint gp = primitives[i].findClosestIntersection(rays[r], closestDistances[r]);
+                            if (gp != null) {
+                                closest[r] = gp;
+                                closestDistances[r] = rays[r].getHead().distance(gp.point);
+                            }
+                        }
+                    }
+                    updateFarthest(closestDistances, farthest);
+                } else {
+                    // only the first few active rays are needed to tell whether the packet diverged
+                    int active = 0;
+                    int firstActive = -1;
+                    for (int r = first; r < n && active < MIN_PACKET_RAYS; r++)
+                        if (entry(node, packet.ox[r], packet.oy[r], packet.oz[r],
+                                packet.ix[r], packet.iy[r], packet.iz[r], closestDistances[r]) != Double.POSITIVE_INFINITY) {
+                            if (active++ == 0)
+                                firstActive = r;
+                        }
+                    if (active >= MIN_PACKET_RAYS) {
+                        // the first active ray decides which child is nearer
+                        int left = node + 1;
+                        int right = nodeData[2 * node];
+                        double leftEntry = entry(left, packet.ox[firstActive], packet.oy[firstActive], packet.oz[firstActive],
+                                packet.ix[firstActive], packet.iy[firstActive], packet.iz[firstActive], Double.POSITIVE_INFINITY);
+                        double rightEntry = entry(right, packet.ox[firstActive], packet.oy[firstActive], packet.oz[firstActive],
+                                packet.ix[firstActive], packet.iy[firstActive], packet.iz[firstActive], Double.POSITIVE_INFINITY);
+                        boolean leftFirst = leftEntry <= rightEntry;
+                        nodes[top] = leftFirst ? right : left;
+                        firsts[top++] = firstActive;
+                        node = leftFirst ? left : right;
+                        first = firstActive;
+                        continue;
+                    }
+                    if (active > 0) {
+                        for (int r = firstActive; r < n; r++)
+                            if (entry(node, packet.ox[r], packet.oy[r], packet.oz[r],
+                                    packet.ix[r], packet.iy[r], packet.iz[r], closestDistances[r]) != Double.POSITIVE_INFINITY) {
+                                closest[r] = findClosestInSubtree(node, rays[r], packet.ox[r], packet.oy[r], packet.oz[r],
+                                        packet.ix[r], packet.iy[r], packet.iz[r], closest[r], closestDistances[r]);
+                                if (closest[r] != null)
+                                    closestDistances[r] = rays[r].getHead().distance(closest[r].point);
+                            }
+                        updateFarthest(closestDistances, farthest);
+                    }
+                }
+            }
+            if (top == 0) {
+                count(0, visits, tests);
+                return closest;
+            }
+            node = nodes[--top];
+            first = firsts[top];
         }
-        return geometries1;
     }
-}
\ No newline at end of file
+
+    /**
+     * Finds the largest distance from every index to the end of the distances
+     * @param distances the distances
+     * @param farthest the array to fill with the largest distance from every index on
+     */
+    private static void updateFarthest(double[] distances, double[] farthest)
+    {
+        double max = 0;
+        for (int i = distances.length - 1; i >= 0; i--)
+            farthest[i] = max = Math.max(max, distances[i]);
+    }
+
+    @Override
+    public void constructBox()
+    {
+        // the box of the root bounds all the primitives, unless some of them are unbounded
+        box = nodeData.length == 0 || !unbounded.isEmpty() ? null
+                : new Box(bound(0), bound(1), bound(2), bound(3), bound(4), bound(5));
+    }
+
+    /**
+     * getter for the depth of the hierarchy
+     * @return the amount of levels in the hierarchy, 0 if it is empty
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * getter for the node boxes, for the structures which are built over the hierarchy
+     * @return minX, minY, minZ, maxX, maxY, maxZ per node in depth-first order, in double precision
+     */
+    double[] getNodeBounds()
+    {
+        return nodeBounds != null ? nodeBounds : widen(singleBounds);
+    }
+
+    /**
+     * getter for the node topology, for the structures which are built over the hierarchy
+     * @return the right child or the first primitive, and the amount of primitives, per node
+     */
+    int[] getNodeData()
+    {
+        return nodeData;
+    }
+
+    /**
+     * getter for the primitives, for the structures which are built over the hierarchy
+     * @return the bounded primitives in the order of the leaves
+     */
+    Intersectable[] getPrimitives()
+    {
+        return primitives;
+    }
+
+    /**
+     * getter for the references, for the structures which are built over the hierarchy
+     * @return the index of the distinct primitive of every leaf primitive after a spatial split build,
+     * null if every primitive is in one leaf
+     */
+    int[] getReferences()
+    {
+        return references;
+    }
+
+    /**
+     * getter for the amount of distinct primitives, for the structures which are built over the hierarchy
+     * @return the amount of bounded primitives, each counted once even if it is in several leaves
+     */
+    int getDistinctCount()
+    {
+        return distinct == null ? primitives.length : distinct.length;
+    }
+}
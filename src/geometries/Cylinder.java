@@ -87,7 +87,7 @@ public class Cylinder extends Tube {
 
         // Find intersections with the bottom base
         List<Point> bottomBaseIntersections = bottomBase.findIntersections(ray);
-        if (bottomBaseIntersections != null && alignZero(bottomBaseIntersections.getFirst().distanceSquared(ray.getHead()) - maxDistance) <= 0d) {
+        if (bottomBaseIntersections != null && alignZero(bottomBaseIntersections.getFirst().distance(ray.getHead()) - maxDistance) <= 0d) {
             Point intersection = bottomBaseIntersections.getFirst();
             if (axis.getPoint(0d).distanceSquared(intersection) <= radius * radius) {
                 intersections.add(intersection);
@@ -96,7 +96,7 @@ public class Cylinder extends Tube {
 
         // Find intersections with the top base
         List<Point> topBaseIntersections = topBase.findIntersections(ray);
-        if (topBaseIntersections != null && alignZero(topBaseIntersections.getFirst().distanceSquared(ray.getHead()) - maxDistance) <= 0d) {
+        if (topBaseIntersections != null && alignZero(topBaseIntersections.getFirst().distance(ray.getHead()) - maxDistance) <= 0d) {
             Point intersection = topBaseIntersections.getFirst();
             if (axis.getPoint(height).distanceSquared(intersection) <= radius * radius) {
                 intersections.add(intersection);
@@ -124,13 +124,19 @@ public class Cylinder extends Tube {
     public void constructBox() {
         Point endPoint1 = axis.getHead().add(axis.getDir().scale(height));
         Point startPoint = axis.getHead();
+        Vector dir = axis.getDir();
+        // the bases are disks perpendicular to the axis, so along every coordinate axis
+        // they reach radius * sin of the angle between the cylinder axis and that axis
+        double extentX = radius * Math.sqrt(Math.max(0, 1 - dir.getX() * dir.getX()));
+        double extentY = radius * Math.sqrt(Math.max(0, 1 - dir.getY() * dir.getY()));
+        double extentZ = radius * Math.sqrt(Math.max(0, 1 - dir.getZ() * dir.getZ()));
         // Determine the minimum and maximum coordinates
-        double minX = Math.min(startPoint.getX(), endPoint1.getX()) - radius;
-        double maxX = Math.max(startPoint.getX(), endPoint1.getX()) + radius;
-        double minY = Math.min(startPoint.getY(), endPoint1.getY()) - radius;
-        double maxY = Math.max(startPoint.getY(), endPoint1.getY()) + radius;
-        double minZ = Math.min(startPoint.getZ(), endPoint1.getZ()) - radius;
-        double maxZ = Math.max(startPoint.getZ(), endPoint1.getZ()) + radius;
+        double minX = Math.min(startPoint.getX(), endPoint1.getX()) - extentX;
+        double maxX = Math.max(startPoint.getX(), endPoint1.getX()) + extentX;
+        double minY = Math.min(startPoint.getY(), endPoint1.getY()) - extentY;
+        double maxY = Math.max(startPoint.getY(), endPoint1.getY()) + extentY;
+        double minZ = Math.min(startPoint.getZ(), endPoint1.getZ()) - extentZ;
+        double maxZ = Math.max(startPoint.getZ(), endPoint1.getZ()) + extentZ;
         box = new Box(minX, minY, minZ, maxX, maxY, maxZ);
     }
 
@@ -1,11 +1,9 @@
 package geometries;
 
-import primitives.Point;
+import primitives.Double3;
 import primitives.Ray;
-import primitives.Vector;
 
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -50,16 +48,18 @@ public class Geometries extends Intersectable {
     protected List<GeoPoint> findGeoIntersectionsHelper(Ray ray, double maxDistance) {
         List<GeoPoint> result = null;
         for (Intersectable geometry : geometries) {
-            if (geometry.findGeoIntersections(ray) != null) {
-                List<GeoPoint> tempIntersections = geometry.findGeoIntersections(ray);
-                if (tempIntersections != null) {
-                    if (result == null) {
-                        result = new LinkedList<>();
-                    }
-                    for (GeoPoint geoPoint : tempIntersections) {
-                        if (alignZero(geoPoint.point.distance(ray.getHead()) - maxDistance) <= 0) {
-                            result.add(geoPoint);
-                        }
+            // a geometry with a constructed box is skipped when the ray misses its box,
+            // the unbounded ones (planes and tubes) have no box and are always tested
+            if (geometry.box != null && !geometry.isIntersectBox(ray, maxDistance))
+                continue;
+            List<GeoPoint> tempIntersections = geometry.findGeoIntersections(ray, maxDistance);
+            if (tempIntersections != null) {
+                if (result == null) {
+                    result = new LinkedList<>();
+                }
+                for (GeoPoint geoPoint : tempIntersections) {
+                    if (alignZero(geoPoint.point.distance(ray.getHead()) - maxDistance) <= 0) {
+                        result.add(geoPoint);
                     }
                 }
             }
@@ -69,8 +69,38 @@ public class Geometries extends Intersectable {
         return result;
     }
 
+    @Override
+    public GeoPoint findClosestIntersection(Ray ray, double tMax) {
+        GeoPoint closest = null;
+        for (Intersectable geometry : geometries) {
+            if (geometry.box != null && !geometry.isIntersectBox(ray, tMax))
+                continue;
+            // the distance of the best point so far rejects the farther geometries early
+            GeoPoint geoPoint = geometry.findClosestIntersection(ray, tMax);
+            if (geoPoint != null) {
+                closest = geoPoint;
+                tMax = geoPoint.point.distance(ray.getHead());
+            }
+        }
+        return closest;
+    }
+
+    @Override
+    protected Double3 occlusion(Ray ray, double maxDistance, Double3 ktr) {
+        for (Intersectable geometry : geometries) {
+            if (geometry.box != null && !geometry.isIntersectBox(ray, maxDistance))
+                continue;
+            ktr = geometry.occlusion(ray, maxDistance, ktr);
+            if (ktr == Double3.ZERO)
+                return ktr;
+        }
+        return ktr;
+    }
+
     @Override
     public boolean isIntersectBox(Ray ray, double maxDistance) {
+        if (box != null)
+            return box.intersects(ray, maxDistance);
         for (Intersectable g : geometries) {
             if (g.isIntersectBox(ray, maxDistance)) return true;
         }
@@ -91,9 +121,25 @@ public class Geometries extends Intersectable {
 
     /**
      * Constructs the Axis-Aligned Bounding Box (AABB) for the geometrical object.
+     * The box bounds the boxes of all the geometries, it is null if any of them is unbounded.
      */
     public void constructBox() {
-        return;
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+        for (Intersectable g : geometries) {
+            g.constructBox();
+            if (g.box == null) {
+                box = null;
+                return;
+            }
+            minX = Math.min(minX, g.box.minX);
+            minY = Math.min(minY, g.box.minY);
+            minZ = Math.min(minZ, g.box.minZ);
+            maxX = Math.max(maxX, g.box.maxX);
+            maxY = Math.max(maxY, g.box.maxY);
+            maxZ = Math.max(maxZ, g.box.maxZ);
+        }
+        box = geometries.isEmpty() ? null : new Box(minX, minY, minZ, maxX, maxY, maxZ);
     }
 
 
@@ -105,22 +151,4 @@ public class Geometries extends Intersectable {
         return geometries.size();
     }
 
-
-    /**
-     * Splits the geometries collection into two collections along the given axis-aligned box.
-     *
-     * @param box The axis-aligned box to split the geometries along.
-     * @return The geometries collection that intersects the given box.
-     */
-    public Geometries splitAxisAligned(Box box) {
-        Geometries result = new Geometries();
-        Ray ray = new Ray(new Point(box.minX, box.minY, box.minZ), new Vector(box.maxX, box.maxY, box.maxZ));
-        for (Intersectable g : geometries) {
-            if (g.isIntersectBox(ray, Double.POSITIVE_INFINITY)) {
-                result.add(g);
-            }
-        }
-        return result;
-    }
 }
-
@@ -3,8 +3,10 @@ package geometries;
 
 import Scene.Scene;
 import primitives.Color;
+import primitives.Double3;
 import primitives.Material;
 import primitives.Point;
+import primitives.Ray;
 import primitives.Vector;
 
 /**
@@ -14,15 +16,30 @@ public abstract class Geometry extends Intersectable {
     /**
      * Constructs a new Geometry object.
      */
-    public Geometry(){}
+    public Geometry(){
+        this(new Color(java.awt.Color.BLACK), new Material());
+    }
+
+    /**
+     * Constructs a geometry with the given emission and material, for the geometries which
+     * take them from another object and would only waste the defaults
+     *
+     * @param emission the emission color of the geometry
+     * @param material the material of the geometry
+     */
+    Geometry(Color emission, Material material) {
+        this.emission = emission;
+        this.material = material;
+    }
+
     /**
      * The emission color of the geometry.
      */
-    protected Color emission = new Color(java.awt.Color.BLACK);
+    protected Color emission;
     /**
      * The material of the geometry.
      */
-    private Material material = new Material();
+    private Material material;
 
     /**
      * Computes and returns the normal vector to the geometry at a given point.
@@ -72,5 +89,13 @@ public abstract class Geometry extends Intersectable {
         return this;
     }
 
+    @Override
+    protected Double3 occlusion(Ray ray, double maxDistance, Double3 ktr) {
+        // an opaque geometry blocks the light at any point within the distance, counted like findGeoIntersections
+        if (getMaterial().kT.lowerThan(MIN_TRANSMITTANCE))
+            return findGeoIntersectionsHelper(ray, maxDistance) == null ? ktr : Double3.ZERO;
+        return super.occlusion(ray, maxDistance, ktr);
+    }
+
 
 }
\ No newline at end of file
@@ -0,0 +1,202 @@
+package geometries;
+
+import primitives.*;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * An instance places a shared shape in the scene with its own affine transformation and optionally its own material.
+ * The shape is usually a bottom-level {@link BVHTree} over a mesh, built once and shared by all its instances,
+ * while the instances themselves are the primitives of the top-level BVH of the scene.
+ * Rays are moved into the object space of the shape on entry, so the shape is never copied or transformed.
+ */
+public class Instance extends Intersectable {
+    /**
+     * The shared shape in its object space
+     */
+    private final Intersectable shape;
+    /**
+     * The transformation from the object space of the shape to the world space
+     */
+    private final Transform transform;
+    /**
+     * The material which overrides the materials of the shape, null to keep them
+     */
+    private Material material = null;
+
+    /**
+     * A geometry hit through an instance - it presents the hit geometry of the shape in the world space
+     */
+    private static class InstanceGeometry extends Geometry {
+        /**
+         * The instance the geometry was hit through
+         */
+        private final Instance instance;
+        /**
+         * The geometry of the shape which was hit
+         */
+        private final Geometry geometry;
+
+        /**
+         * constructor for a geometry hit through an instance
+         *
+         * @param instance the instance
+         * @param geometry the hit geometry of the shape
+         */
+        InstanceGeometry(Instance instance, Geometry geometry) {
+            // the material and the emission are those of the instance and the shape
+            super(null, null);
+            this.instance = instance;
+            this.geometry = geometry;
+        }
+
+        @Override
+        public Vector getNormal(Point p) {
+            Transform transform = instance.transform;
+            return transform.applyNormal(geometry.getNormal(transform.applyInverse(p))).normalize();
+        }
+
+        @Override
+        public Color getEmission() {
+            return geometry.getEmission();
+        }
+
+        @Override
+        public Material getMaterial() {
+            return instance.material == null ? geometry.getMaterial() : instance.material;
+        }
+
+        @Override
+        public boolean isIntersectBox(Ray ray, double maxDistance) {
+            return false;
+        }
+
+        @Override
+        public void constructBox() {
+        }
+
+        @Override
+        protected List<GeoPoint> findGeoIntersectionsHelper(Ray ray, double maxDistance) {
+            return null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            return o instanceof InstanceGeometry other && instance == other.instance && geometry.equals(other.geometry);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(instance) + geometry.hashCode();
+        }
+    }
+
+    /**
+     * constructor for an instance of a shape
+     *
+     * @param shape     the shared shape, usually a {@link BVHTree}
+     * @param transform the transformation from the object space of the shape to the world space
+     */
+    public Instance(Intersectable shape, Transform transform) {
+        this.shape = shape;
+        this.transform = transform;
+    }
+
+    /**
+     * setter for the material which overrides the materials of the shape
+     *
+     * @param material the material, null to keep the materials of the shape
+     * @return the instance
+     */
+    public Instance setMaterial(Material material) {
+        this.material = material;
+        return this;
+    }
+
+    /**
+     * getter for the shared shape
+     *
+     * @return the shape
+     */
+    public Intersectable getShape() {
+        return shape;
+    }
+
+    /**
+     * getter for the transformation of the instance
+     *
+     * @return the transformation from the object space to the world space
+     */
+    public Transform getTransform() {
+        return transform;
+    }
+
+    @Override
+    protected List<GeoPoint> findGeoIntersectionsHelper(Ray ray, double maxDistance) {
+        Vector dir = transform.applyInverse(ray.getDir());
+        // a unit of distance in the world is scale units in the object space
+        double scale = dir.length();
+        List<GeoPoint> hits = shape.findGeoIntersections(new Ray(transform.applyInverse(ray.getHead()), dir),
+                maxDistance * scale);
+        if (hits == null) return null;
+
+        List<GeoPoint> result = new LinkedList<>();
+        for (GeoPoint hit : hits)
+            result.add(new GeoPoint(new InstanceGeometry(this, hit.geometry), transform.apply(hit.point)));
+        return result;
+    }
+
+    @Override
+    public GeoPoint findClosestIntersection(Ray ray, double tMax) {
+        Vector dir = transform.applyInverse(ray.getDir());
+        double scale = dir.length();
+        GeoPoint hit = shape.findClosestIntersection(new Ray(transform.applyInverse(ray.getHead()), dir),
+                tMax * scale);
+        return hit == null ? null : new GeoPoint(new InstanceGeometry(this, hit.geometry), transform.apply(hit.point));
+    }
+
+    @Override
+    protected Double3 occlusion(Ray ray, double maxDistance, Double3 ktr) {
+        // the overriding material changes the transparency of every point, so the points are needed
+        if (material != null)
+            return super.occlusion(ray, maxDistance, ktr);
+        Vector dir = transform.applyInverse(ray.getDir());
+        return shape.occlusion(new Ray(transform.applyInverse(ray.getHead()), dir), maxDistance * dir.length(), ktr);
+    }
+
+    @Override
+    public boolean isIntersectBox(Ray ray, double maxDistance) {
+        return box == null || box.intersects(ray, maxDistance);
+    }
+
+    /**
+     * Constructs the Axis-Aligned Bounding Box (AABB) of the instance - the box of the shape
+     * with its 8 corners transformed into the world space. The box is null if the shape is unbounded.
+     */
+    @Override
+    public void constructBox() {
+        shape.constructBox();
+        Box shapeBox = shape.box;
+        if (shapeBox == null) {
+            box = null;
+            return;
+        }
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+        for (int corner = 0; corner < 8; corner++) {
+            Point p = transform.apply(new Point(
+                    (corner & 1) == 0 ? shapeBox.minX : shapeBox.maxX,
+                    (corner & 2) == 0 ? shapeBox.minY : shapeBox.maxY,
+                    (corner & 4) == 0 ? shapeBox.minZ : shapeBox.maxZ));
+            minX = Math.min(minX, p.getX());
+            minY = Math.min(minY, p.getY());
+            minZ = Math.min(minZ, p.getZ());
+            maxX = Math.max(maxX, p.getX());
+            maxY = Math.max(maxY, p.getY());
+            maxZ = Math.max(maxZ, p.getZ());
+        }
+        box = new Box(minX, minY, minZ, maxX, maxY, maxZ);
+    }
+}
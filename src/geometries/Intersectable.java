@@ -17,6 +17,10 @@ public abstract class Intersectable {
      * The Axis-Aligned Bounding Box (AABB) of the geometrical object.
      */
     public Box box;
+    /**
+     * The transmittance below which the light along a shadow ray is considered blocked
+     */
+    protected static final double MIN_TRANSMITTANCE = 0.001;
 
     /**
      * Finds all intersection points between the given ray and the geometrical object.
@@ -105,9 +109,6 @@ public abstract class Intersectable {
      * @return a list of intersection points (of type {@link GeoPoint}), or an empty list if there are no intersections
      */
     public final List<GeoPoint> findGeoIntersections(Ray ray, double maxDistance) {
-        if (ray.isBVH) {
-            return (!isIntersectBox(ray, maxDistance)) ? null : findGeoIntersectionsHelper(ray, maxDistance);
-        }
         return findGeoIntersectionsHelper(ray, maxDistance);
     }
 
@@ -120,6 +121,95 @@ public abstract class Intersectable {
      */
     protected abstract List<GeoPoint> findGeoIntersectionsHelper(Ray ray, double maxDistance);
 
+    /**
+     * Finds how much light passes along the given ray up to the given distance - the product of
+     * the transparency attenuation coefficients (kT) of all the points the ray crosses.
+     * The query only answers whether and how much the light is blocked, so it stops at the first
+     * hit which blocks the light and never creates a list of the intersection points.
+     *
+     * @param ray         the shadow ray
+     * @param maxDistance the distance to the light source
+     * @return the transmittance along the ray, {@link Double3#ZERO} if the light is blocked
+     */
+    public final Double3 occlusion(Ray ray, double maxDistance) {
+        return occlusion(ray, maxDistance, Double3.ONE);
+    }
+
+    /**
+     * Attenuates the transmittance of a shadow ray by the points where it crosses the geometrical object.
+     * The default implementation multiplies the kT of all the intersection points,
+     * geometries override it to exit on the first blocking hit without creating the points.
+     *
+     * @param ray         the shadow ray
+     * @param maxDistance the distance to the light source
+     * @param ktr         the transmittance accumulated so far
+     * @return the attenuated transmittance, {@link Double3#ZERO} if the light is blocked
+     */
+    protected Double3 occlusion(Ray ray, double maxDistance, Double3 ktr) {
+        List<GeoPoint> points = findGeoIntersectionsHelper(ray, maxDistance);
+        if (points == null)
+            return ktr;
+        for (GeoPoint gp : points) {
+            ktr = ktr.product(gp.geometry.getMaterial().kT);
+            if (ktr.lowerThan(MIN_TRANSMITTANCE))
+                return Double3.ZERO;
+        }
+        return ktr;
+    }
+
+    /**
+     * Finds the closest intersection point between the given ray and the geometrical object.
+     *
+     * @param ray the ray to intersect with the geometrical object
+     * @return the closest intersection point, or null if there are no intersections
+     */
+    public final GeoPoint findClosestIntersection(Ray ray) {
+        return findClosestIntersection(ray, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Finds the closest intersection point between the given ray and the geometrical object
+     * which is nearer than the given distance. A caller which passes the distance of the best
+     * point found so far gets only better points, so the farther geometries are rejected early.
+     * The default implementation picks the closest of all the intersection points,
+     * geometries override it to avoid creating the farther points at all.
+     *
+     * @param ray  the ray to intersect with the geometrical object
+     * @param tMax the distance from the head of the ray which the point must be nearer than
+     * @return the closest intersection point, or null if there is no intersection nearer than tMax
+     */
+    public GeoPoint findClosestIntersection(Ray ray, double tMax) {
+        List<GeoPoint> points = findGeoIntersectionsHelper(ray, tMax);
+        if (points == null)
+            return null;
+        Point head = ray.getHead();
+        GeoPoint closest = null;
+        for (GeoPoint gp : points) {
+            double distance = head.distance(gp.point);
+            if (distance < tMax) {
+                tMax = distance;
+                closest = gp;
+            }
+        }
+        return closest;
+    }
+
+
+    /**
+     * Finds the closest intersection points of a packet of neighbouring rays, such as the primary
+     * rays of a few adjacent pixels. The default implementation finds them ray by ray,
+     * hierarchies override it to walk their nodes once for the whole packet.
+     *
+     * @param rays the rays of the packet
+     * @return the closest intersection point of every ray, null for the rays without an intersection
+     */
+    public GeoPoint[] findClosestIntersections(Ray[] rays) {
+        GeoPoint[] closest = new GeoPoint[rays.length];
+        for (int i = 0; i < rays.length; i++)
+            closest[i] = findClosestIntersection(rays[i]);
+        return closest;
+    }
+
 
     /**
      * Constructs the Axis-Aligned Bounding Box (AABB) for the geometrical object.
@@ -159,20 +249,27 @@ public abstract class Intersectable {
          * @return true if the box intersects with the ray, false otherwise.
          */
         public boolean intersects(Ray ray, double maxDistance) {
-            double dirX = ray.getDir().getX();
-            double dirY = ray.getDir().getY();
-            double dirZ = ray.getDir().getZ();
+            double[] inverse = ray.getInverseDirection();
+            int[] signs = ray.getSigns();
             double p0X = ray.getHead().getX();
             double p0Y = ray.getHead().getY();
             double p0Z = ray.getHead().getZ();
-            double txmin = Util.alignZero(minX - p0X) / dirX;
-            double txmax = Util.alignZero(maxX - p0X) / dirX;
-            double tymin = Util.alignZero(minY - p0Y) / dirY;
-            double tymax = Util.alignZero(maxY - p0Y) / dirY;
-            double tzmin = Util.alignZero(minZ - p0Z) / dirZ;
-            double tzmax = Util.alignZero(maxZ - p0Z) / dirZ;
-            double tmin = Math.max(Math.max(Math.min(txmin, txmax), Math.min(tymin, tymax)), Math.min(tzmin, tzmax));
-            double tmax = Math.min(Math.min(Math.max(txmin, txmax), Math.max(tymin, tymax)), Math.max(tzmin, tzmax));
+            double tmin = Double.NEGATIVE_INFINITY;
+            double tmax = Double.POSITIVE_INFINITY;
+            // the sign of the direction picks the near and the far side of every slab,
+            // a NaN (the head of an axis parallel ray on a face of the box) fails every comparison and is ignored
+            double near = ((signs[0] == 0 ? minX : maxX) - p0X) * inverse[0];
+            double far = ((signs[0] == 0 ? maxX : minX) - p0X) * inverse[0];
+            if (near > tmin) tmin = near;
+            if (far < tmax) tmax = far;
+            near = ((signs[1] == 0 ? minY : maxY) - p0Y) * inverse[1];
+            far = ((signs[1] == 0 ? maxY : minY) - p0Y) * inverse[1];
+            if (near > tmin) tmin = near;
+            if (far < tmax) tmax = far;
+            near = ((signs[2] == 0 ? minZ : maxZ) - p0Z) * inverse[2];
+            far = ((signs[2] == 0 ? maxZ : minZ) - p0Z) * inverse[2];
+            if (near > tmin) tmin = near;
+            if (far < tmax) tmax = far;
 
             // if tmax < 0, ray (line) is intersecting AABB, but the whole AABB is behind us
             if (tmax < 0 || tmin > maxDistance) {
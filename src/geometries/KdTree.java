@@ -0,0 +1,423 @@
+package geometries;
+
+import primitives.Double3;
+import primitives.Point;
+import primitives.Ray;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * kd-tree acceleration structure for static scenes.
+ * Every inner node splits its cell by an axis aligned plane, chosen with the Surface Area
+ * Heuristic among the faces of the boxes of its primitives, and a primitive whose box
+ * straddles the plane is referenced from both sides. Unlike a BVH the cells do not overlap,
+ * so the closest intersection is found by visiting the cells along the ray front-to-back and
+ * stopping as soon as a point falls inside the current cell. A primitive referenced from
+ * several cells is tested once per ray thanks to a per thread mailbox.
+ * The build is slower than the one of a {@link BVHTree}, and moved geometries require a rebuild.
+ */
+public class KdTree extends Accelerator {
+    /**
+     * The cost of intersecting a primitive relative to the cost of traversing a node
+     */
+    private static final double INTERSECTION_COST = 80;
+    /**
+     * The cost of traversing an inner node
+     */
+    private static final double TRAVERSAL_COST = 1;
+    /**
+     * The discount of a split which leaves one of the sides empty
+     */
+    private static final double EMPTY_BONUS = 0.5;
+    /**
+     * The amount of splits which do not pay off allowed on a path before making a leaf
+     */
+    private static final int MAX_BAD_SPLITS = 3;
+    /**
+     * The axis of a leaf node
+     */
+    private static final int LEAF = 3;
+
+    /**
+     * The primitives of the tree, referenced by the leaves
+     */
+    private Intersectable[] primitives;
+    /**
+     * The split axis of every node (0, 1 or 2) or {@link #LEAF}
+     */
+    private int[] nodeAxis;
+    /**
+     * The position of the split plane of every inner node
+     */
+    private double[] nodeSplit;
+    /**
+     * The index of the right child of every inner node (the left child follows its parent),
+     * or the first index in {@link #leafItems} of every leaf
+     */
+    private int[] nodeChild;
+    /**
+     * The amount of primitives of every leaf
+     */
+    private int[] nodeCount;
+    /**
+     * The amount of nodes in the tree
+     */
+    private int size;
+    /**
+     * The primitive indices of all the leaves, leaf after leaf
+     */
+    private int[] leafItems;
+    /**
+     * The amount of primitive indices in the leaves
+     */
+    private int itemsSize;
+    /**
+     * The maximal depth of the tree
+     */
+    private int maxDepth;
+    /**
+     * The bounds of the tree
+     */
+    private final double[] bounds = new double[6];
+    /**
+     * The stack of the cells left for later on every thread, each with its entry and exit distances
+     */
+    private ThreadLocal<double[]> traversalStack;
+    /**
+     * The mailbox of every thread
+     */
+    private final ThreadLocal<Mailbox> mailbox = ThreadLocal.withInitial(Mailbox::new);
+
+    /**
+     * constructor for a kd-tree
+     * @param geometries list of geometries
+     */
+    public KdTree(Geometries geometries)
+    {
+        build(collect(geometries));
+    }
+
+    /**
+     * Builds the tree over bounded primitives with constructed boxes
+     * @param input the primitives
+     */
+    private void build(Intersectable[] input)
+    {
+        primitives = input;
+        int n = input.length;
+        size = 0;
+        itemsSize = 0;
+        nodeAxis = new int[16];
+        nodeSplit = new double[16];
+        nodeChild = new int[16];
+        nodeCount = new int[16];
+        leafItems = new int[Math.max(16, n)];
+        // the depth limit keeps the duplicated references of a bad scene in check
+        maxDepth = (int) Math.min(64, Math.round(8 + 1.3 * Math.log(Math.max(n, 1)) / Math.log(2)));
+        traversalStack = ThreadLocal.withInitial(() -> new double[3 * (maxDepth + 1)]);
+
+        Arrays.fill(bounds, 0, 3, Double.POSITIVE_INFINITY);
+        Arrays.fill(bounds, 3, 6, Double.NEGATIVE_INFINITY);
+        double[] boxes = new double[6 * n];
+        for (int i = 0; i < n; i++) {
+            Box box = input[i].box;
+            boxes[6 * i] = box.minX;
+            boxes[6 * i + 1] = box.minY;
+            boxes[6 * i + 2] = box.minZ;
+            boxes[6 * i + 3] = box.maxX;
+            boxes[6 * i + 4] = box.maxY;
+            boxes[6 * i + 5] = box.maxZ;
+            for (int axis = 0; axis < 3; axis++) {
+                bounds[axis] = Math.min(bounds[axis], boxes[6 * i + axis]);
+                bounds[axis + 3] = Math.max(bounds[axis + 3], boxes[6 * i + axis + 3]);
+            }
+        }
+        if (n > 0) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; i++)
+                all[i] = i;
+            buildNode(all, n, bounds.clone(), boxes, 0, 0);
+        }
+        constructBox();
+    }
+
+    /**
+     * Builds a node over primitives and its subtree in depth-first order
+     * @param items the primitive indices
+     * @param n the amount of primitive indices
+     * @param cell the bounds of the cell of the node
+     * @param boxes the boxes of all the primitives
+     * @param depth the depth of the node
+     * @param badSplits the amount of splits on the path which did not pay off
+     */
+    private void buildNode(int[] items, int n, double[] cell, double[] boxes, int depth, int badSplits)
+    {
+        int node = addNode();
+        double leafCost = INTERSECTION_COST * n;
+        double area = surfaceArea(cell);
+        double bestCost = Double.POSITIVE_INFINITY;
+        int bestAxis = -1;
+        double bestSplit = 0;
+        if (n > 1 && depth < maxDepth && area > 0) {
+            double[] mins = new double[n];
+            double[] maxs = new double[n];
+            for (int axis = 0; axis < 3; axis++) {
+                for (int k = 0; k < n; k++) {
+                    mins[k] = boxes[6 * items[k] + axis];
+                    maxs[k] = boxes[6 * items[k] + axis + 3];
+                }
+                Arrays.sort(mins);
+                Arrays.sort(maxs);
+                // sweep the faces of the boxes in order - a primitive is on the left of a plane
+                // if it starts before or on it, and on the right if it ends after or on it
+                int i = 0, j = 0;
+                while (i < n || j < n) {
+                    double split = j == n || i < n && mins[i] < maxs[j] ? mins[i] : maxs[j];
+                    int endedBefore = j;
+                    while (i < n && mins[i] <= split) i++;
+                    while (j < n && maxs[j] <= split) j++;
+                    if (split <= cell[axis] || split >= cell[axis + 3])
+                        continue;
+                    double cost = splitCost(cell, axis, split, area, i, n - endedBefore);
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestAxis = axis;
+                        bestSplit = split;
+                    }
+                }
+            }
+        }
+        if (bestCost > leafCost)
+            badSplits++;
+        if (bestAxis < 0 || bestCost > 4 * leafCost && n < 16 || badSplits > MAX_BAD_SPLITS) {
+            makeLeaf(node, items, n);
+            return;
+        }
+
+        int[] left = new int[n];
+        int[] right = new int[n];
+        int nLeft = 0, nRight = 0;
+        for (int k = 0; k < n; k++) {
+            int item = items[k];
+            if (boxes[6 * item + bestAxis] <= bestSplit)
+                left[nLeft++] = item;
+            if (boxes[6 * item + bestAxis + 3] >= bestSplit)
+                right[nRight++] = item;
+        }
+        nodeAxis[node] = bestAxis;
+        nodeSplit[node] = bestSplit;
+        double[] leftCell = cell.clone();
+        leftCell[bestAxis + 3] = bestSplit;
+        buildNode(left, nLeft, leftCell, boxes, depth + 1, badSplits);
+        nodeChild[node] = size;
+        double[] rightCell = cell.clone();
+        rightCell[bestAxis] = bestSplit;
+        buildNode(right, nRight, rightCell, boxes, depth + 1, badSplits);
+    }
+
+    /**
+     * Calculates the SAH cost of splitting a cell
+     * @param cell the bounds of the cell
+     * @param axis the split axis
+     * @param split the position of the split plane
+     * @param area the surface area of the cell
+     * @param nLeft the amount of primitives on the left of the plane
+     * @param nRight the amount of primitives on the right of the plane
+     * @return the expected cost of a ray which enters the cell
+     */
+    private static double splitCost(double[] cell, int axis, double split, double area, int nLeft, int nRight)
+    {
+        int other1 = (axis + 1) % 3, other2 = (axis + 2) % 3;
+        double d1 = cell[other1 + 3] - cell[other1];
+        double d2 = cell[other2 + 3] - cell[other2];
+        double leftLength = split - cell[axis];
+        double rightLength = cell[axis + 3] - split;
+        double leftArea = 2 * (d1 * d2 + (d1 + d2) * leftLength);
+        double rightArea = 2 * (d1 * d2 + (d1 + d2) * rightLength);
+        double bonus = nLeft == 0 || nRight == 0 ? EMPTY_BONUS : 0;
+        return TRAVERSAL_COST
+                + (1 - bonus) * INTERSECTION_COST * (leftArea * nLeft + rightArea * nRight) / area;
+    }
+
+    /**
+     * Calculates the surface area of a cell
+     * @param cell the bounds of the cell
+     * @return the surface area
+     */
+    private static double surfaceArea(double[] cell)
+    {
+        double dx = cell[3] - cell[0];
+        double dy = cell[4] - cell[1];
+        double dz = cell[5] - cell[2];
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    /**
+     * Appends a node to the node arrays, growing them if needed
+     * @return the index of the node
+     */
+    private int addNode()
+    {
+        if (size == nodeAxis.length) {
+            int capacity = 2 * size;
+            nodeAxis = Arrays.copyOf(nodeAxis, capacity);
+            nodeSplit = Arrays.copyOf(nodeSplit, capacity);
+            nodeChild = Arrays.copyOf(nodeChild, capacity);
+            nodeCount = Arrays.copyOf(nodeCount, capacity);
+        }
+        return size++;
+    }
+
+    /**
+     * Turns a node into a leaf of primitives
+     * @param node the node
+     * @param items the primitive indices
+     * @param n the amount of primitive indices
+     */
+    private void makeLeaf(int node, int[] items, int n)
+    {
+        if (itemsSize + n > leafItems.length)
+            leafItems = Arrays.copyOf(leafItems, Math.max(2 * leafItems.length, itemsSize + n));
+        System.arraycopy(items, 0, leafItems, itemsSize, n);
+        nodeAxis[node] = LEAF;
+        nodeChild[node] = itemsSize;
+        nodeCount[node] = n;
+        itemsSize += n;
+    }
+
+    /**
+     * Walks a ray through the cells of the tree front-to-back and tests every primitive it meets once.
+     * @param query the query, which stops at the first cell containing the closest intersection
+     */
+    private void traverse(Query query)
+    {
+        if (size == 0)
+            return;
+        Ray ray = query.ray;
+        Point head = ray.getHead();
+        double[] origin = {head.getX(), head.getY(), head.getZ()};
+        double[] inv = ray.getInverseDirection();
+
+        // clip the ray to the bounds of the tree with the slab test
+        double tmin = 0, tmax = query.maxDistance;
+        for (int axis = 0; axis < 3; axis++) {
+            double near = (bounds[axis] - origin[axis]) * inv[axis];
+            double far = (bounds[axis + 3] - origin[axis]) * inv[axis];
+            if (near > far) { double t = near; near = far; far = t; }
+            if (near > tmin) tmin = near;
+            if (far < tmax) tmax = far;
+        }
+        if (tmin > tmax)
+            return;
+
+        Mailbox box = mailbox.get();
+        int stamp = box.next(primitives.length);
+        int[] stamps = box.stamps;
+        double[] stack = traversalStack.get();
+        int top = 0;
+        int node = 0;
+        while (true) {
+            int axis = nodeAxis[node];
+            if (axis != LEAF) {
+                double split = nodeSplit[node];
+                double t = (split - origin[axis]) * inv[axis];
+                // the child on the side of the head is crossed first
+                boolean leftFirst = origin[axis] < split || origin[axis] == split && inv[axis] <= 0;
+                int first = leftFirst ? node + 1 : nodeChild[node];
+                int second = leftFirst ? nodeChild[node] : node + 1;
+                if (!(t > 0) || t > tmax)
+                    node = first;
+                else if (t < tmin)
+                    node = second;
+                else {
+                    stack[top++] = second;
+                    stack[top++] = t;
+                    stack[top++] = tmax;
+                    node = first;
+                    tmax = t;
+                }
+                continue;
+            }
+
+            int start = nodeChild[node];
+            for (int k = start; k < start + nodeCount[node]; k++) {
+                int i = leafItems[k];
+                if (stamps[i] == stamp) continue;
+                stamps[i] = stamp;
+                if (query.test(primitives[i]))
+                    return;
+            }
+            // a point inside the current cell is closer than anything in the cells behind it
+            if (query.closestBefore(tmax))
+                break;
+            if (top == 0)
+                break;
+            tmax = stack[--top];
+            tmin = stack[--top];
+            node = (int) stack[--top];
+        }
+    }
+
+    @Override
+    protected List<GeoPoint> findGeoIntersectionsHelper(Ray ray, double maxDistance)
+    {
+        List<GeoPoint> result = null;
+        for (Intersectable g : unbounded)
+            result = addAll(result, g.findGeoIntersections(ray, maxDistance));
+        Query query = new Query(Query.Kind.ALL, ray, maxDistance);
+        traverse(query);
+        return addAll(result, query.points);
+    }
+
+    @Override
+    public GeoPoint findClosestIntersection(Ray ray, double tMax)
+    {
+        Query query = new Query(Query.Kind.CLOSEST, ray, tMax);
+        query.closest = findClosestUnbounded(ray, tMax);
+        if (query.closest != null)
+            query.closestDistance = ray.getHead().distance(query.closest.point);
+        traverse(query);
+        return query.closest;
+    }
+
+    @Override
+    protected Double3 occlusion(Ray ray, double maxDistance, Double3 ktr)
+    {
+        Query query = new Query(Query.Kind.OCCLUSION, ray, maxDistance);
+        query.ktr = occlusionUnbounded(ray, maxDistance, ktr);
+        if (query.ktr != Double3.ZERO)
+            traverse(query);
+        return query.ktr;
+    }
+
+    /**
+     * Updates the tree after the geometries moved or changed their shape.
+     * The cells of a kd-tree cannot be refitted, so the tree is always rebuilt
+     * @return true, the tree is always built again
+     */
+    @Override
+    public boolean refit()
+    {
+        Arrays.stream(primitives).parallel().forEach(Intersectable::constructBox);
+        build(primitives);
+        return true;
+    }
+
+    @Override
+    public void constructBox()
+    {
+        // the tree bounds all the primitives, unless some of them are unbounded
+        box = size == 0 || !unbounded.isEmpty() ? null
+                : new Box(bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5]);
+    }
+
+    /**
+     * getter for the amount of nodes in the tree
+     * @return the amount of nodes, 0 if the tree is empty
+     */
+    public int getSize()
+    {
+        return size;
+    }
+}
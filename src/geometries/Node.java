@@ -0,0 +1,97 @@
+package geometries;
+
+import geometries.Intersectable.Box;
+
+/**
+ * Node class for building the Bounding Volume Hierarchy,
+ * the built tree is laid out in arrays by {@link BVHTree}
+ */
+class Node {
+    private Node left;
+    private Node right;
+    private Box box;
+    /**
+     * index of the first primitive of a leaf in the ordered primitive array
+     */
+    private int start;
+    /**
+     * the amount of primitives in a leaf (0 for an inner node)
+     */
+    private int count;
+
+    /**
+     * constructor for Node class
+     * @param left left node
+     * @param right right node
+     * @param box bounding box
+     */
+    public Node(Node left, Node right, Box box)
+    {
+        this.left = left;
+        this.right = right;
+        this.box = box;
+    }
+
+    /**
+     * constructor for a leaf node
+     * @param box  bounding box
+     * @param start index of the first primitive of the leaf
+     * @param count amount of primitives in the leaf
+     */
+    public Node(Box box, int start, int count)
+    {
+        this.box = box;
+        this.start = start;
+        this.count = count;
+    }
+
+    /**
+     * checks if the node is a leaf
+     * @return true if the node is a leaf, false otherwise
+     */
+    public boolean isLeaf()
+    {
+        return count > 0;
+    }
+
+    /**
+     * getter for left node
+     * @return left node
+     */
+    public Node getLeft() {
+        return left;
+    }
+
+    /**
+     * getter for right node
+     * @return right node
+     */
+    public Node getRight() {
+        return right;
+    }
+
+    /**
+     * getter for bounding box
+     * @return bounding box
+     */
+    public Box getBox() {
+        return box;
+    }
+
+    /**
+     * getter for the first primitive index of a leaf
+     * @return first primitive index
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * getter for the amount of primitives in a leaf
+     * @return amount of primitives
+     */
+    public int getCount() {
+        return count;
+    }
+
+}
@@ -0,0 +1,590 @@
+package geometries;
+
+import primitives.Color;
+import primitives.Material;
+import primitives.Point;
+import primitives.Ray;
+import primitives.Vector;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A triangle mesh which lives with its bounding volume hierarchy outside the heap, in one memory segment.
+ * The segment is allocated in an arena, or mapped from a file written by {@link #write(Path)},
+ * so the mesh takes a few objects on the heap whatever the amount of its triangles, and the garbage
+ * collector never scans or copies its data. The segment lives as long as its arena -
+ * the mesh must not be used after the arena is closed, and the arena must be shared
+ * ({@link Arena#ofShared()}, {@link Arena#ofAuto()} or {@link Arena#global()}) to render on several threads.
+ * The vertices are kept in single precision like a single precision {@link TriangleMesh}, the triangles
+ * in the order of the leaves of the hierarchy and the node boxes in single precision rounded outwards.
+ * The traversal and the intersections read the segment directly and calculate in double precision.
+ * The mesh is one primitive of the acceleration structures of the scene, the hierarchy inside it indexes
+ * its triangles. The geometry of an intersection point is a small object created for the point
+ */
+public class OffHeapMesh extends Geometry {
+    /**
+     * The magic number at the start of the segment ("OHM1")
+     */
+    private static final int MAGIC = 0x4F484D31;
+    /**
+     * The size of the header - the magic number, the amounts of vertices, triangles and nodes, the depth and padding
+     */
+    private static final long HEADER = 32;
+    /**
+     * The size of a node - six float sides of its box, then the right child or the first triangle,
+     * and the amount of triangles (0 for an inner node)
+     */
+    private static final long NODE_SIZE = 32;
+    /**
+     * The layout of the coordinates and the box sides
+     */
+    private static final ValueLayout.OfFloat FLOAT = ValueLayout.JAVA_FLOAT.withOrder(ByteOrder.LITTLE_ENDIAN);
+    /**
+     * The layout of the counts, the vertex indices and the node topology
+     */
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * The segment - the header, x, y, z per vertex, three vertex indices per triangle and the nodes in depth-first order
+     */
+    private final MemorySegment segment;
+    /**
+     * The amount of vertices
+     */
+    private final int vertexCount;
+    /**
+     * The amount of triangles
+     */
+    private final int triangleCount;
+    /**
+     * The amount of nodes
+     */
+    private final int nodeCount;
+    /**
+     * The offset of the vertex indices in the segment
+     */
+    private final long indicesOffset;
+    /**
+     * The offset of the nodes in the segment
+     */
+    private final long nodesOffset;
+    /**
+     * A traversal stack per thread, as deep as the hierarchy
+     */
+    private final ThreadLocal<TraversalStack> traversalStack;
+
+    /**
+     * The nodes which a traversal still has to visit, with the distances the ray enters them
+     */
+    private static class TraversalStack {
+        /**
+         * The node indices
+         */
+        final int[] nodes;
+        /**
+         * The distances the ray enters the nodes
+         */
+        final double[] entries;
+
+        /**
+         * Constructs a stack
+         *
+         * @param size the maximal amount of nodes on the stack
+         */
+        TraversalStack(int size) {
+            nodes = new int[size];
+            entries = new double[size];
+        }
+    }
+
+    /**
+     * A triangle of the mesh - the geometry of an intersection point with it
+     */
+    private static final class Face extends Geometry {
+        /**
+         * The mesh of the triangle
+         */
+        private final OffHeapMesh mesh;
+        /**
+         * The index of the triangle in the segment
+         */
+        private final int index;
+
+        /**
+         * constructor for a face
+         *
+         * @param mesh  the mesh of the triangle
+         * @param index the index of the triangle in the segment
+         */
+        Face(OffHeapMesh mesh, int index) {
+            // the material and the emission are those of the mesh
+            super(null, null);
+            this.mesh = mesh;
+            this.index = index;
+        }
+
+        @Override
+        public Vector getNormal(Point p) {
+            return mesh.normal(index);
+        }
+
+        @Override
+        public Color getEmission() {
+            return mesh.getEmission();
+        }
+
+        @Override
+        public Material getMaterial() {
+            return mesh.getMaterial();
+        }
+
+        @Override
+        protected List<GeoPoint> findGeoIntersectionsHelper(Ray ray, double maxDistance) {
+            double t = mesh.intersectionDistance(index, ray, maxDistance);
+            return Double.isNaN(t) ? null : List.of(new GeoPoint(this, ray.getPoint(t)));
+        }
+
+        @Override
+        public GeoPoint findClosestIntersection(Ray ray, double tMax) {
+            double t = mesh.intersectionDistance(index, ray, tMax);
+            return !Double.isNaN(t) && t < tMax ? new GeoPoint(this, ray.getPoint(t)) : null;
+        }
+
+        @Override
+        public void constructBox() {
+            double[] bounds = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                    Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            for (int k = 0; k < 3; k++) {
+                long vertex = mesh.vertexOffset(index, k);
+                for (int axis = 0; axis < 3; axis++) {
+                    double coordinate = mesh.segment.get(FLOAT, vertex + 4L * axis);
+                    bounds[axis] = Math.min(bounds[axis], coordinate);
+                    bounds[axis + 3] = Math.max(bounds[axis + 3], coordinate);
+                }
+            }
+            box = new Box(bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5]);
+        }
+
+        @Override
+        public boolean isIntersectBox(Ray ray, double maxDistance) {
+            return box == null || box.intersects(ray, maxDistance);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            // the points of a triangle found by different rays are equal
+            return this == o || o instanceof Face face && face.mesh == mesh && face.index == index;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(mesh) + index;
+        }
+    }
+
+    /**
+     * Constructs an off-heap copy of a mesh in an arena.
+     * The hierarchy is built on the heap over the triangles of the mesh and then laid out in the segment
+     * with the vertices and the triangles, so the mesh itself may be dropped afterwards.
+     * The copy takes the emission and the material of the mesh
+     *
+     * @param mesh  the mesh
+     * @param arena the arena which allocates the segment and decides how long it lives
+     */
+    public OffHeapMesh(TriangleMesh mesh, Arena arena) {
+        this(layOut(mesh, arena));
+        setEmission(mesh.getEmission());
+        setMaterial(mesh.getMaterial());
+    }
+
+    /**
+     * Constructs a mesh over a laid out segment
+     *
+     * @param segment the segment
+     * @throws IllegalArgumentException if the segment is not a laid out mesh
+     */
+    private OffHeapMesh(MemorySegment segment) {
+        if (segment.byteSize() < HEADER || segment.get(INT, 0) != MAGIC)
+            throw new IllegalArgumentException("the segment is not an off-heap mesh");
+        vertexCount = segment.get(INT, 4);
+        triangleCount = segment.get(INT, 8);
+        nodeCount = segment.get(INT, 12);
+        int depth = segment.get(INT, 16);
+        indicesOffset = HEADER + 12L * vertexCount;
+        nodesOffset = indicesOffset + 12L * triangleCount;
+        if (vertexCount < 0 || triangleCount < 0 || nodeCount < 0 || depth < 0 || depth > BVHTree.DEFAULT_MAX_DEPTH
+                || segment.byteSize() != nodesOffset + NODE_SIZE * nodeCount)
+            throw new IllegalArgumentException("the sizes in the segment do not match its size");
+        this.segment = segment;
+        for (long i = 0; i < 3L * triangleCount; i++) {
+            int vertex = segment.get(INT, indicesOffset + 4 * i);
+            if (vertex < 0 || vertex >= vertexCount)
+                throw new IllegalArgumentException("triangle " + i / 3 + " has no vertex " + vertex);
+        }
+        // the traversal stacks are as deep as the tree really is, whatever the header says
+        if (depth(segment) != depth)
+            throw new IllegalArgumentException("the depth in the segment does not match its nodes");
+        traversalStack = ThreadLocal.withInitial(() -> new TraversalStack(depth + 1));
+    }
+
+    /**
+     * Walks the nodes of a segment from the root and measures the depth of the tree.
+     * Every child must follow its parent and be reached once, and every leaf must be within the triangles,
+     * so a traversal ends and never reads outside the segment
+     *
+     * @param segment the segment, with the sizes already checked
+     * @return the amount of levels of the tree
+     * @throws IllegalArgumentException if the nodes are not a tree over the triangles
+     */
+    private int depth(MemorySegment segment) {
+        if (nodeCount == 0)
+            return 0;
+        boolean[] reached = new boolean[nodeCount];
+        // a node is pushed only when it is first reached, so the stack never holds more than all the nodes
+        int[] nodes = new int[nodeCount];
+        int[] levels = new int[nodeCount];
+        int top = 0;
+        nodes[top] = 0;
+        levels[top++] = 1;
+        reached[0] = true;
+        int visited = 0;
+        int depth = 0;
+        while (top > 0) {
+            int node = nodes[--top];
+            int level = levels[top];
+            visited++;
+            depth = Math.max(depth, level);
+            int first = segment.get(INT, nodesOffset + NODE_SIZE * node + 24);
+            int count = segment.get(INT, nodesOffset + NODE_SIZE * node + 28);
+            if (count == 0 ? first <= node + 1 || first >= nodeCount || level >= BVHTree.DEFAULT_MAX_DEPTH
+                    || reached[node + 1] || reached[first]
+                    : count < 0 || first < 0 || first > triangleCount - count)
+                throw new IllegalArgumentException("node " + node + " is not part of a tree over the triangles");
+            if (count == 0)
+                for (int child : new int[]{node + 1, first}) {
+                    reached[child] = true;
+                    nodes[top] = child;
+                    levels[top++] = level + 1;
+                }
+        }
+        if (visited != nodeCount)
+            throw new IllegalArgumentException("the segment has nodes out of the tree");
+        return depth;
+    }
+
+    /**
+     * Lays out a mesh and the hierarchy over its triangles in a new segment
+     *
+     * @param mesh  the mesh
+     * @param arena the arena to allocate the segment in
+     * @return the segment
+     */
+    private static MemorySegment layOut(TriangleMesh mesh, Arena arena) {
+        BVHTree tree = new BVHTree(new Geometries(mesh));
+        float[] bounds = BVHTree.roundOutwards(tree.getNodeBounds());
+        int[] data = tree.getNodeData();
+        Intersectable[] leaves = tree.getPrimitives();
+        int vertices = mesh.vertexCount();
+        long indicesOffset = HEADER + 12L * vertices;
+        long nodesOffset = indicesOffset + 12L * leaves.length;
+        MemorySegment segment = arena.allocate(nodesOffset + NODE_SIZE * (data.length / 2), 8);
+        segment.set(INT, 0, MAGIC);
+        segment.set(INT, 4, vertices);
+        segment.set(INT, 8, leaves.length);
+        segment.set(INT, 12, data.length / 2);
+        segment.set(INT, 16, tree.getDepth());
+        for (int k = 0; k < 3 * vertices; k++)
+            segment.set(FLOAT, HEADER + 4L * k, (float) mesh.coordinate(k));
+        // the triangles in the order of the leaves, so a leaf is a range of triangles
+        for (int i = 0; i < leaves.length; i++) {
+            int triangle = ((TriangleMesh.Face) leaves[i]).getIndex();
+            for (int k = 0; k < 3; k++)
+                segment.set(INT, indicesOffset + 12L * i + 4L * k, mesh.vertex(triangle, k));
+        }
+        for (int node = 0; node < data.length / 2; node++) {
+            long b = nodesOffset + NODE_SIZE * node;
+            for (int side = 0; side < 6; side++)
+                segment.set(FLOAT, b + 4L * side, bounds[6 * node + side]);
+            segment.set(INT, b + 24, data[2 * node]);
+            segment.set(INT, b + 28, data[2 * node + 1]);
+        }
+        return segment;
+    }
+
+    /**
+     * Maps a mesh from a file written by {@link #write(Path)}.
+     * The file is mapped read-only for as long as the arena lives, nothing of it is copied to the heap
+     *
+     * @param file  the file
+     * @param arena the arena which decides how long the mapping lives
+     * @return the mesh, with the default emission and material
+     * @throws IOException              if the file cannot be mapped
+     * @throws IllegalArgumentException if the file is not a mesh
+     */
+    public static OffHeapMesh map(Path file, Arena arena) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new OffHeapMesh(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena));
+        }
+    }
+
+    /**
+     * Writes the segment of the mesh to a file, for mapping it in later runs.
+     * The file is written aside and moved into place, so a reader never maps a partial file
+     *
+     * @param file the file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, "mesh", ".tmp");
+        try {
+            // copied through a mapping, a segment may be larger than a byte buffer
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 Arena arena = Arena.ofConfined()) {
+                MemorySegment target = channel.map(FileChannel.MapMode.READ_WRITE, 0, segment.byteSize(), arena);
+                target.copyFrom(segment);
+                target.force();
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Returns the amount of triangles.
+     *
+     * @return the amount of triangles
+     */
+    public int size() {
+        return triangleCount;
+    }
+
+    /**
+     * Returns the size of the segment.
+     *
+     * @return the size of the mesh outside the heap in bytes
+     */
+    public long byteSize() {
+        return segment.byteSize();
+    }
+
+    /**
+     * Returns the offset of a vertex of a triangle in the segment
+     *
+     * @param index the index of the triangle in the segment
+     * @param k     0 to 2 for the first, the second and the third vertex
+     * @return the offset of the x coordinate of the vertex
+     */
+    private long vertexOffset(int index, int k) {
+        return HEADER + 12L * segment.get(INT, indicesOffset + 12L * index + 4L * k);
+    }
+
+    /**
+     * Returns the unit normal of a triangle, by the right hand rule over the vertex order
+     *
+     * @param index the index of the triangle in the segment
+     * @return the normal
+     */
+    private Vector normal(int index) {
+        long a = vertexOffset(index, 0), b = vertexOffset(index, 1), c = vertexOffset(index, 2);
+        double ax = segment.get(FLOAT, a), ay = segment.get(FLOAT, a + 4), az = segment.get(FLOAT, a + 8);
+        double e1x = segment.get(FLOAT, b) - ax, e1y = segment.get(FLOAT, b + 4) - ay, e1z = segment.get(FLOAT, b + 8) - az;
+        double e2x = segment.get(FLOAT, c) - ax, e2y = segment.get(FLOAT, c + 4) - ay, e2z = segment.get(FLOAT, c + 8) - az;
+        return new Vector(e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x).normalize();
+    }
+
+    /**
+     * Calculates the distance from the head of a ray to its intersection with a triangle
+     *
+     * @param index       the index of the triangle in the segment
+     * @param ray         the ray
+     * @param maxDistance the maximum distance for intersection
+     * @return the distance, or NaN if the ray does not cross the inside of the triangle within the distance
+     */
+    private double intersectionDistance(int index, Ray ray, double maxDistance) {
+        long a = vertexOffset(index, 0), b = vertexOffset(index, 1), c = vertexOffset(index, 2);
+        double ax = segment.get(FLOAT, a), ay = segment.get(FLOAT, a + 4), az = segment.get(FLOAT, a + 8);
+        return TriangleMesh.intersectionDistance(ax, ay, az,
+                segment.get(FLOAT, b) - ax, segment.get(FLOAT, b + 4) - ay, segment.get(FLOAT, b + 8) - az,
+                segment.get(FLOAT, c) - ax, segment.get(FLOAT, c + 4) - ay, segment.get(FLOAT, c + 8) - az,
+                ray, maxDistance);
+    }
+
+    /**
+     * Calculates the distance a ray enters the box of a node within the maximum distance,
+     * like the slab test of {@link BVHTree}
+     *
+     * @param node        the node index
+     * @param ox          the x coordinate of the ray head
+     * @param oy          the y coordinate of the ray head
+     * @param oz          the z coordinate of the ray head
+     * @param ix          the inverse of the x coordinate of the ray direction
+     * @param iy          the inverse of the y coordinate of the ray direction
+     * @param iz          the inverse of the z coordinate of the ray direction
+     * @param maxDistance the maximum distance for intersection
+     * @return the entry distance (0 if the head is inside the box),
+     * or positive infinity if the ray misses the box within the maximum distance
+     */
+    private double entry(int node, double ox, double oy, double oz,
+                         double ix, double iy, double iz, double maxDistance) {
+        long b = nodesOffset + NODE_SIZE * node;
+        double tmin = Double.NEGATIVE_INFINITY;
+        double tmax = Double.POSITIVE_INFINITY;
+        double near = (segment.get(FLOAT, b) - ox) * ix;
+        double far = (segment.get(FLOAT, b + 12) - ox) * ix;
+        // a NaN (head on the slab of an axis parallel ray) fails every comparison and is ignored
+        if (near > far) { double t = near; near = far; far = t; }
+        if (near > tmin) tmin = near;
+        if (far < tmax) tmax = far;
+        near = (segment.get(FLOAT, b + 4) - oy) * iy;
+        far = (segment.get(FLOAT, b + 16) - oy) * iy;
+        if (near > far) { double t = near; near = far; far = t; }
+        if (near > tmin) tmin = near;
+        if (far < tmax) tmax = far;
+        near = (segment.get(FLOAT, b + 8) - oz) * iz;
+        far = (segment.get(FLOAT, b + 20) - oz) * iz;
+        if (near > far) { double t = near; near = far; far = t; }
+        if (near > tmin) tmin = near;
+        if (far < tmax) tmax = far;
+        return tmax >= 0 && tmin <= tmax && tmin <= maxDistance ? Math.max(tmin, 0) : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns the normal of the triangle which a point is on.
+     * The intersection points of the mesh belong to its faces, which know their triangle,
+     * so this searches the triangles and is meant for points which were not found by a ray
+     *
+     * @param p the point on the mesh
+     * @return the normal of the first triangle the point is on
+     * @throws IllegalArgumentException if the point is not on the mesh
+     */
+    @Override
+    public Vector getNormal(Point p) {
+        for (int i = 0; i < triangleCount; i++) {
+            long a = vertexOffset(i, 0), b = vertexOffset(i, 1), c = vertexOffset(i, 2);
+            double ax = segment.get(FLOAT, a), ay = segment.get(FLOAT, a + 4), az = segment.get(FLOAT, a + 8);
+            if (TriangleMesh.onTriangle(p.getX() - ax, p.getY() - ay, p.getZ() - az,
+                    segment.get(FLOAT, b) - ax, segment.get(FLOAT, b + 4) - ay, segment.get(FLOAT, b + 8) - az,
+                    segment.get(FLOAT, c) - ax, segment.get(FLOAT, c + 4) - ay, segment.get(FLOAT, c + 8) - az))
+                return normal(i);
+        }
+        throw new IllegalArgumentException("the point is not on the mesh");
+    }
+
+    @Override
+    protected List<GeoPoint> findGeoIntersectionsHelper(Ray ray, double maxDistance) {
+        if (nodeCount == 0)
+            return null;
+        Point head = ray.getHead();
+        double ox = head.getX(), oy = head.getY(), oz = head.getZ();
+        double[] inverse = ray.getInverseDirection();
+        double ix = inverse[0], iy = inverse[1], iz = inverse[2];
+        int[] stack = traversalStack.get().nodes;
+        int top = 0;
+        stack[top++] = 0;
+        List<GeoPoint> result = null;
+        while (top > 0) {
+            int node = stack[--top];
+            if (entry(node, ox, oy, oz, ix, iy, iz, maxDistance) == Double.POSITIVE_INFINITY)
+                continue;
+            long b = nodesOffset + NODE_SIZE * node;
+            int first = segment.get(INT, b + 24);
+            int count = segment.get(INT, b + 28);
+            if (count == 0) {
+                stack[top++] = first;
+                stack[top++] = node + 1;
+                continue;
+            }
+            for (int i = first; i < first + count; i++) {
+                double t = intersectionDistance(i, ray, maxDistance);
+                if (Double.isNaN(t))
+                    continue;
+                if (result == null)
+                    result = new LinkedList<>();
+                result.add(new GeoPoint(new Face(this, i), ray.getPoint(t)));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public GeoPoint findClosestIntersection(Ray ray, double tMax) {
+        if (nodeCount == 0)
+            return null;
+        Point head = ray.getHead();
+        double ox = head.getX(), oy = head.getY(), oz = head.getZ();
+        double[] inverse = ray.getInverseDirection();
+        double ix = inverse[0], iy = inverse[1], iz = inverse[2];
+        if (entry(0, ox, oy, oz, ix, iy, iz, tMax) == Double.POSITIVE_INFINITY)
+            return null;
+        TraversalStack stack = traversalStack.get();
+        int top = 0;
+        int node = 0;
+        int closest = -1;
+        while (true) {
+            long b = nodesOffset + NODE_SIZE * node;
+            int first = segment.get(INT, b + 24);
+            int count = segment.get(INT, b + 28);
+            if (count == 0) {
+                int left = node + 1;
+                double leftEntry = entry(left, ox, oy, oz, ix, iy, iz, tMax);
+                double rightEntry = entry(first, ox, oy, oz, ix, iy, iz, tMax);
+                if (leftEntry != Double.POSITIVE_INFINITY && rightEntry != Double.POSITIVE_INFINITY) {
+                    // visit the nearer child now and keep the farther one with its entry distance
+                    boolean leftFirst = leftEntry <= rightEntry;
+                    stack.nodes[top] = leftFirst ? first : left;
+                    stack.entries[top++] = leftFirst ? rightEntry : leftEntry;
+                    node = leftFirst ? left : first;
+                    continue;
+                }
+                if (leftEntry != Double.POSITIVE_INFINITY) {
+                    node = left;
+                    continue;
+                }
+                if (rightEntry != Double.POSITIVE_INFINITY) {
+                    node = first;
+                    continue;
+                }
+            } else {
+                for (int i = first; i < first + count; i++) {
+                    double t = intersectionDistance(i, ray, tMax);
+                    if (!Double.isNaN(t) && t < tMax) {
+                        tMax = t;
+                        closest = i;
+                    }
+                }
+            }
+            // continue with the next node which the ray enters before the closest intersection
+            do {
+                if (top == 0)
+                    return closest < 0 ? null : new GeoPoint(new Face(this, closest), ray.getPoint(tMax));
+                node = stack.nodes[--top];
+            } while (stack.entries[top] > tMax);
+        }
+    }
+
+    @Override
+    public void constructBox() {
+        box = nodeCount == 0 ? null : new Box(segment.get(FLOAT, nodesOffset), segment.get(FLOAT, nodesOffset + 4),
+                segment.get(FLOAT, nodesOffset + 8), segment.get(FLOAT, nodesOffset + 12),
+                segment.get(FLOAT, nodesOffset + 16), segment.get(FLOAT, nodesOffset + 20));
+    }
+
+    @Override
+    public boolean isIntersectBox(Ray ray, double maxDistance) {
+        return box == null || box.intersects(ray, maxDistance);
+    }
+}
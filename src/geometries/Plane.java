@@ -97,6 +97,19 @@ public class Plane extends Geometry {
         }
     }
 
+    @Override
+    public GeoPoint findClosestIntersection(Ray ray, double tMax) {
+        if (q.equals(ray.getHead())) { // if the ray starts from the plane it doesn't cut the plane at all
+            return null;
+        }
+        double nv = normal.dotProduct(ray.getDir());
+        if (isZero(nv)) {
+            return null;
+        }
+        double t = alignZero(normal.dotProduct(q.subtract(ray.getHead())) / nv);
+        return t > 0 && t < tMax ? new GeoPoint(this, ray.getPoint(t)) : null;
+    }
+
     @Override
     public boolean isIntersectBox(Ray ray, double maxDistance) {
         return true;
@@ -104,7 +117,8 @@ public class Plane extends Geometry {
 
     @Override
     public void constructBox() {
-        return;
+        // an infinite plane has no bounding box - the acceleration structures keep it aside
+        box = null;
     }
 
 }
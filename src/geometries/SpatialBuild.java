@@ -0,0 +1,579 @@
+package geometries;
+
+import geometries.Intersectable.Box;
+import primitives.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Builds a spatial split bounding volume hierarchy (SBVH) for {@link BVHTree}.
+ * Every node chooses the cheaper by the Surface Area Heuristic of two splits: the object split,
+ * which partitions the references by the centroids of their boxes like the plain SAH build,
+ * and the spatial split, which cuts the box of the node by a plane and references the primitives
+ * crossing the plane from both children, each child with the part of the primitive on its side.
+ * Polygons (and so triangles) are clipped exactly, other primitives are clipped by their boxes.
+ * Spatial splits are tried only where the children of the object split overlap,
+ * and the references may grow only by the duplication budget over the amount of primitives.
+ * The budget left after a split is shared between the children in proportion to their references,
+ * so the built tree does not depend on the order in which the subtrees are built in parallel.
+ * The built leaves reference ranges of the reference array, a primitive may appear in several leaves
+ */
+class SpatialBuild {
+    /**
+     * The amount of bins of the object and the spatial splits on every axis
+     */
+    private static final int BINS = 16;
+    /**
+     * The overlap of the object split children, relative to the surface area of the root,
+     * above which a spatial split is tried
+     */
+    private static final double MIN_OVERLAP = 1e-5;
+    /**
+     * The minimal amount of references for building the two subtrees of a node in parallel
+     */
+    private static final int PARALLEL_THRESHOLD = 4096;
+    /**
+     * The allowed amount of references beyond the amount of primitives, relative to the amount of primitives
+     */
+    static final double DUPLICATION_BUDGET = 0.3;
+
+    /**
+     * A reference to a primitive with the box of the part of the primitive it stands for
+     */
+    private static class Reference {
+        /**
+         * The index of the primitive
+         */
+        final int primitive;
+        /**
+         * minX, minY, minZ, maxX, maxY, maxZ of the referenced part of the primitive
+         */
+        final double[] box;
+
+        /**
+         * constructor for a reference
+         * @param primitive the index of the primitive
+         * @param box the box of the referenced part
+         */
+        Reference(int primitive, double[] box)
+        {
+            this.primitive = primitive;
+            this.box = box;
+        }
+    }
+
+    /**
+     * A node of the built tree before the leaves get their ranges in the reference array
+     */
+    private static class BuildNode {
+        /**
+         * The box of the node
+         */
+        final double[] box;
+        /**
+         * The children of an inner node
+         */
+        BuildNode left, right;
+        /**
+         * The references of a leaf
+         */
+        List<Reference> references;
+
+        /**
+         * constructor for a node
+         * @param box the box of the node
+         */
+        BuildNode(double[] box)
+        {
+            this.box = box;
+        }
+    }
+
+    /**
+     * The primitives with constructed boxes
+     */
+    private final Intersectable[] primitives;
+    /**
+     * The maximal amount of references in a leaf
+     */
+    private final int leafSize;
+    /**
+     * The maximal depth of the hierarchy
+     */
+    private final int maxDepth;
+    /**
+     * The surface area of the root box
+     */
+    private double rootArea;
+    /**
+     * The index of the primitive of every leaf reference, in the order of the leaves
+     */
+    private int[] references;
+
+    /**
+     * constructor for a spatial split build
+     * @param primitives the primitives with constructed boxes
+     * @param leafSize the maximal amount of references in a leaf
+     * @param maxDepth the maximal depth of the hierarchy
+     */
+    SpatialBuild(Intersectable[] primitives, int leafSize, int maxDepth)
+    {
+        this.primitives = primitives;
+        this.leafSize = leafSize;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Builds the hierarchy
+     * @return the root, with the leaves referencing ranges of {@link #getReferences()}
+     */
+    Node build()
+    {
+        List<Reference> all = new ArrayList<>(primitives.length);
+        for (int i = 0; i < primitives.length; i++) {
+            Box b = primitives[i].box;
+            all.add(new Reference(i, new double[]{b.minX, b.minY, b.minZ, b.maxX, b.maxY, b.maxZ}));
+        }
+        double[] rootBox = bounds(all);
+        rootArea = area(rootBox);
+        BuildNode root = ForkJoinPool.commonPool().invoke(new SplitTask(all, rootBox, 1, (int) (DUPLICATION_BUDGET * primitives.length)));
+        List<Integer> order = new ArrayList<>();
+        Node node = convert(root, order);
+        references = order.stream().mapToInt(Integer::intValue).toArray();
+        return node;
+    }
+
+    /**
+     * getter for the leaf references
+     * @return the index of the primitive of every leaf reference, in the order of the leaves
+     */
+    int[] getReferences()
+    {
+        return references;
+    }
+
+    /**
+     * Converts a built subtree to nodes, giving the leaves their ranges in the reference order
+     * @param node the root of the built subtree
+     * @param order the reference order to append the references of the leaves to
+     * @return the root of the converted subtree
+     */
+    private static Node convert(BuildNode node, List<Integer> order)
+    {
+        Box box = new Box(node.box[0], node.box[1], node.box[2], node.box[3], node.box[4], node.box[5]);
+        if (node.references == null)
+            return new Node(convert(node.left, order), convert(node.right, order), box);
+        int start = order.size();
+        for (Reference reference : node.references)
+            order.add(reference.primitive);
+        return new Node(box, start, node.references.size());
+    }
+
+    /**
+     * Task which builds the subtree over references
+     */
+    private class SplitTask extends RecursiveTask<BuildNode> {
+        /**
+         * the version of the serialized form, tasks are never serialized
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The references of the node
+         */
+        @SuppressWarnings("serial")
+        private final List<Reference> references;
+        /**
+         * The box of the node
+         */
+        private final double[] box;
+        /**
+         * The depth of the node, the root is at depth 1
+         */
+        private final int depth;
+        /**
+         * The amount of references which spatial splits may still add within the subtree
+         */
+        private final int budget;
+
+        /**
+         * constructor for a split task
+         * @param references the references of the node
+         * @param box the box of the node
+         * @param depth the depth of the node, the root is at depth 1
+         * @param budget the amount of references which spatial splits may add within the subtree
+         */
+        SplitTask(List<Reference> references, double[] box, int depth, int budget)
+        {
+            this.references = references;
+            this.box = box;
+            this.depth = depth;
+            this.budget = budget;
+        }
+
+        @Override
+        protected BuildNode compute()
+        {
+            BuildNode node = new BuildNode(box);
+            int count = references.size();
+            List<Reference> left = new ArrayList<>();
+            List<Reference> right = new ArrayList<>();
+            if (count <= leafSize || depth >= maxDepth || !split(references, box, budget, left, right)) {
+                node.references = references;
+                return node;
+            }
+
+            // the children share what is left of the budget in proportion to their references
+            int total = left.size() + right.size();
+            int rest = budget - (total - count);
+            int leftBudget = (int) ((long) rest * left.size() / total);
+            SplitTask leftTask = new SplitTask(left, bounds(left), depth + 1, leftBudget);
+            SplitTask rightTask = new SplitTask(right, bounds(right), depth + 1, rest - leftBudget);
+            if (count < PARALLEL_THRESHOLD) {
+                node.left = leftTask.compute();
+                node.right = rightTask.compute();
+            } else {
+                rightTask.fork();
+                node.left = leftTask.compute();
+                node.right = rightTask.join();
+            }
+            return node;
+        }
+    }
+
+    /**
+     * Splits the references of a node by the cheaper of the best object split and the best spatial split
+     * @param references the references of the node
+     * @param box the box of the node
+     * @param budget the amount of references which a spatial split may add
+     * @param left the list to fill with the references of the left child
+     * @param right the list to fill with the references of the right child
+     * @return false if the references cannot be split
+     */
+    private boolean split(List<Reference> references, double[] box, int budget, List<Reference> left, List<Reference> right)
+    {
+        int count = references.size();
+        double[] centroidBox = new double[6];
+        reset(centroidBox);
+        for (Reference reference : references)
+            for (int axis = 0; axis < 3; axis++) {
+                double c = (reference.box[axis] + reference.box[axis + 3]) / 2;
+                centroidBox[axis] = Math.min(centroidBox[axis], c);
+                centroidBox[axis + 3] = Math.max(centroidBox[axis + 3], c);
+            }
+
+        // the best object split, with the boxes of its children to measure their overlap
+        int objectAxis = -1;
+        int objectBin = -1;
+        double objectCost = Double.POSITIVE_INFINITY;
+        double[] objectLeft = null, objectRight = null;
+        for (int axis = 0; axis < 3; axis++) {
+            double min = centroidBox[axis];
+            double extent = centroidBox[axis + 3] - min;
+            if (extent <= 0) continue;
+            double[][] binBoxes = emptyBoxes();
+            int[] binCounts = new int[BINS];
+            for (Reference reference : references) {
+                int b = bin((reference.box[axis] + reference.box[axis + 3]) / 2, min, BINS / extent);
+                binCounts[b]++;
+                grow(binBoxes[b], reference.box);
+            }
+            double[][] rightBoxes = new double[BINS][];
+            int[] rightCounts = new int[BINS];
+            double[] acc = new double[6];
+            reset(acc);
+            int accCount = 0;
+            for (int b = BINS - 1; b > 0; b--) {
+                grow(acc, binBoxes[b]);
+                accCount += binCounts[b];
+                rightBoxes[b] = acc.clone();
+                rightCounts[b] = accCount;
+            }
+            reset(acc);
+            accCount = 0;
+            for (int b = 1; b < BINS; b++) {
+                grow(acc, binBoxes[b - 1]);
+                accCount += binCounts[b - 1];
+                if (accCount == 0 || rightCounts[b] == 0) continue;
+                double cost = area(acc) * accCount + area(rightBoxes[b]) * rightCounts[b];
+                if (cost < objectCost) {
+                    objectCost = cost;
+                    objectAxis = axis;
+                    objectBin = b;
+                    objectLeft = acc.clone();
+                    objectRight = rightBoxes[b];
+                }
+            }
+        }
+
+        // the best spatial split, where the object split children overlap and the budget allows
+        int spatialAxis = -1;
+        double spatialPlane = 0;
+        double spatialCost = Double.POSITIVE_INFINITY;
+        if (budget > 0 && (objectAxis == -1 || area(intersection(objectLeft, objectRight)) > MIN_OVERLAP * rootArea))
+            for (int axis = 0; axis < 3; axis++) {
+                double min = box[axis];
+                double extent = box[axis + 3] - min;
+                if (extent <= 0) continue;
+                double width = extent / BINS;
+                double[][] binBoxes = emptyBoxes();
+                int[] entries = new int[BINS];
+                int[] exits = new int[BINS];
+                for (Reference reference : references) {
+                    int first = bin(reference.box[axis], min, BINS / extent);
+                    int last = bin(reference.box[axis + 3], min, BINS / extent);
+                    entries[first]++;
+                    exits[last]++;
+                    // a reference within one bin needs no clipping
+                    if (first == last) {
+                        grow(binBoxes[first], reference.box);
+                        continue;
+                    }
+                    for (int b = first; b <= last; b++) {
+                        double[] part = clip(reference, axis, min + b * width, b == BINS - 1 ? box[axis + 3] : min + (b + 1) * width);
+                        if (part != null)
+                            grow(binBoxes[b], part);
+                    }
+                }
+                double[][] rightBoxes = new double[BINS][];
+                int[] rightCounts = new int[BINS];
+                double[] acc = new double[6];
+                reset(acc);
+                int accCount = 0;
+                for (int b = BINS - 1; b > 0; b--) {
+                    grow(acc, binBoxes[b]);
+                    accCount += exits[b];
+                    rightBoxes[b] = acc.clone();
+                    rightCounts[b] = accCount;
+                }
+                reset(acc);
+                accCount = 0;
+                for (int b = 1; b < BINS; b++) {
+                    grow(acc, binBoxes[b - 1]);
+                    accCount += entries[b - 1];
+                    if (accCount == 0 || rightCounts[b] == 0 || accCount + rightCounts[b] - count > budget)
+                        continue;
+                    double cost = area(acc) * accCount + area(rightBoxes[b]) * rightCounts[b];
+                    if (cost < spatialCost) {
+                        spatialCost = cost;
+                        spatialAxis = axis;
+                        spatialPlane = min + b * width;
+                    }
+                }
+            }
+
+        if (spatialAxis != -1 && spatialCost < objectCost) {
+            for (Reference reference : references) {
+                if (reference.box[spatialAxis + 3] <= spatialPlane)
+                    left.add(reference);
+                else if (reference.box[spatialAxis] >= spatialPlane)
+                    right.add(reference);
+                else {
+                    double[] leftPart = clip(reference, spatialAxis, Double.NEGATIVE_INFINITY, spatialPlane);
+                    double[] rightPart = clip(reference, spatialAxis, spatialPlane, Double.POSITIVE_INFINITY);
+                    if (leftPart != null)
+                        left.add(new Reference(reference.primitive, leftPart));
+                    if (rightPart != null)
+                        right.add(new Reference(reference.primitive, rightPart));
+                }
+            }
+            int added = left.size() + right.size() - count;
+            // a split which does not separate anything would repeat forever
+            if (!left.isEmpty() && !right.isEmpty() && left.size() < count && right.size() < count && added <= budget)
+                return true;
+            left.clear();
+            right.clear();
+        }
+
+        if (objectAxis == -1)
+            return false;
+        double min = centroidBox[objectAxis];
+        double scale = BINS / (centroidBox[objectAxis + 3] - min);
+        for (Reference reference : references)
+            (bin((reference.box[objectAxis] + reference.box[objectAxis + 3]) / 2, min, scale) < objectBin ? left : right)
+                    .add(reference);
+        return true;
+    }
+
+    /**
+     * Finds the vertices by which a primitive is clipped
+     * @param primitive the primitive
+     * @return the x, y, z of the vertices of a polygon or a mesh face, null for a primitive clipped by its box
+     */
+    static List<double[]> vertices(Intersectable primitive)
+    {
+        if (primitive instanceof Polygon polygon) {
+            List<double[]> points = new ArrayList<>(polygon.vertices.size());
+            for (Point vertex : polygon.vertices)
+                points.add(new double[]{vertex.getX(), vertex.getY(), vertex.getZ()});
+            return points;
+        }
+        if (primitive instanceof TriangleMesh.Face face)
+            return face.vertices();
+        return null;
+    }
+
+    /**
+     * Clips the referenced part of a primitive to a slab
+     * @param reference the reference
+     * @param axis the axis of the slab
+     * @param low the low side of the slab
+     * @param high the high side of the slab
+     * @return the box of the part of the primitive within the slab, null if there is no such part
+     */
+    private double[] clip(Reference reference, int axis, double low, double high)
+    {
+        double[] part = reference.box.clone();
+        part[axis] = Math.max(part[axis], low);
+        part[axis + 3] = Math.min(part[axis + 3], high);
+        if (part[axis] > part[axis + 3])
+            return null;
+        List<double[]> points = vertices(primitives[reference.primitive]);
+        if (points == null)
+            return part;
+
+        // clip the polygon to the slab and bound what is left, within the part of the reference
+        points = clipPolygon(points, axis, low, true);
+        points = clipPolygon(points, axis, high, false);
+        if (points.isEmpty())
+            return null;
+        double[] clipped = new double[6];
+        reset(clipped);
+        for (double[] p : points)
+            for (int a = 0; a < 3; a++) {
+                clipped[a] = Math.min(clipped[a], p[a]);
+                clipped[a + 3] = Math.max(clipped[a + 3], p[a]);
+            }
+        double[] result = intersection(clipped, part);
+        return result[0] > result[3] || result[1] > result[4] || result[2] > result[5] ? null : result;
+    }
+
+    /**
+     * Clips a convex polygon by an axis aligned plane (Sutherland-Hodgman)
+     * @param points the vertices of the polygon
+     * @param axis the axis of the plane
+     * @param plane the coordinate of the plane on the axis
+     * @param keepAbove true to keep the part above the plane, false to keep the part below it
+     * @return the vertices of the clipped polygon
+     */
+    private static List<double[]> clipPolygon(List<double[]> points, int axis, double plane, boolean keepAbove)
+    {
+        if (Double.isInfinite(plane) || points.isEmpty())
+            return points;
+        List<double[]> result = new ArrayList<>(points.size() + 1);
+        double[] previous = points.get(points.size() - 1);
+        boolean previousInside = keepAbove ? previous[axis] >= plane : previous[axis] <= plane;
+        for (double[] current : points) {
+            boolean inside = keepAbove ? current[axis] >= plane : current[axis] <= plane;
+            if (inside != previousInside) {
+                double t = (plane - previous[axis]) / (current[axis] - previous[axis]);
+                double[] crossing = new double[3];
+                for (int a = 0; a < 3; a++)
+                    crossing[a] = previous[a] + t * (current[a] - previous[a]);
+                // the crossing is exactly on the plane
+                crossing[axis] = plane;
+                result.add(crossing);
+            }
+            if (inside)
+                result.add(current);
+            previous = current;
+            previousInside = inside;
+        }
+        return result;
+    }
+
+    /**
+     * Calculates the bounds of references
+     * @param references the references
+     * @return the box of their parts
+     */
+    private static double[] bounds(List<Reference> references)
+    {
+        double[] box = new double[6];
+        reset(box);
+        for (Reference reference : references)
+            grow(box, reference.box);
+        return box;
+    }
+
+    /**
+     * Creates empty boxes for the bins
+     * @return an empty box per bin
+     */
+    private static double[][] emptyBoxes()
+    {
+        double[][] boxes = new double[BINS][6];
+        for (double[] box : boxes)
+            reset(box);
+        return boxes;
+    }
+
+    /**
+     * Calculates the bin of a coordinate
+     * @param value the coordinate
+     * @param min the minimal coordinate on the axis
+     * @param scale the amount of bins per unit on the axis
+     * @return the bin index
+     */
+    private static int bin(double value, double min, double scale)
+    {
+        int b = (int) ((value - min) * scale);
+        return b < 0 ? 0 : Math.min(b, BINS - 1);
+    }
+
+    /**
+     * Sets a box to an empty box
+     * @param box the box
+     */
+    private static void reset(double[] box)
+    {
+        for (int axis = 0; axis < 3; axis++) {
+            box[axis] = Double.POSITIVE_INFINITY;
+            box[axis + 3] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Grows a box to contain another box
+     * @param box the box to grow
+     * @param other the box to contain
+     */
+    private static void grow(double[] box, double[] other)
+    {
+        for (int axis = 0; axis < 3; axis++) {
+            box[axis] = Math.min(box[axis], other[axis]);
+            box[axis + 3] = Math.max(box[axis + 3], other[axis + 3]);
+        }
+    }
+
+    /**
+     * Calculates the intersection of two boxes
+     * @param a the first box
+     * @param b the second box
+     * @return the common box, with a minimum above the maximum on some axis if the boxes are disjoint
+     */
+    private static double[] intersection(double[] a, double[] b)
+    {
+        double[] result = new double[6];
+        for (int axis = 0; axis < 3; axis++) {
+            result[axis] = Math.max(a[axis], b[axis]);
+            result[axis + 3] = Math.min(a[axis + 3], b[axis + 3]);
+        }
+        return result;
+    }
+
+    /**
+     * Calculates the surface area of a box
+     * @param box the box
+     * @return the surface area, 0 for an empty box
+     */
+    private static double area(double[] box)
+    {
+        double dx = box[3] - box[0];
+        double dy = box[4] - box[1];
+        double dz = box[5] - box[2];
+        return dx < 0 || dy < 0 || dz < 0 ? 0 : 2 * (dx * dy + dy * dz + dz * dx);
+    }
+}
@@ -2,6 +2,7 @@ package geometries;
 
 import primitives.Point;
 import primitives.Ray;
+import primitives.Vec3;
 import primitives.Vector;
 
 import java.util.List;
@@ -15,7 +16,7 @@ import static primitives.Util.alignZero;
  */
 public class Sphere extends RadialGeometry {
 
-    private final Point center;
+    private Point center;
 
     /**
      * Constructs a Sphere object with the given radius and center point.
@@ -28,6 +29,21 @@ public class Sphere extends RadialGeometry {
         this.center = center;
     }
 
+    /**
+     * Moves the sphere to a new center point.
+     * A constructed bounding box moves with the sphere,
+     * but a scene rendered through a BVH must refit it after moving its geometries.
+     *
+     * @param center The new center point of the sphere.
+     * @return The sphere object.
+     */
+    public Sphere setCenter(Point center) {
+        this.center = center;
+        if (box != null)
+            constructBox();
+        return this;
+    }
+
     /**
      * Returns the normal vector to the sphere at the given point.
      *
@@ -49,8 +65,8 @@ public class Sphere extends RadialGeometry {
         if (O.equals(P0)) {
             return List.of(new GeoPoint(this, ray.getPoint(radius)));
         }
-        Vector U = O.subtract(P0);
-        double tm = V.dotProduct(U);
+        Vec3 U = new Vec3().setDifference(O, P0);
+        double tm = U.dot(V);
         double d = Math.sqrt(U.lengthSquared() - tm * tm);
         if (d >= radius) { //no intersections
             return null;
@@ -73,6 +89,27 @@ public class Sphere extends RadialGeometry {
 
     }
 
+    @Override
+    public GeoPoint findClosestIntersection(Ray ray, double tMax) {
+        Point P0 = ray.getHead();
+        Vector V = ray.getDir();
+        if (center.equals(P0)) {
+            return radius < tMax ? new GeoPoint(this, ray.getPoint(radius)) : null;
+        }
+        // a scratch triad in place of the vector to the center, it never leaves the method
+        Vec3 U = new Vec3().setDifference(center, P0);
+        double tm = U.dot(V);
+        double dSquared = U.lengthSquared() - tm * tm;
+        double thSquared = radius * radius - dSquared;
+        if (thSquared <= 0) { //no intersections
+            return null;
+        }
+        double th = Math.sqrt(thSquared);
+        // the nearer point in front of the head - the far one when the head is inside the sphere
+        double t = tm - th > 0 ? tm - th : tm + th;
+        return t > 0 && t < tMax ? new GeoPoint(this, ray.getPoint(t)) : null;
+    }
+
     @Override
     public void constructBox() {
         double X = center.getX();
@@ -3,6 +3,7 @@ package geometries;
 import primitives.Point;
 import primitives.Ray;
 import primitives.Util;
+import primitives.Vec3;
 import primitives.Vector;
 
 import java.util.List;
@@ -25,27 +26,57 @@ public class Triangle extends Polygon {
 
     @Override
     protected List<GeoPoint> findGeoIntersectionsHelper(Ray ray, double maxDistance) {
+        double t = intersectionDistance(ray, maxDistance);
+        if (!Double.isNaN(t)) {
+            return List.of(new GeoPoint(this, ray.getPoint(t)));
+        }
+        return null;
+    }
+
+    @Override
+    public GeoPoint findClosestIntersection(Ray ray, double tMax) {
+        double t = intersectionDistance(ray, tMax);
+        return !Double.isNaN(t) && t < tMax ? new GeoPoint(this, ray.getPoint(t)) : null;
+    }
+
+    /**
+     * Calculates the distance from the head of the ray to its intersection with the triangle
+     *
+     * @param ray         the ray
+     * @param maxDistance the maximum distance for intersection
+     * @return the distance, or NaN if the ray does not cross the inside of the triangle within the distance
+     */
+    private double intersectionDistance(Ray ray, double maxDistance) {
         Point p1 = vertices.get(0);
         Point p2 = vertices.get(1);
         Point p3 = vertices.get(2);
+        Point head = ray.getHead();
+        Vector dir = ray.getDir();
 
-        Vector ab = p2.subtract(p1);
-        Vector ac = p3.subtract(p1);
-        Vector n = ab.crossProduct(ac);
+        // scratch triads in place of the intermediate vectors, they never leave the method
+        Vec3 ab = new Vec3().setDifference(p2, p1);
+        Vec3 ac = new Vec3().setDifference(p3, p1);
+        Vec3 n = new Vec3().cross(ab, ac);
 
-        double nd = n.dotProduct(ray.getDir());
+        double nd = n.dot(dir);
         if (Util.isZero(nd)) {
-            return null; // The ray is parallel to the plane of the triangle
+            return Double.NaN; // The ray is parallel to the plane of the triangle
         }
 
-        double t = n.dotProduct(p1.subtract(ray.getPoint(0))) / nd;
+        double t = n.dot(new Vec3().setDifference(p1, head)) / nd;
         if (t < 0) {
-            return null; // The intersection is behind the ray's origin
+            return Double.NaN; // The intersection is behind the ray's origin
+        }
+        if (Util.alignZero(t - maxDistance) > 0) {
+            return Double.NaN; // The intersection is beyond the maximum distance
         }
 
-        Point p = ray.getPoint(t);
-        if (p.equals(p1) || p.equals(p2) || p.equals(p3)) {
-            return null; // The intersection point is one of the triangle's vertices
+        // the point at the distance, like ray.getPoint(t)
+        Vec3 p = new Vec3(head);
+        if (!Util.isZero(t))
+            p.addScaled(dir, t);
+        if (p.equalsPoint(p1) || p.equalsPoint(p2) || p.equalsPoint(p3)) {
+            return Double.NaN; // The intersection point is one of the triangle's vertices
         }
 
         /*
@@ -59,12 +90,12 @@ public class Triangle extends Polygon {
          *
          * so we can use Kermer's rule to solve the equations and found v, u and w
          */
-        Vector ap = p.subtract(p1);
-        double dot00 = ab.dotProduct(ab);
-        double dot01 = ab.dotProduct(ac);
-        double dot02 = ab.dotProduct(ap);
-        double dot11 = ac.dotProduct(ac);
-        double dot12 = ac.dotProduct(ap);
+        Vec3 ap = p.subtract(p1);
+        double dot00 = ab.dot(ab);
+        double dot01 = ab.dot(ac);
+        double dot02 = ab.dot(ap);
+        double dot11 = ac.dot(ac);
+        double dot12 = ac.dot(ap);
 
         double invDenom = 1 / (dot00 * dot11 - dot01 * dot01);
         double u = (dot11 * dot02 - dot01 * dot12) * invDenom;
@@ -72,10 +103,7 @@ public class Triangle extends Polygon {
         double w = 1.0 - u - v;
 
         // Check if the point is inside the triangle
-        if (Util.alignZero(u) > 0 && Util.alignZero(v) > 0 && Util.alignZero(w) > 0 && Util.alignZero(p.distanceSquared(ray.getPoint(0)) - maxDistance * maxDistance) <= 0) {
-            return List.of(new GeoPoint(this, p));
-        }
-        return null;
+        return Util.alignZero(u) > 0 && Util.alignZero(v) > 0 && Util.alignZero(w) > 0 ? t : Double.NaN;
     }
 
 
@@ -0,0 +1,505 @@
+package geometries;
+
+import primitives.Color;
+import primitives.Material;
+import primitives.Point;
+import primitives.Ray;
+import primitives.Vector;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import static primitives.Util.alignZero;
+import static primitives.Util.isZero;
+
+/**
+ * A mesh of triangles over shared vertices, with one material and emission for all its triangles.
+ * The vertex positions are kept in one array (x, y, z per vertex) and the triangles in an index array
+ * (three vertex indices per triangle), with the edges from the first vertex and the unit normal of every
+ * triangle calculated once, so a triangle takes a few dozen bytes instead of the hundreds
+ * of a {@link Triangle} with its points, plane and material.
+ * An acceleration structure takes the triangles of the mesh as its primitives, every triangle a small
+ * face object which indexes the mesh arrays (see {@link #getFaces()}); without a structure
+ * the mesh tests all its triangles.
+ * Like a {@link Triangle}, a ray which crosses an edge or a vertex does not intersect the mesh.
+ * A mesh constructed from float positions keeps them in single precision and keeps nothing else
+ * but the indices, the edges and the normals are calculated from the positions when needed.
+ * All the calculations are in double precision over the stored positions, so the points found
+ * are exactly on the triangles of the mesh, and a triangle takes about a third of the memory
+ */
+public class TriangleMesh extends Geometry {
+    /**
+     * The vertex positions - x, y, z per vertex, null in single precision
+     */
+    private final double[] positions;
+    /**
+     * The vertex positions in single precision - x, y, z per vertex, null in double precision
+     */
+    private final float[] singlePositions;
+    /**
+     * The vertex indices - three per triangle
+     */
+    private final int[] indices;
+    /**
+     * The edges from the first vertex to the second and to the third - six coordinates per triangle,
+     * null in single precision
+     */
+    private final double[] edges;
+    /**
+     * The unit normals - three coordinates per triangle, by the right hand rule over the vertex order,
+     * null in single precision
+     */
+    private final double[] normals;
+    /**
+     * The triangles as primitives of the acceleration structures
+     */
+    private final Face[] faces;
+
+    /**
+     * A triangle of a mesh - the primitive which an acceleration structure holds for the triangle
+     * and the geometry of the intersection points with it
+     */
+    static final class Face extends Geometry {
+        /**
+         * The mesh of the triangle
+         */
+        private final TriangleMesh mesh;
+        /**
+         * The index of the triangle in the mesh
+         */
+        private final int index;
+
+        /**
+         * constructor for a face
+         *
+         * @param mesh  the mesh of the triangle
+         * @param index the index of the triangle in the mesh
+         */
+        Face(TriangleMesh mesh, int index) {
+            // the material and the emission are those of the mesh
+            super(null, null);
+            this.mesh = mesh;
+            this.index = index;
+        }
+
+        @Override
+        public Vector getNormal(Point p) {
+            return mesh.normal(index);
+        }
+
+        /**
+         * getter for the index of the triangle in the mesh
+         *
+         * @return the index of the triangle
+         */
+        int getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns the vertices of the triangle, for clipping it
+         *
+         * @return x, y, z of every vertex, in the order of the indices
+         */
+        List<double[]> vertices() {
+            List<double[]> vertices = new ArrayList<>(3);
+            for (int k = 0; k < 3; k++) {
+                int vertex = 3 * mesh.indices[3 * index + k];
+                vertices.add(new double[]{mesh.coordinate(vertex), mesh.coordinate(vertex + 1),
+                        mesh.coordinate(vertex + 2)});
+            }
+            return vertices;
+        }
+
+        @Override
+        public Color getEmission() {
+            return mesh.getEmission();
+        }
+
+        @Override
+        public Material getMaterial() {
+            return mesh.getMaterial();
+        }
+
+        @Override
+        protected List<GeoPoint> findGeoIntersectionsHelper(Ray ray, double maxDistance) {
+            double t = mesh.intersectionDistance(index, ray, maxDistance);
+            return Double.isNaN(t) ? null : List.of(new GeoPoint(this, ray.getPoint(t)));
+        }
+
+        @Override
+        public GeoPoint findClosestIntersection(Ray ray, double tMax) {
+            double t = mesh.intersectionDistance(index, ray, tMax);
+            return !Double.isNaN(t) && t < tMax ? new GeoPoint(this, ray.getPoint(t)) : null;
+        }
+
+        @Override
+        public void constructBox() {
+            double[] bounds = mesh.bounds(index, index + 1);
+            box = new Box(bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5]);
+        }
+
+        @Override
+        public boolean isIntersectBox(Ray ray, double maxDistance) {
+            return box.intersects(ray, maxDistance);
+        }
+    }
+
+    /**
+     * Constructs a mesh from vertex positions and triangle indices.
+     * The arrays are copied, so the mesh does not change with them
+     *
+     * @param positions the vertex positions - x, y, z per vertex
+     * @param indices   the vertex indices - three per triangle
+     * @throws IllegalArgumentException if the arrays are not whole triads, an index is not a vertex
+     *                                  or a triangle has no area
+     */
+    public TriangleMesh(double[] positions, int[] indices) {
+        this(positions.clone(), null, indices);
+    }
+
+    /**
+     * Constructs a mesh in single precision from vertex positions and triangle indices.
+     * The arrays are copied, so the mesh does not change with them
+     *
+     * @param positions the vertex positions - x, y, z per vertex
+     * @param indices   the vertex indices - three per triangle
+     * @throws IllegalArgumentException if the arrays are not whole triads, an index is not a vertex
+     *                                  or a triangle has no area
+     */
+    public TriangleMesh(float[] positions, int[] indices) {
+        this(null, positions.clone(), indices);
+    }
+
+    /**
+     * Constructs a mesh over positions in one of the precisions
+     *
+     * @param positions       the vertex positions in double precision, null for single precision
+     * @param singlePositions the vertex positions in single precision, null for double precision
+     * @param indices         the vertex indices - three per triangle
+     * @throws IllegalArgumentException if the arrays are not whole triads, an index is not a vertex
+     *                                  or a triangle has no area
+     */
+    private TriangleMesh(double[] positions, float[] singlePositions, int[] indices) {
+        int length = positions != null ? positions.length : singlePositions.length;
+        if (length % 3 != 0)
+            throw new IllegalArgumentException("positions must be three coordinates per vertex");
+        if (indices.length % 3 != 0)
+            throw new IllegalArgumentException("indices must be three vertices per triangle");
+        this.positions = positions;
+        this.singlePositions = singlePositions;
+        this.indices = indices.clone();
+        int vertexCount = length / 3;
+        int count = indices.length / 3;
+        faces = new Face[count];
+        for (int i = 0; i < count; i++)
+            for (int k = 0; k < 3; k++)
+                if (indices[3 * i + k] < 0 || indices[3 * i + k] >= vertexCount)
+                    throw new IllegalArgumentException("triangle " + i + " has no vertex " + indices[3 * i + k]);
+        // the edges and the normals are kept only in double precision
+        double[] edges = positions == null ? null : new double[6 * count];
+        normals = positions == null ? null : new double[3 * count];
+        for (int i = 0; i < count; i++) {
+            if (edges != null)
+                for (int k = 0; k < 6; k++)
+                    edges[6 * i + k] = edge(i, k);
+            double nx = edge(i, 1) * edge(i, 5) - edge(i, 2) * edge(i, 4);
+            double ny = edge(i, 2) * edge(i, 3) - edge(i, 0) * edge(i, 5);
+            double nz = edge(i, 0) * edge(i, 4) - edge(i, 1) * edge(i, 3);
+            double norm = alignZero(Math.sqrt(nx * nx + ny * ny + nz * nz));
+            if (norm == 0)
+                throw new IllegalArgumentException("triangle " + i + " has no area");
+            if (normals != null) {
+                normals[3 * i] = nx / norm;
+                normals[3 * i + 1] = ny / norm;
+                normals[3 * i + 2] = nz / norm;
+            }
+            faces[i] = new Face(this, i);
+        }
+        this.edges = edges;
+    }
+
+    /**
+     * Constructs a mesh from vertices and triangle indices.
+     *
+     * @param vertices the vertices
+     * @param indices  the vertex indices - three per triangle
+     * @throws IllegalArgumentException if the indices are not whole triads, an index is not a vertex
+     *                                  or a triangle has no area
+     */
+    public TriangleMesh(Point[] vertices, int[] indices) {
+        this(flatten(vertices), null, indices);
+    }
+
+    /**
+     * Flattens vertices to their coordinates
+     *
+     * @param vertices the vertices
+     * @return x, y, z per vertex
+     */
+    private static double[] flatten(Point[] vertices) {
+        double[] positions = new double[3 * vertices.length];
+        for (int i = 0; i < vertices.length; i++) {
+            positions[3 * i] = vertices[i].getX();
+            positions[3 * i + 1] = vertices[i].getY();
+            positions[3 * i + 2] = vertices[i].getZ();
+        }
+        return positions;
+    }
+
+    /**
+     * Checks whether the mesh keeps its positions in single precision.
+     *
+     * @return true if the positions are floats
+     */
+    public boolean isSinglePrecision() {
+        return singlePositions != null;
+    }
+
+    /**
+     * Returns a coordinate of the positions, in the precision of the mesh.
+     *
+     * @param index the index of the coordinate - three per vertex
+     * @return the coordinate
+     */
+    double coordinate(int index) {
+        return positions != null ? positions[index] : singlePositions[index];
+    }
+
+    /**
+     * Returns a coordinate of an edge of a triangle, kept or calculated from the positions.
+     * An edge is calculated before it is kept, so the kept edges are always these same values
+     *
+     * @param index the index of the triangle
+     * @param k     0 to 2 for x, y, z of the edge to the second vertex, 3 to 5 for the edge to the third
+     * @return the coordinate of the edge
+     */
+    private double edge(int index, int k) {
+        if (edges != null)
+            return edges[6 * index + k];
+        int axis = k % 3;
+        return coordinate(3 * indices[3 * index + 1 + k / 3] + axis) - coordinate(3 * indices[3 * index] + axis);
+    }
+
+    /**
+     * Returns a vertex index of a triangle.
+     *
+     * @param index the index of the triangle
+     * @param k     0 to 2 for the first, the second and the third vertex
+     * @return the index of the vertex
+     */
+    int vertex(int index, int k) {
+        return indices[3 * index + k];
+    }
+
+    /**
+     * Returns the amount of vertices.
+     *
+     * @return the amount of vertices
+     */
+    public int vertexCount() {
+        return (positions != null ? positions.length : singlePositions.length) / 3;
+    }
+
+    /**
+     * Returns the amount of triangles.
+     *
+     * @return the amount of triangles
+     */
+    public int size() {
+        return faces.length;
+    }
+
+    /**
+     * getter for the triangles, for the acceleration structures which hold them as primitives
+     *
+     * @return a face per triangle, in the order of the indices
+     */
+    Face[] getFaces() {
+        return faces;
+    }
+
+    /**
+     * Returns the unit normal of a triangle.
+     *
+     * @param index the index of the triangle
+     * @return the normal
+     */
+    Vector normal(int index) {
+        if (normals != null)
+            return new Vector(normals[3 * index], normals[3 * index + 1], normals[3 * index + 2]);
+        return new Vector(edge(index, 1) * edge(index, 5) - edge(index, 2) * edge(index, 4),
+                edge(index, 2) * edge(index, 3) - edge(index, 0) * edge(index, 5),
+                edge(index, 0) * edge(index, 4) - edge(index, 1) * edge(index, 3)).normalize();
+    }
+
+    /**
+     * Returns the normal of the triangle which a point is on.
+     * The intersection points of the mesh belong to its faces, which know their triangle,
+     * so this searches the triangles and is meant for points which were not found by a ray
+     *
+     * @param p the point on the mesh
+     * @return the normal of the first triangle the point is on
+     * @throws IllegalArgumentException if the point is not on the mesh
+     */
+    @Override
+    public Vector getNormal(Point p) {
+        for (int i = 0; i < faces.length; i++) {
+            int a = 3 * indices[3 * i];
+            if (onTriangle(p.getX() - coordinate(a), p.getY() - coordinate(a + 1), p.getZ() - coordinate(a + 2),
+                    edge(i, 0), edge(i, 1), edge(i, 2), edge(i, 3), edge(i, 4), edge(i, 5)))
+                return normal(i);
+        }
+        throw new IllegalArgumentException("the point is not on the mesh");
+    }
+
+    /**
+     * Checks whether a point is on a triangle, its edges included
+     *
+     * @param dx  the x coordinate of the point relative to the first vertex
+     * @param dy  the y coordinate of the point relative to the first vertex
+     * @param dz  the z coordinate of the point relative to the first vertex
+     * @param e1x the x coordinate of the edge to the second vertex
+     * @param e1y the y coordinate of the edge to the second vertex
+     * @param e1z the z coordinate of the edge to the second vertex
+     * @param e2x the x coordinate of the edge to the third vertex
+     * @param e2y the y coordinate of the edge to the third vertex
+     * @param e2z the z coordinate of the edge to the third vertex
+     * @return true if the point is in the plane of the triangle and its barycentric coordinates are not negative
+     */
+    static boolean onTriangle(double dx, double dy, double dz,
+                              double e1x, double e1y, double e1z, double e2x, double e2y, double e2z) {
+        double nx = e1y * e2z - e1z * e2y, ny = e1z * e2x - e1x * e2z, nz = e1x * e2y - e1y * e2x;
+        if (!isZero((dx * nx + dy * ny + dz * nz) / Math.sqrt(nx * nx + ny * ny + nz * nz)))
+            return false;
+        double d00 = e1x * e1x + e1y * e1y + e1z * e1z;
+        double d01 = e1x * e2x + e1y * e2y + e1z * e2z;
+        double d11 = e2x * e2x + e2y * e2y + e2z * e2z;
+        double d02 = e1x * dx + e1y * dy + e1z * dz;
+        double d12 = e2x * dx + e2y * dy + e2z * dz;
+        double invDenom = 1 / (d00 * d11 - d01 * d01);
+        double v = (d11 * d02 - d01 * d12) * invDenom;
+        double w = (d00 * d12 - d01 * d02) * invDenom;
+        return alignZero(v) >= 0 && alignZero(w) >= 0 && alignZero(1 - v - w) >= 0;
+    }
+
+    /**
+     * Calculates the distance from the head of a ray to its intersection with a triangle of the mesh
+     *
+     * @param index       the index of the triangle
+     * @param ray         the ray
+     * @param maxDistance the maximum distance for intersection
+     * @return the distance, or NaN if the ray does not cross the inside of the triangle within the distance
+     */
+    double intersectionDistance(int index, Ray ray, double maxDistance) {
+        int a = 3 * indices[3 * index];
+        return intersectionDistance(coordinate(a), coordinate(a + 1), coordinate(a + 2),
+                edge(index, 0), edge(index, 1), edge(index, 2), edge(index, 3), edge(index, 4), edge(index, 5),
+                ray, maxDistance);
+    }
+
+    /**
+     * Calculates the distance from the head of a ray to its intersection with a triangle
+     * (Moller-Trumbore over the edges)
+     *
+     * @param ax          the x coordinate of the first vertex
+     * @param ay          the y coordinate of the first vertex
+     * @param az          the z coordinate of the first vertex
+     * @param e1x         the x coordinate of the edge to the second vertex
+     * @param e1y         the y coordinate of the edge to the second vertex
+     * @param e1z         the z coordinate of the edge to the second vertex
+     * @param e2x         the x coordinate of the edge to the third vertex
+     * @param e2y         the y coordinate of the edge to the third vertex
+     * @param e2z         the z coordinate of the edge to the third vertex
+     * @param ray         the ray
+     * @param maxDistance the maximum distance for intersection
+     * @return the distance, or NaN if the ray does not cross the inside of the triangle within the distance
+     */
+    static double intersectionDistance(double ax, double ay, double az,
+                                       double e1x, double e1y, double e1z, double e2x, double e2y, double e2z,
+                                       Ray ray, double maxDistance) {
+        Vector dir = ray.getDir();
+        Point head = ray.getHead();
+        double dx = dir.getX(), dy = dir.getY(), dz = dir.getZ();
+
+        // p = dir x e2, its dot product with e1 is the (scaled) cosine of the ray with the normal
+        double px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+        double det = e1x * px + e1y * py + e1z * pz;
+        if (isZero(det))
+            return Double.NaN; // The ray is parallel to the plane of the triangle
+        double invDet = 1 / det;
+
+        double tx = head.getX() - ax, ty = head.getY() - ay, tz = head.getZ() - az;
+        double u = (tx * px + ty * py + tz * pz) * invDet;
+        if (alignZero(u) <= 0)
+            return Double.NaN;
+        double qx = ty * e1z - tz * e1y, qy = tz * e1x - tx * e1z, qz = tx * e1y - ty * e1x;
+        double v = (dx * qx + dy * qy + dz * qz) * invDet;
+        if (alignZero(v) <= 0 || alignZero(1 - u - v) <= 0)
+            return Double.NaN; // The ray crosses the plane outside the triangle or on its edge
+
+        double t = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+        if (t < 0 || alignZero(t - maxDistance) > 0)
+            return Double.NaN; // The intersection is behind the head or beyond the maximum distance
+        return t;
+    }
+
+    /**
+     * Calculates the bounds of a range of triangles
+     *
+     * @param from the index of the first triangle
+     * @param to   the index after the last triangle
+     * @return minX, minY, minZ, maxX, maxY, maxZ of the triangles
+     */
+    double[] bounds(int from, int to) {
+        double[] bounds = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int k = 3 * from; k < 3 * to; k++) {
+            int vertex = 3 * indices[k];
+            for (int axis = 0; axis < 3; axis++) {
+                bounds[axis] = Math.min(bounds[axis], coordinate(vertex + axis));
+                bounds[axis + 3] = Math.max(bounds[axis + 3], coordinate(vertex + axis));
+            }
+        }
+        return bounds;
+    }
+
+    @Override
+    protected List<GeoPoint> findGeoIntersectionsHelper(Ray ray, double maxDistance) {
+        List<GeoPoint> result = null;
+        for (Face face : faces) {
+            double t = intersectionDistance(face.index, ray, maxDistance);
+            if (Double.isNaN(t))
+                continue;
+            if (result == null)
+                result = new LinkedList<>();
+            result.add(new GeoPoint(face, ray.getPoint(t)));
+        }
+        return result;
+    }
+
+    @Override
+    public GeoPoint findClosestIntersection(Ray ray, double tMax) {
+        Face closest = null;
+        for (Face face : faces) {
+            double t = intersectionDistance(face.index, ray, tMax);
+            if (!Double.isNaN(t) && t < tMax) {
+                tMax = t;
+                closest = face;
+            }
+        }
+        return closest == null ? null : new GeoPoint(closest, ray.getPoint(tMax));
+    }
+
+    @Override
+    public void constructBox() {
+        double[] bounds = bounds(0, faces.length);
+        box = faces.length == 0 ? null : new Box(bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5]);
+    }
+
+    @Override
+    public boolean isIntersectBox(Ray ray, double maxDistance) {
+        return box == null || box.intersects(ray, maxDistance);
+    }
+}
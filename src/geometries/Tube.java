@@ -170,7 +170,8 @@ public class Tube extends RadialGeometry {
 
     @Override
     public void constructBox() {
-        return;
+        // an infinite tube has no bounding box - the acceleration structures keep it aside
+        box = null;
     }
 
     @Override
@@ -0,0 +1,347 @@
+package geometries;
+
+import primitives.Double3;
+import primitives.Point;
+import primitives.Ray;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform grid acceleration structure.
+ * The bounds of the geometries are divided into equal cells and every cell lists the
+ * primitives whose boxes overlap it. The resolution is chosen from the amount of primitives
+ * and the extents of the bounds, so the cells are close to cubes and hold a few primitives each.
+ * A ray walks through the cells it crosses in order with the 3D-DDA algorithm, and a primitive
+ * which overlaps several cells is tested once per ray thanks to a per thread mailbox.
+ * The grid suits scenes with many similarly sized objects, where it is built faster than a
+ * hierarchy, while a {@link BVHTree} adapts better to uneven scenes.
+ */
+public class UniformGrid extends Accelerator {
+    /**
+     * The default amount of cells along the widest axis per cube root of the amount of primitives
+     */
+    public static final double DEFAULT_DENSITY = 3;
+    /**
+     * The maximal amount of cells along an axis
+     */
+    private static final int MAX_RESOLUTION = 256;
+
+    /**
+     * The amount of cells per cube root of the amount of primitives
+     */
+    private final double density;
+    /**
+     * The primitives of the grid, referenced by the cells
+     */
+    private Intersectable[] primitives;
+    /**
+     * The minimal corner of the grid
+     */
+    private double minX, minY, minZ;
+    /**
+     * The size of a cell along every axis
+     */
+    private double cellX, cellY, cellZ;
+    /**
+     * The amount of cells along every axis
+     */
+    private int nx, ny, nz;
+    /**
+     * The first index in {@link #cellItems} of every cell, followed by the end of the last cell
+     */
+    private int[] cellStart;
+    /**
+     * The primitive indices of all the cells, cell after cell
+     */
+    private int[] cellItems;
+    /**
+     * The mailbox of every thread - the last ray which tested every primitive
+     */
+    private final ThreadLocal<Mailbox> mailbox = ThreadLocal.withInitial(Mailbox::new);
+
+    /**
+     * constructor for a grid with the default density
+     * @param geometries list of geometries
+     */
+    public UniformGrid(Geometries geometries)
+    {
+        this(geometries, DEFAULT_DENSITY);
+    }
+
+    /**
+     * constructor for a grid
+     * @param geometries list of geometries
+     * @param density the amount of cells along the widest axis per cube root of the amount of primitives
+     * @throws IllegalArgumentException if the density is not positive
+     */
+    public UniformGrid(Geometries geometries, double density)
+    {
+        if (!(density > 0))
+            throw new IllegalArgumentException("density must be positive");
+        this.density = density;
+        build(collect(geometries));
+    }
+
+    /**
+     * Builds the grid over bounded primitives with constructed boxes
+     * @param input the primitives
+     */
+    private void build(Intersectable[] input)
+    {
+        primitives = input;
+        int n = input.length;
+        if (n == 0) {
+            nx = ny = nz = 0;
+            cellStart = new int[1];
+            cellItems = new int[0];
+            constructBox();
+            return;
+        }
+
+        double maxX, maxY, maxZ;
+        minX = minY = minZ = Double.POSITIVE_INFINITY;
+        maxX = maxY = maxZ = Double.NEGATIVE_INFINITY;
+        for (Intersectable g : input) {
+            minX = Math.min(minX, g.box.minX);
+            minY = Math.min(minY, g.box.minY);
+            minZ = Math.min(minZ, g.box.minZ);
+            maxX = Math.max(maxX, g.box.maxX);
+            maxY = Math.max(maxY, g.box.maxY);
+            maxZ = Math.max(maxZ, g.box.maxZ);
+        }
+        // a little padding keeps flat scenes and the primitives on the far faces inside the cells
+        double widest = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+        double pad = widest * 1e-6 + 1e-9;
+        minX -= pad;
+        minY -= pad;
+        minZ -= pad;
+        maxX += pad;
+        maxY += pad;
+        maxZ += pad;
+        widest += 2 * pad;
+
+        double cellsPerUnit = density * Math.cbrt(n) / widest;
+        nx = resolution(maxX - minX, cellsPerUnit);
+        ny = resolution(maxY - minY, cellsPerUnit);
+        nz = resolution(maxZ - minZ, cellsPerUnit);
+        cellX = (maxX - minX) / nx;
+        cellY = (maxY - minY) / ny;
+        cellZ = (maxZ - minZ) / nz;
+
+        // count the primitives of every cell, then place them after the prefix sums
+        int[][] ranges = new int[n][];
+        cellStart = new int[nx * ny * nz + 1];
+        for (int i = 0; i < n; i++) {
+            int[] range = cellRange(input[i].box);
+            ranges[i] = range;
+            for (int z = range[2]; z <= range[5]; z++)
+                for (int y = range[1]; y <= range[4]; y++)
+                    for (int x = range[0]; x <= range[3]; x++)
+                        cellStart[cell(x, y, z) + 1]++;
+        }
+        for (int c = 1; c < cellStart.length; c++)
+            cellStart[c] += cellStart[c - 1];
+        cellItems = new int[cellStart[cellStart.length - 1]];
+        int[] fill = Arrays.copyOf(cellStart, cellStart.length - 1);
+        for (int i = 0; i < n; i++) {
+            int[] range = ranges[i];
+            for (int z = range[2]; z <= range[5]; z++)
+                for (int y = range[1]; y <= range[4]; y++)
+                    for (int x = range[0]; x <= range[3]; x++)
+                        cellItems[fill[cell(x, y, z)]++] = i;
+        }
+        constructBox();
+    }
+
+    /**
+     * Calculates the amount of cells along an axis
+     * @param extent the extent of the grid along the axis
+     * @param cellsPerUnit the amount of cells per unit of length
+     * @return the amount of cells, between 1 and the maximal resolution
+     */
+    private static int resolution(double extent, double cellsPerUnit)
+    {
+        return (int) Math.max(1, Math.min(MAX_RESOLUTION, Math.round(extent * cellsPerUnit)));
+    }
+
+    /**
+     * Calculates the cells a box overlaps
+     * @param box the box
+     * @return the minimal and the maximal cell coordinates along x, y and z
+     */
+    private int[] cellRange(Box box)
+    {
+        return new int[]{
+                clamp((int) ((box.minX - minX) / cellX), nx), clamp((int) ((box.minY - minY) / cellY), ny),
+                clamp((int) ((box.minZ - minZ) / cellZ), nz), clamp((int) ((box.maxX - minX) / cellX), nx),
+                clamp((int) ((box.maxY - minY) / cellY), ny), clamp((int) ((box.maxZ - minZ) / cellZ), nz)};
+    }
+
+    /**
+     * Clamps a cell coordinate into the grid
+     * @param coordinate the cell coordinate
+     * @param resolution the amount of cells along the axis
+     * @return the coordinate between 0 and resolution - 1
+     */
+    private static int clamp(int coordinate, int resolution)
+    {
+        return Math.max(0, Math.min(resolution - 1, coordinate));
+    }
+
+    /**
+     * Calculates the index of a cell
+     * @param x the cell coordinate along x
+     * @param y the cell coordinate along y
+     * @param z the cell coordinate along z
+     * @return the index of the cell
+     */
+    private int cell(int x, int y, int z)
+    {
+        return x + nx * (y + ny * z);
+    }
+
+    /**
+     * Walks a ray through the cells of the grid with the 3D-DDA algorithm
+     * and tests every primitive it meets once.
+     * @param query the query, which stops at the first cell containing the closest intersection
+     */
+    private void traverse(Query query)
+    {
+        if (nx == 0)
+            return;
+        Ray ray = query.ray;
+        Point head = ray.getHead();
+        double ox = head.getX(), oy = head.getY(), oz = head.getZ();
+        double dx = ray.getDir().getX(), dy = ray.getDir().getY(), dz = ray.getDir().getZ();
+
+        // clip the ray to the bounds of the grid with the slab test
+        double[] inverse = ray.getInverseDirection();
+        double ix = inverse[0], iy = inverse[1], iz = inverse[2];
+        double tmin = 0, tmax = query.maxDistance;
+        double near = (minX - ox) * ix, far = (minX + nx * cellX - ox) * ix;
+        if (near > far) { double t = near; near = far; far = t; }
+        if (near > tmin) tmin = near;
+        if (far < tmax) tmax = far;
+        near = (minY - oy) * iy;
+        far = (minY + ny * cellY - oy) * iy;
+        if (near > far) { double t = near; near = far; far = t; }
+        if (near > tmin) tmin = near;
+        if (far < tmax) tmax = far;
+        near = (minZ - oz) * iz;
+        far = (minZ + nz * cellZ - oz) * iz;
+        if (near > far) { double t = near; near = far; far = t; }
+        if (near > tmin) tmin = near;
+        if (far < tmax) tmax = far;
+        if (tmin > tmax)
+            return;
+
+        // the cell where the ray enters the grid, and the distances to the next cell on every axis
+        int x = clamp((int) ((ox + tmin * dx - minX) / cellX), nx);
+        int y = clamp((int) ((oy + tmin * dy - minY) / cellY), ny);
+        int z = clamp((int) ((oz + tmin * dz - minZ) / cellZ), nz);
+        int stepX = dx > 0 ? 1 : -1, stepY = dy > 0 ? 1 : -1, stepZ = dz > 0 ? 1 : -1;
+        double nextX = (minX + (x + (dx > 0 ? 1 : 0)) * cellX - ox) * ix;
+        double nextY = (minY + (y + (dy > 0 ? 1 : 0)) * cellY - oy) * iy;
+        double nextZ = (minZ + (z + (dz > 0 ? 1 : 0)) * cellZ - oz) * iz;
+        double deltaX = cellX * Math.abs(ix), deltaY = cellY * Math.abs(iy), deltaZ = cellZ * Math.abs(iz);
+        if (dx == 0) nextX = Double.POSITIVE_INFINITY;
+        if (dy == 0) nextY = Double.POSITIVE_INFINITY;
+        if (dz == 0) nextZ = Double.POSITIVE_INFINITY;
+
+        Mailbox box = mailbox.get();
+        int stamp = box.next(primitives.length);
+        int[] stamps = box.stamps;
+        while (true) {
+            int c = cell(x, y, z);
+            for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+                int i = cellItems[k];
+                if (stamps[i] == stamp) continue;
+                stamps[i] = stamp;
+                if (query.test(primitives[i]))
+                    return;
+            }
+
+            // step to the neighbour across the nearest cell wall
+            double exit = Math.min(nextX, Math.min(nextY, nextZ));
+            // a point found before the ray leaves the cell is closer than anything in the next cells
+            if (exit > tmax || query.closestBefore(exit))
+                break;
+            if (nextX == exit) {
+                x += stepX;
+                if (x < 0 || x >= nx) break;
+                nextX += deltaX;
+            } else if (nextY == exit) {
+                y += stepY;
+                if (y < 0 || y >= ny) break;
+                nextY += deltaY;
+            } else {
+                z += stepZ;
+                if (z < 0 || z >= nz) break;
+                nextZ += deltaZ;
+            }
+        }
+    }
+
+    @Override
+    protected List<GeoPoint> findGeoIntersectionsHelper(Ray ray, double maxDistance)
+    {
+        List<GeoPoint> result = null;
+        for (Intersectable g : unbounded)
+            result = addAll(result, g.findGeoIntersections(ray, maxDistance));
+        Query query = new Query(Query.Kind.ALL, ray, maxDistance);
+        traverse(query);
+        return addAll(result, query.points);
+    }
+
+    @Override
+    public GeoPoint findClosestIntersection(Ray ray, double tMax)
+    {
+        Query query = new Query(Query.Kind.CLOSEST, ray, tMax);
+        query.closest = findClosestUnbounded(ray, tMax);
+        if (query.closest != null)
+            query.closestDistance = ray.getHead().distance(query.closest.point);
+        traverse(query);
+        return query.closest;
+    }
+
+    @Override
+    protected Double3 occlusion(Ray ray, double maxDistance, Double3 ktr)
+    {
+        Query query = new Query(Query.Kind.OCCLUSION, ray, maxDistance);
+        query.ktr = occlusionUnbounded(ray, maxDistance, ktr);
+        if (query.ktr != Double3.ZERO)
+            traverse(query);
+        return query.ktr;
+    }
+
+    /**
+     * Updates the grid after the geometries moved or changed their shape.
+     * The primitives are placed in the cells again, so the grid is always rebuilt
+     * @return true, the grid is always built again
+     */
+    @Override
+    public boolean refit()
+    {
+        Arrays.stream(primitives).parallel().forEach(Intersectable::constructBox);
+        build(primitives);
+        return true;
+    }
+
+    @Override
+    public void constructBox()
+    {
+        // the grid bounds all the primitives, unless some of them are unbounded
+        box = nx == 0 || !unbounded.isEmpty() ? null
+                : new Box(minX, minY, minZ, minX + nx * cellX, minY + ny * cellY, minZ + nz * cellZ);
+    }
+
+    /**
+     * getter for the resolution of the grid
+     * @return the amount of cells along x, y and z
+     */
+    public int[] getResolution()
+    {
+        return new int[]{nx, ny, nz};
+    }
+}
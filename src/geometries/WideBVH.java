@@ -0,0 +1,470 @@
+package geometries;
+
+import primitives.Double3;
+import primitives.Ray;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Wide Bounding Volume Hierarchy - every node has up to 4 or 8 children instead of two.
+ * The hierarchy is collapsed from a binary {@link BVHTree}: every wide node takes the children
+ * of a binary node and keeps opening the child with the largest surface area until it is full.
+ * The boxes of the children of a node are stored together per coordinate (structure of arrays),
+ * so a single fetch brings all of them and the ray is tested against all of them at once.
+ * When the VM runs with {@code --add-modules jdk.incubator.vector} the children are tested
+ * with one vector operation per step of the slab test ({@code VectorLanes} in the {@code simd}
+ * source folder), otherwise with a scalar loop over the children.
+ * The tree is about half as deep as the binary one, so a ray visits fewer nodes and takes fewer branches.
+ * Geometries without a bounding box are kept aside like in the binary hierarchy.
+ */
+public class WideBVH extends Accelerator {
+    /**
+     * The default amount of children per node - four double lanes fill a 256 bit vector register
+     */
+    public static final int DEFAULT_WIDTH = 4;
+    /**
+     * The largest supported amount of children per node
+     */
+    public static final int MAX_WIDTH = 8;
+
+    /**
+     * Tests a ray against the boxes of all the children of a node
+     */
+    interface Lanes {
+        /**
+         * Checks whether the children of nodes of a width can be tested
+         * @param width the amount of children per node
+         * @return true if the width is supported
+         */
+        boolean supports(int width);
+
+        /**
+         * Calculates the distances a ray enters the boxes of the children of a node within the maximum distance.
+         * The inverse of the ray direction is calculated once per ray by the ray itself, an axis parallel ray gets
+         * a positive infinite inverse (see {@link Ray#getInverseDirection()}). A ray which lies exactly on a face of a box
+         * may miss it - it could only touch the primitives inside tangentially
+         * @param bounds the boxes of the children - all the minX, then the minY, minZ, maxX, maxY and maxZ
+         * @param offset the index of the first minX of the node
+         * @param ox the x coordinate of the ray head
+         * @param oy the y coordinate of the ray head
+         * @param oz the z coordinate of the ray head
+         * @param ix the inverse of the x coordinate of the ray direction
+         * @param iy the inverse of the y coordinate of the ray direction
+         * @param iz the inverse of the z coordinate of the ray direction
+         * @param maxDistance the maximum distance for intersection
+         * @param lanes the entry distances per child (0 if the head is inside the box),
+         *              positive infinity if the ray misses the box within the maximum distance
+         */
+        void entries(double[] bounds, int offset, double ox, double oy, double oz,
+                     double ix, double iy, double iz, double maxDistance, double[] lanes);
+    }
+
+    /**
+     * Tests the children one after the other. Every iteration reads one lane of each coordinate
+     * and writes one lane of the result, without branches beyond selections
+     */
+    static class ScalarLanes implements Lanes {
+        @Override
+        public boolean supports(int width)
+        {
+            return true;
+        }
+
+        @Override
+        public void entries(double[] bounds, int offset, double ox, double oy, double oz,
+                            double ix, double iy, double iz, double maxDistance, double[] lanes)
+        {
+            int width = lanes.length;
+            int minY = offset + width, minZ = minY + width, maxX = minZ + width, maxY = maxX + width, maxZ = maxY + width;
+            for (int k = 0; k < width; k++) {
+                double x1 = (bounds[offset + k] - ox) * ix, x2 = (bounds[maxX + k] - ox) * ix;
+                double y1 = (bounds[minY + k] - oy) * iy, y2 = (bounds[maxY + k] - oy) * iy;
+                double z1 = (bounds[minZ + k] - oz) * iz, z2 = (bounds[maxZ + k] - oz) * iz;
+                double tmin = Math.max(Math.max(Math.min(x1, x2), Math.min(y1, y2)), Math.max(Math.min(z1, z2), 0));
+                double tmax = Math.min(Math.min(Math.max(x1, x2), Math.max(y1, y2)), Math.min(Math.max(z1, z2), maxDistance));
+                // a NaN (head on the face of an axis parallel ray) fails the comparison
+                lanes[k] = tmin <= tmax ? tmin : Double.POSITIVE_INFINITY;
+            }
+        }
+    }
+
+    /**
+     * The vector lanes, null when the incubator module is not enabled
+     */
+    private static final Lanes VECTOR_LANES = loadVectorLanes();
+
+    /**
+     * Loads the vector lanes - they are compiled with the incubator module and can run only when the VM enables it
+     * @return the vector lanes, or null if they are not available
+     */
+    private static Lanes loadVectorLanes()
+    {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+            return null;
+        try {
+            return (Lanes) Class.forName("geometries.VectorLanes").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * The binary hierarchy the wide one is collapsed from, kept for refitting
+     */
+    private final BVHTree tree;
+    /**
+     * The amount of children per node
+     */
+    private final int width;
+    /**
+     * The box tests of the children
+     */
+    private final Lanes lanes;
+    /**
+     * The boxes of the children - per node all the minX, then all the minY, minZ, maxX, maxY and maxZ
+     * of its children. Empty child slots hold a box at positive infinity which no ray enters
+     */
+    private double[] childBounds;
+    /**
+     * Two values per child slot in the order of the boxes.
+     * An inner child holds the index of its node and 0,
+     * a leaf holds the index of its first primitive and the (positive) amount of its primitives
+     */
+    private int[] childData;
+    /**
+     * The amount of nodes
+     */
+    private int size;
+    /**
+     * The bounded primitives, ordered so every leaf covers a continuous range
+     */
+    private Intersectable[] primitives;
+    /**
+     * The index of the distinct primitive of every leaf primitive after a spatial split build,
+     * null if every primitive is in one leaf
+     */
+    private int[] references;
+    /**
+     * The mailbox of every thread, so a primitive in several leaves is tested once per ray
+     */
+    private final ThreadLocal<Mailbox> mailbox = ThreadLocal.withInitial(Mailbox::new);
+    /**
+     * Per thread traversal stack, so a traversal allocates nothing
+     */
+    private final ThreadLocal<TraversalStack> traversalStack;
+
+    /**
+     * Stack of the nodes and leaves left to visit with the distances the ray enters them,
+     * and the entry distances of the children of the current node
+     */
+    private static class TraversalStack {
+        /**
+         * Node indices, or the child slots of leaves as -(slot + 1)
+         */
+        final int[] items;
+        /**
+         * The distances the ray enters the items
+         */
+        final double[] entries;
+        /**
+         * The distances the ray enters the children of the current node
+         */
+        final double[] hits;
+
+        /**
+         * Constructs a stack
+         * @param size the maximal amount of items on the stack
+         * @param width the amount of children per node
+         */
+        TraversalStack(int size, int width)
+        {
+            items = new int[size];
+            entries = new double[size];
+            hits = new double[width];
+        }
+    }
+
+    /**
+     * constructor for a wide hierarchy with 4 children per node
+     * @param geometries list of geometries
+     */
+    public WideBVH(Geometries geometries)
+    {
+        this(geometries, BVHTree.BuildMode.SAH, DEFAULT_WIDTH);
+    }
+
+    /**
+     * constructor for a wide hierarchy
+     * @param geometries list of geometries
+     * @param mode the way of building the binary hierarchy which is collapsed
+     * @param width the amount of children per node
+     * @throws IllegalArgumentException if the width is not 2, 4 or {@link #MAX_WIDTH}
+     */
+    public WideBVH(Geometries geometries, BVHTree.BuildMode mode, int width)
+    {
+        this(geometries, mode, width, null);
+    }
+
+    /**
+     * constructor for a wide hierarchy collapsed from a binary hierarchy kept in a cache directory,
+     * see {@link BVHTree#BVHTree(Geometries, BVHTree.BuildMode, Path)}
+     * @param geometries list of geometries
+     * @param mode the way of building the binary hierarchy which is collapsed
+     * @param width the amount of children per node
+     * @param cacheDirectory the directory of the cache files, null to always build the binary hierarchy
+     * @throws IllegalArgumentException if the width is not 2, 4 or {@link #MAX_WIDTH}
+     * @throws java.io.UncheckedIOException if a built hierarchy cannot be written to the directory
+     */
+    public WideBVH(Geometries geometries, BVHTree.BuildMode mode, int width, Path cacheDirectory)
+    {
+        // the children of a node fill whole vector registers
+        if (width < 2 || width > MAX_WIDTH || Integer.bitCount(width) != 1)
+            throw new IllegalArgumentException("width must be 2, 4 or " + MAX_WIDTH);
+        this.width = width;
+        lanes = VECTOR_LANES != null && VECTOR_LANES.supports(width) ? VECTOR_LANES : new ScalarLanes();
+        tree = cacheDirectory == null ? new BVHTree(geometries, mode) : new BVHTree(geometries, mode, cacheDirectory);
+        unbounded.addAll(tree.unbounded);
+        // every level pushes at most width - 1 more items than it pops
+        int stackSize = (width - 1) * BVHTree.DEFAULT_MAX_DEPTH + 1;
+        traversalStack = ThreadLocal.withInitial(() -> new TraversalStack(stackSize, width));
+        collapse();
+    }
+
+    /**
+     * Lays out the wide nodes over the current binary hierarchy
+     */
+    private void collapse()
+    {
+        double[] bounds = tree.getNodeBounds();
+        int[] data = tree.getNodeData();
+        primitives = tree.getPrimitives();
+        references = tree.getReferences();
+        int binarySize = data.length / 2;
+        // every wide node opens at least one binary inner node, and a single leaf root needs one node
+        int capacity = Math.max(1, binarySize / 2);
+        childBounds = new double[6 * width * capacity];
+        childData = new int[2 * width * capacity];
+        size = 0;
+        if (binarySize > 0)
+            collapse(0, bounds, data);
+        constructBox();
+    }
+
+    /**
+     * Creates a wide node from a binary node and the wide nodes of its subtree
+     * @param binary the binary node index
+     * @param bounds the binary node boxes
+     * @param data the binary node topology
+     */
+    private void collapse(int binary, double[] bounds, int[] data)
+    {
+        int node = size++;
+        int[] children = new int[width];
+        int count = 0;
+        if (data[2 * binary + 1] > 0)
+            children[count++] = binary;
+        else {
+            children[count++] = binary + 1;
+            children[count++] = data[2 * binary];
+        }
+        // open the largest inner child until the node is full, so the children are of similar sizes
+        while (count < width) {
+            int largest = -1;
+            double largestArea = -1;
+            for (int k = 0; k < count; k++) {
+                double area = area(children[k], bounds);
+                if (data[2 * children[k] + 1] == 0 && area > largestArea) {
+                    largest = k;
+                    largestArea = area;
+                }
+            }
+            if (largest < 0)
+                break;
+            int opened = children[largest];
+            children[largest] = opened + 1;
+            children[count++] = data[2 * opened];
+        }
+
+        int base = width * node;
+        for (int k = 0; k < width; k++) {
+            for (int c = 0; c < 6; c++)
+                childBounds[6 * base + c * width + k] = k < count ? bounds[6 * children[k] + c] : Double.POSITIVE_INFINITY;
+            childData[2 * (base + k) + 1] = -1;
+        }
+        for (int k = 0; k < count; k++) {
+            int child = children[k];
+            int slot = base + k;
+            if (data[2 * child + 1] > 0) {
+                childData[2 * slot] = data[2 * child];
+                childData[2 * slot + 1] = data[2 * child + 1];
+            } else {
+                childData[2 * slot] = size;
+                childData[2 * slot + 1] = 0;
+                collapse(child, bounds, data);
+            }
+        }
+    }
+
+    /**
+     * Calculates the surface area of the box of a binary node
+     * @param binary the binary node index
+     * @param bounds the binary node boxes
+     * @return the surface area
+     */
+    private static double area(int binary, double[] bounds)
+    {
+        int b = 6 * binary;
+        double dx = bounds[b + 3] - bounds[b];
+        double dy = bounds[b + 4] - bounds[b + 1];
+        double dz = bounds[b + 5] - bounds[b + 2];
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    /**
+     * Walks a ray through the hierarchy and tests it against the primitives of the leaves it enters.
+     * The children of every node are visited front-to-back - the closest intersection skips the items
+     * entered beyond the closest point found so far, and a shadow ray meets the blocking geometries
+     * near the point first. All the intersections are collected in any order
+     * @param query the query
+     */
+    private void traverse(Query query)
+    {
+        if (size == 0)
+            return;
+        Ray ray = query.ray;
+        double ox = ray.getHead().getX();
+        double oy = ray.getHead().getY();
+        double oz = ray.getHead().getZ();
+        double[] inverse = ray.getInverseDirection();
+        double ix = inverse[0];
+        double iy = inverse[1];
+        double iz = inverse[2];
+        boolean ordered = query.kind != Query.Kind.ALL;
+        // the closest intersection may test a primitive twice, all the others must not count it twice
+        int[] stamps = null;
+        int stamp = 0;
+        if (references != null && query.kind != Query.Kind.CLOSEST) {
+            Mailbox box = mailbox.get();
+            stamp = box.next(tree.getDistinctCount());
+            stamps = box.stamps;
+        }
+
+        TraversalStack stack = traversalStack.get();
+        int[] items = stack.items;
+        double[] entries = stack.entries;
+        double[] hits = stack.hits;
+        items[0] = 0;
+        entries[0] = 0;
+        int top = 1;
+        while (top > 0) {
+            top--;
+            if (entries[top] > query.closestDistance)
+                continue;
+            int item = items[top];
+            if (item < 0) {
+                int slot = -item - 1;
+                int start = childData[2 * slot];
+                for (int i = start; i < start + childData[2 * slot + 1]; i++) {
+                    if (stamps != null) {
+                        if (stamps[references[i]] == stamp)
+                            continue;
+                        stamps[references[i]] = stamp;
+                    }
+                    if (query.test(primitives[i]))
+                        return;
+                }
+                continue;
+            }
+
+            lanes.entries(childBounds, 6 * width * item, ox, oy, oz, ix, iy, iz, query.closestDistance, hits);
+            int first = top;
+            for (int k = 0; k < width; k++) {
+                double entry = hits[k];
+                if (entry == Double.POSITIVE_INFINITY)
+                    continue;
+                int slot = width * item + k;
+                int pushed = childData[2 * slot + 1] == 0 ? childData[2 * slot] : -slot - 1;
+                int j = top++;
+                // keep the nearer children on top of the stack, so they are visited first
+                if (ordered)
+                    for (; j > first && entries[j - 1] < entry; j--) {
+                        items[j] = items[j - 1];
+                        entries[j] = entries[j - 1];
+                    }
+                items[j] = pushed;
+                entries[j] = entry;
+            }
+        }
+    }
+
+    @Override
+    protected List<GeoPoint> findGeoIntersectionsHelper(Ray ray, double maxDistance)
+    {
+        List<GeoPoint> result = null;
+        for (Intersectable g : unbounded)
+            result = addAll(result, g.findGeoIntersections(ray, maxDistance));
+        Query query = new Query(Query.Kind.ALL, ray, maxDistance);
+        traverse(query);
+        return addAll(result, query.points);
+    }
+
+    @Override
+    public GeoPoint findClosestIntersection(Ray ray, double tMax)
+    {
+        Query query = new Query(Query.Kind.CLOSEST, ray, tMax);
+        query.closest = findClosestUnbounded(ray, tMax);
+        if (query.closest != null)
+            query.closestDistance = ray.getHead().distance(query.closest.point);
+        traverse(query);
+        return query.closest;
+    }
+
+    @Override
+    protected Double3 occlusion(Ray ray, double maxDistance, Double3 ktr)
+    {
+        Query query = new Query(Query.Kind.OCCLUSION, ray, maxDistance);
+        query.ktr = occlusionUnbounded(ray, maxDistance, ktr);
+        if (query.ktr != Double3.ZERO)
+            traverse(query);
+        return query.ktr;
+    }
+
+    /**
+     * Updates the hierarchy after the geometries moved or changed their shape - the binary
+     * hierarchy is refitted or rebuilt (see {@link BVHTree#refit()}) and collapsed again.
+     * Geometries must not be added or removed between the build and a refit
+     * @return true if the hierarchy was built again, false if it was only refitted
+     */
+    @Override
+    public boolean refit()
+    {
+        boolean rebuilt = tree.refit();
+        collapse();
+        return rebuilt;
+    }
+
+    @Override
+    public void constructBox()
+    {
+        box = tree.box;
+    }
+
+    /**
+     * getter for the amount of children per node
+     * @return the width of the hierarchy
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * getter for the amount of nodes
+     * @return the amount of nodes, 0 if the hierarchy is empty
+     */
+    public int getSize()
+    {
+        return size;
+    }
+}
@@ -0,0 +1,167 @@
+package primitives;
+
+/**
+ * A mutable triad of RGB components for summing the colors of the renderer.
+ * Every {@link Color} operation allocates a new triad and a new color and checks the components,
+ * while the operations of this class change the components in place and return the accumulator for chaining,
+ * so the samples of a pixel and the effects of a point are summed without allocating a color for every term.
+ * The components are not checked, the sum becomes a {@link Color} once, when it is written to the image.
+ * The operations calculate exactly like the matching {@link Color} operations,
+ * in the same order, so a sum gives the same color with either API
+ */
+public final class ColorAccumulator {
+    /**
+     * The red component
+     */
+    private double r;
+    /**
+     * The green component
+     */
+    private double g;
+    /**
+     * The blue component
+     */
+    private double b;
+
+    /**
+     * Constructs a black accumulator.
+     */
+    public ColorAccumulator() {
+    }
+
+    /**
+     * Sets the components to those of a color.
+     *
+     * @param color the color
+     * @return this accumulator
+     */
+    public ColorAccumulator set(Color color) {
+        r = color.rgb.d1;
+        g = color.rgb.d2;
+        b = color.rgb.d3;
+        return this;
+    }
+
+    /**
+     * Sets the components to black.
+     *
+     * @return this accumulator
+     */
+    public ColorAccumulator reset() {
+        r = 0;
+        g = 0;
+        b = 0;
+        return this;
+    }
+
+    /**
+     * Adds a color.
+     *
+     * @param color the color
+     * @return this accumulator
+     */
+    public ColorAccumulator add(Color color) {
+        r += color.rgb.d1;
+        g += color.rgb.d2;
+        b += color.rgb.d3;
+        return this;
+    }
+
+    /**
+     * Adds the sum of another accumulator.
+     *
+     * @param other the other accumulator
+     * @return this accumulator
+     */
+    public ColorAccumulator add(ColorAccumulator other) {
+        r += other.r;
+        g += other.g;
+        b += other.b;
+        return this;
+    }
+
+    /**
+     * Adds a color scaled by a triad, like adding {@code color.scale(k)}.
+     *
+     * @param color the color
+     * @param k     the scale factor per rgb
+     * @return this accumulator
+     */
+    public ColorAccumulator addScaled(Color color, Double3 k) {
+        r += color.rgb.d1 * k.d1;
+        g += color.rgb.d2 * k.d2;
+        b += color.rgb.d3 * k.d3;
+        return this;
+    }
+
+    /**
+     * Adds the sum of another accumulator scaled by a triad.
+     *
+     * @param other the other accumulator
+     * @param k     the scale factor per rgb
+     * @return this accumulator
+     */
+    public ColorAccumulator addScaled(ColorAccumulator other, Double3 k) {
+        r += other.r * k.d1;
+        g += other.g * k.d2;
+        b += other.b * k.d3;
+        return this;
+    }
+
+    /**
+     * Adds the sum of another accumulator scaled by a triad which is scaled by a number,
+     * like adding {@code color.scale(k.scale(factor))}.
+     *
+     * @param other  the other accumulator
+     * @param k      the scale factor per rgb
+     * @param factor the scale factor of the triad
+     * @return this accumulator
+     */
+    public ColorAccumulator addScaled(ColorAccumulator other, Double3 k, double factor) {
+        r += other.r * (k.d1 * factor);
+        g += other.g * (k.d2 * factor);
+        b += other.b * (k.d3 * factor);
+        return this;
+    }
+
+    /**
+     * Scales the components by a triad.
+     *
+     * @param k the scale factor per rgb
+     * @return this accumulator
+     */
+    public ColorAccumulator scale(Double3 k) {
+        r *= k.d1;
+        g *= k.d2;
+        b *= k.d3;
+        return this;
+    }
+
+    /**
+     * Scales the components by a number.
+     *
+     * @param k the scale factor
+     * @return this accumulator
+     */
+    public ColorAccumulator scale(double k) {
+        r *= k;
+        g *= k;
+        b *= k;
+        return this;
+    }
+
+    /**
+     * Creates a color of the sum.
+     *
+     * @return the color
+     * @throws IllegalArgumentException if a component is negative
+     */
+    public Color toColor() {
+        return new Color(r, g, b);
+    }
+
+    @Override
+    public String toString() {
+        return "rgb:(" + r + "," + g + "," + b + ")";
+    }
+}
@@ -22,20 +22,14 @@ public class Ray {
      * The delta value for comparing double values.
      */
     private static final double DELTA = 0.1;
-
     /**
-     * The BVH improvement flag
+     * The inverses of the direction coordinates, calculated on the first box test of the ray
      */
-    public boolean isBVH;
-
+    private double[] inverseDirection;
     /**
-     * Setter for the BVH improvement flag
-     *
-     * @param isBVH the BVH improvement flag
+     * The signs of the direction coordinates, calculated with the inverses
      */
-    public void setBVHmprove(boolean isBVH) {
-        this.isBVH = isBVH;
-    }
+    private int[] signs;
 
     /**
      * Constructs a new Ray with the specified starting point and direction.
@@ -89,6 +83,53 @@ public class Ray {
         return direction;
     }
 
+    /**
+     * Returns the inverses of the direction coordinates for the slab tests of boxes,
+     * so a box test needs only multiplications. A zero coordinate (an axis parallel ray)
+     * gets a positive infinite inverse, whatever the sign of the zero.
+     * The inverses are calculated once, on the first call. The returned array must not be modified
+     *
+     * @return 1/x, 1/y and 1/z of the direction
+     */
+    public double[] getInverseDirection() {
+        if (inverseDirection == null)
+            calcInverse();
+        return inverseDirection;
+    }
+
+    /**
+     * Returns the signs of the direction coordinates, consistent with {@link #getInverseDirection()},
+     * so a slab test can pick the near and the far side of a box without comparing the distances.
+     * The returned array must not be modified
+     *
+     * @return 1 for an axis with a negative inverse and 0 otherwise, for x, y and z
+     */
+    public int[] getSigns() {
+        if (signs == null)
+            calcInverse();
+        return signs;
+    }
+
+    /**
+     * Calculates the inverses and the signs of the direction coordinates.
+     * A ray is traced by a single thread, so the lazy calculation needs no locking
+     */
+    private void calcInverse() {
+        double[] inverse = {inverse(direction.getX()), inverse(direction.getY()), inverse(direction.getZ())};
+        signs = new int[]{inverse[0] < 0 ? 1 : 0, inverse[1] < 0 ? 1 : 0, inverse[2] < 0 ? 1 : 0};
+        inverseDirection = inverse;
+    }
+
+    /**
+     * Calculates the inverse of a direction coordinate
+     *
+     * @param d the direction coordinate
+     * @return 1/d, positive infinity for both zeros
+     */
+    private static double inverse(double d) {
+        return d == 0 ? Double.POSITIVE_INFINITY : 1 / d;
+    }
+
     @Override
     public boolean equals(Object obj) {
         return (obj instanceof Ray other) && this.head.equals(other.head) && this.direction.equals(other.direction);
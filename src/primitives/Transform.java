@@ -0,0 +1,249 @@
+package primitives;
+
+import static primitives.Util.isZero;
+
+/**
+ * Represents an affine transformation of the three-dimensional space - a 3x3 linear part followed by a translation.
+ * The inverse transformation is computed once on construction, so rays can be moved between the world
+ * and the object spaces of an instance without inverting the matrix per ray.
+ */
+public class Transform {
+    /**
+     * The identity transformation.
+     */
+    public static final Transform IDENTITY = new Transform(new double[]{1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0});
+
+    /**
+     * The matrix rows in row-major order - every row holds three linear coefficients and the translation.
+     */
+    private final double[] m;
+    /**
+     * The matrix of the inverse transformation in the same layout.
+     */
+    private final double[] inverse;
+
+    /**
+     * Constructs a transformation from a 3x4 matrix
+     *
+     * @param m the 12 matrix coefficients in row-major order
+     * @throws IllegalArgumentException if the linear part of the matrix is singular
+     */
+    private Transform(double[] m) {
+        this.m = m;
+        double c00 = m[5] * m[10] - m[6] * m[9];
+        double c01 = m[6] * m[8] - m[4] * m[10];
+        double c02 = m[4] * m[9] - m[5] * m[8];
+        double det = m[0] * c00 + m[1] * c01 + m[2] * c02;
+        if (isZero(det))
+            throw new IllegalArgumentException("The transformation must be invertible");
+        double d = 1 / det;
+        double[] inv = new double[12];
+        inv[0] = c00 * d;
+        inv[1] = (m[2] * m[9] - m[1] * m[10]) * d;
+        inv[2] = (m[1] * m[6] - m[2] * m[5]) * d;
+        inv[4] = c01 * d;
+        inv[5] = (m[0] * m[10] - m[2] * m[8]) * d;
+        inv[6] = (m[2] * m[4] - m[0] * m[6]) * d;
+        inv[8] = c02 * d;
+        inv[9] = (m[1] * m[8] - m[0] * m[9]) * d;
+        inv[10] = (m[0] * m[5] - m[1] * m[4]) * d;
+        for (int row = 0; row < 12; row += 4)
+            inv[row + 3] = -(inv[row] * m[3] + inv[row + 1] * m[7] + inv[row + 2] * m[11]);
+        this.inverse = inv;
+    }
+
+    /**
+     * Constructs a transformation with a known inverse
+     *
+     * @param m       the matrix coefficients
+     * @param inverse the coefficients of the inverse matrix
+     */
+    private Transform(double[] m, double[] inverse) {
+        this.m = m;
+        this.inverse = inverse;
+    }
+
+    /**
+     * Creates a translation
+     *
+     * @param offset the translation vector
+     * @return the translation
+     */
+    public static Transform translation(Vector offset) {
+        return translation(offset.getX(), offset.getY(), offset.getZ());
+    }
+
+    /**
+     * Creates a translation
+     *
+     * @param x the translation along the x axis
+     * @param y the translation along the y axis
+     * @param z the translation along the z axis
+     * @return the translation
+     */
+    public static Transform translation(double x, double y, double z) {
+        return new Transform(new double[]{1, 0, 0, x, 0, 1, 0, y, 0, 0, 1, z});
+    }
+
+    /**
+     * Creates a uniform scaling about the origin
+     *
+     * @param factor the scale factor
+     * @return the scaling
+     * @throws IllegalArgumentException if the factor is zero
+     */
+    public static Transform scaling(double factor) {
+        return scaling(factor, factor, factor);
+    }
+
+    /**
+     * Creates a scaling about the origin with a factor per axis
+     *
+     * @param x the scale factor along the x axis
+     * @param y the scale factor along the y axis
+     * @param z the scale factor along the z axis
+     * @return the scaling
+     * @throws IllegalArgumentException if any of the factors is zero
+     */
+    public static Transform scaling(double x, double y, double z) {
+        return new Transform(new double[]{x, 0, 0, 0, 0, y, 0, 0, 0, 0, z, 0});
+    }
+
+    /**
+     * Creates a rotation about an axis through the origin (right-hand rule)
+     *
+     * @param axis  the rotation axis
+     * @param angle the rotation angle in degrees
+     * @return the rotation
+     */
+    public static Transform rotation(Vector axis, double angle) {
+        Vector u = axis.normalize();
+        double x = u.getX(), y = u.getY(), z = u.getZ();
+        double rad = Math.toRadians(angle);
+        double c = Math.cos(rad), s = Math.sin(rad), t = 1 - c;
+        return new Transform(new double[]{
+                t * x * x + c, t * x * y - s * z, t * x * z + s * y, 0,
+                t * x * y + s * z, t * y * y + c, t * y * z - s * x, 0,
+                t * x * z - s * y, t * y * z + s * x, t * z * z + c, 0});
+    }
+
+    /**
+     * Composes this transformation with another one which is applied after it
+     *
+     * @param next the transformation to apply after this one
+     * @return the composed transformation
+     */
+    public Transform then(Transform next) {
+        return new Transform(multiply(next.m, m), multiply(inverse, next.inverse));
+    }
+
+    /**
+     * Returns the inverse transformation
+     *
+     * @return the inverse transformation
+     */
+    public Transform inverse() {
+        return new Transform(inverse, m);
+    }
+
+    /**
+     * Transforms a point
+     *
+     * @param p the point
+     * @return the transformed point
+     */
+    public Point apply(Point p) {
+        return transformPoint(m, p);
+    }
+
+    /**
+     * Transforms a point by the inverse transformation
+     *
+     * @param p the point
+     * @return the point moved back by the transformation
+     */
+    public Point applyInverse(Point p) {
+        return transformPoint(inverse, p);
+    }
+
+    /**
+     * Transforms a direction - the translation does not apply
+     *
+     * @param v the direction
+     * @return the transformed direction, not normalized
+     */
+    public Vector apply(Vector v) {
+        return transformVector(m, v);
+    }
+
+    /**
+     * Transforms a direction by the inverse transformation
+     *
+     * @param v the direction
+     * @return the direction moved back by the transformation, not normalized
+     */
+    public Vector applyInverse(Vector v) {
+        return transformVector(inverse, v);
+    }
+
+    /**
+     * Transforms a normal by the inverse transposed matrix, so it stays perpendicular to the transformed surface
+     *
+     * @param n the normal
+     * @return the transformed normal, not normalized
+     */
+    public Vector applyNormal(Vector n) {
+        double x = n.getX(), y = n.getY(), z = n.getZ();
+        return new Vector(
+                inverse[0] * x + inverse[4] * y + inverse[8] * z,
+                inverse[1] * x + inverse[5] * y + inverse[9] * z,
+                inverse[2] * x + inverse[6] * y + inverse[10] * z);
+    }
+
+    /**
+     * Multiplies two affine matrices
+     *
+     * @param a the left matrix
+     * @param b the right matrix (applied first)
+     * @return the product a*b
+     */
+    private static double[] multiply(double[] a, double[] b) {
+        double[] r = new double[12];
+        for (int row = 0; row < 12; row += 4) {
+            for (int col = 0; col < 4; col++)
+                r[row + col] = a[row] * b[col] + a[row + 1] * b[4 + col] + a[row + 2] * b[8 + col];
+            r[row + 3] += a[row + 3];
+        }
+        return r;
+    }
+
+    /**
+     * Multiplies a matrix by a point
+     *
+     * @param m the matrix
+     * @param p the point
+     * @return the transformed point
+     */
+    private static Point transformPoint(double[] m, Point p) {
+        double x = p.getX(), y = p.getY(), z = p.getZ();
+        return new Point(
+                m[0] * x + m[1] * y + m[2] * z + m[3],
+                m[4] * x + m[5] * y + m[6] * z + m[7],
+                m[8] * x + m[9] * y + m[10] * z + m[11]);
+    }
+
+    /**
+     * Multiplies the linear part of a matrix by a vector
+     *
+     * @param m the matrix
+     * @param v the vector
+     * @return the transformed vector
+     */
+    private static Vector transformVector(double[] m, Vector v) {
+        double x = v.getX(), y = v.getY(), z = v.getZ();
+        return new Vector(
+                m[0] * x + m[1] * y + m[2] * z,
+                m[4] * x + m[5] * y + m[6] * z,
+                m[8] * x + m[9] * y + m[10] * z);
+    }
+}
@@ -0,0 +1,290 @@
+package primitives;
+
+import static primitives.Util.alignZero;
+import static primitives.Util.isZero;
+
+/**
+ * A mutable triad of coordinates for the vector math of the hot paths.
+ * Every {@link Point} and {@link Vector} operation allocates a new triad and a new wrapper,
+ * while the operations of this class change the triad in place and return it for chaining,
+ * so a calculation works on a few scratch triads and allocates a point or a vector
+ * only for its result. A scratch triad which does not leave its method costs no allocation at all,
+ * the compiler keeps its coordinates in registers.
+ * The operations calculate exactly like the matching {@link Point} and {@link Vector} operations,
+ * in the same order, so a calculation gives the same results with either API.
+ * The immutable {@link Point} and {@link Vector} remain the API of the scenes
+ */
+public final class Vec3 {
+    /**
+     * The x coordinate
+     */
+    private double x;
+    /**
+     * The y coordinate
+     */
+    private double y;
+    /**
+     * The z coordinate
+     */
+    private double z;
+    /**
+     * Whether the triad is the result of a normalization, so its vector needs no normalization
+     */
+    private boolean normalized;
+
+    /**
+     * Constructs a zero triad.
+     */
+    public Vec3() {
+    }
+
+    /**
+     * Constructs a triad with the coordinates of a point or a vector.
+     *
+     * @param p the point or the vector
+     */
+    public Vec3(Point p) {
+        set(p);
+    }
+
+    /**
+     * Sets the coordinates.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param z the z coordinate
+     * @return this triad
+     */
+    public Vec3 set(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        normalized = false;
+        return this;
+    }
+
+    /**
+     * Sets the coordinates to those of a point or a vector.
+     *
+     * @param p the point or the vector
+     * @return this triad
+     */
+    public Vec3 set(Point p) {
+        set(p.xyz.d1, p.xyz.d2, p.xyz.d3);
+        normalized = p instanceof Vector v && v.isNormalized();
+        return this;
+    }
+
+    /**
+     * Sets the coordinates to those of another triad.
+     *
+     * @param v the other triad
+     * @return this triad
+     */
+    public Vec3 set(Vec3 v) {
+        set(v.x, v.y, v.z);
+        normalized = v.normalized;
+        return this;
+    }
+
+    /**
+     * Sets the triad to the vector from one point to another, like {@link Point#subtract(Point)}.
+     *
+     * @param to   the point the vector ends at
+     * @param from the point the vector starts at
+     * @return this triad
+     */
+    public Vec3 setDifference(Point to, Point from) {
+        return set(to.xyz.d1 - from.xyz.d1, to.xyz.d2 - from.xyz.d2, to.xyz.d3 - from.xyz.d3);
+    }
+
+    /**
+     * Adds a vector, like {@link Point#add(Vector)}.
+     *
+     * @param v the vector
+     * @return this triad
+     */
+    public Vec3 add(Point v) {
+        return set(x + v.xyz.d1, y + v.xyz.d2, z + v.xyz.d3);
+    }
+
+    /**
+     * Adds another triad.
+     *
+     * @param v the other triad
+     * @return this triad
+     */
+    public Vec3 add(Vec3 v) {
+        return set(x + v.x, y + v.y, z + v.z);
+    }
+
+    /**
+     * Adds a scaled vector, like {@code add(v.scale(factor))}.
+     *
+     * @param v      the vector
+     * @param factor the scale of the vector
+     * @return this triad
+     */
+    public Vec3 addScaled(Point v, double factor) {
+        return set(x + v.xyz.d1 * factor, y + v.xyz.d2 * factor, z + v.xyz.d3 * factor);
+    }
+
+    /**
+     * Subtracts a point or a vector, like {@link Point#subtract(Point)}.
+     *
+     * @param p the point or the vector
+     * @return this triad
+     */
+    public Vec3 subtract(Point p) {
+        return set(x - p.xyz.d1, y - p.xyz.d2, z - p.xyz.d3);
+    }
+
+    /**
+     * Subtracts another triad.
+     *
+     * @param v the other triad
+     * @return this triad
+     */
+    public Vec3 subtract(Vec3 v) {
+        return set(x - v.x, y - v.y, z - v.z);
+    }
+
+    /**
+     * Scales the triad, like {@link Vector#scale(double)}.
+     *
+     * @param factor the scale
+     * @return this triad
+     */
+    public Vec3 scale(double factor) {
+        return set(x * factor, y * factor, z * factor);
+    }
+
+    /**
+     * Sets the triad to the cross product of two triads, like {@link Vector#crossProduct(Vector)}.
+     * Either triad may be this triad.
+     *
+     * @param a the left triad
+     * @param b the right triad
+     * @return this triad
+     */
+    public Vec3 cross(Vec3 a, Vec3 b) {
+        return set(a.y * b.z - a.z * b.y, a.z * b.x - a.x * b.z, a.x * b.y - a.y * b.x);
+    }
+
+    /**
+     * Calculates the dot product with another triad, like {@link Vector#dotProduct(Vector)}.
+     *
+     * @param v the other triad
+     * @return the dot product
+     */
+    public double dot(Vec3 v) {
+        return x * v.x + y * v.y + z * v.z;
+    }
+
+    /**
+     * Calculates the dot product with a vector, like {@link Vector#dotProduct(Vector)}.
+     *
+     * @param v the vector
+     * @return the dot product
+     */
+    public double dot(Point v) {
+        return x * v.xyz.d1 + y * v.xyz.d2 + z * v.xyz.d3;
+    }
+
+    /**
+     * Calculates the square of the length.
+     *
+     * @return the square of the length
+     */
+    public double lengthSquared() {
+        return x * x + y * y + z * z;
+    }
+
+    /**
+     * Calculates the length.
+     *
+     * @return the length
+     */
+    public double length() {
+        return Math.sqrt(lengthSquared());
+    }
+
+    /**
+     * Normalizes the triad, like {@link Vector#normalize()}.
+     *
+     * @return this triad
+     * @throws ArithmeticException if the triad is zero
+     */
+    public Vec3 normalize() {
+        if (normalized)
+            return this;
+        double length = alignZero(length());
+        if (length == 0)
+            throw new ArithmeticException("Cannot normalize Vector(0,0,0)");
+        scale(1 / length);
+        normalized = true;
+        return this;
+    }
+
+    /**
+     * Checks whether the triad has the coordinates of a point, with the tolerance of {@link Point#equals(Object)}.
+     *
+     * @param p the point
+     * @return true if the coordinates are equal
+     */
+    public boolean equalsPoint(Point p) {
+        return isZero(x - p.xyz.d1) && isZero(y - p.xyz.d2) && isZero(z - p.xyz.d3);
+    }
+
+    /**
+     * Returns the x coordinate.
+     *
+     * @return the x coordinate
+     */
+    public double getX() {
+        return x;
+    }
+
+    /**
+     * Returns the y coordinate.
+     *
+     * @return the y coordinate
+     */
+    public double getY() {
+        return y;
+    }
+
+    /**
+     * Returns the z coordinate.
+     *
+     * @return the z coordinate
+     */
+    public double getZ() {
+        return z;
+    }
+
+    /**
+     * Creates a point with the coordinates.
+     *
+     * @return a new point
+     */
+    public Point toPoint() {
+        return new Point(x, y, z);
+    }
+
+    /**
+     * Creates a vector with the coordinates.
+     * The vector of a normalized triad is known to be a unit vector.
+     *
+     * @return a new vector
+     * @throws IllegalArgumentException if the triad is zero
+     */
+    public Vector toVector() {
+        return new Vector(new Double3(x, y, z), normalized);
+    }
+
+    @Override
+    public String toString() {
+        return "Vec3{(" + x + "," + y + "," + z + ")}";
+    }
+}
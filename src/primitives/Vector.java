@@ -9,6 +9,10 @@ import static primitives.Util.isZero;
  * Represents a vector in three-dimensional space.
  */
 public class Vector extends Point {
+    /**
+     * Whether the vector is known to be a unit vector, so normalizing it returns it as is
+     */
+    private final boolean normalized;
 
     /**
      * Constructs a new Vector with the specified coordinates.
@@ -30,10 +34,23 @@ public class Vector extends Point {
      * @throws IllegalArgumentException if the vector is the zero vector.
      */
     Vector(Double3 xyz) {
+        this(xyz, false);
+    }
+
+    /**
+     * Constructs a new Vector with the specified Double3 coordinates, which may be known to be a unit vector.
+     *
+     * @param xyz        The Double3 containing the coordinates of the vector.
+     * @param normalized true if the coordinates are the result of a normalization
+     * @throws IllegalArgumentException if the vector is the zero vector.
+     */
+    Vector(Double3 xyz, boolean normalized) {
         super(xyz);
-        if (xyz.equals(Double3.ZERO)) {
+        // the tolerance of Double3.equals(Double3.ZERO) without its type check
+        if (isZero(xyz.d1) && isZero(xyz.d2) && isZero(xyz.d3)) {
             throw new IllegalArgumentException("Cannot create zero vector");
         }
+        this.normalized = normalized;
     }
 
 
@@ -68,7 +85,8 @@ public class Vector extends Point {
      * @return A new vector representing this vector scaled by the specified factor.
      */
     public Vector scale(double rsh) {
-        return new Vector(this.xyz.scale(rsh));
+        // turning a unit vector around keeps it a unit vector exactly
+        return new Vector(this.xyz.scale(rsh), normalized && (rsh == 1 || rsh == -1));
     }
 
 
@@ -116,15 +134,29 @@ public class Vector extends Point {
 
 
     /**
-     * normalize the vector
+     * normalize the vector.
+     * A vector which is already the result of a normalization is returned as is,
+     * so normalizing the directions and the normals of the hot paths again costs nothing
      *
      * @return the normalized vector
      */
     public Vector normalize() {
+        if (normalized)
+            return this;
         double length = alignZero(length());
         if (length == 0)
             throw new ArithmeticException("Cannot normalize Vector(0,0,0)");
-        return new Vector(xyz.scale(1 / length));
+        return new Vector(xyz.scale(1 / length), true);
+    }
+
+    /**
+     * Checks whether the vector is known to be a unit vector,
+     * as the result of a normalization
+     *
+     * @return true if the vector is known to be a unit vector
+     */
+    public boolean isNormalized() {
+        return normalized;
     }
 
 
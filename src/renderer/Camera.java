@@ -1,8 +1,10 @@
 package renderer;
 
 import primitives.Color;
+import primitives.ColorAccumulator;
 import primitives.Point;
 import primitives.Ray;
+import primitives.Vec3;
 import primitives.Vector;
 
 
@@ -51,6 +53,10 @@ public class Camera implements Cloneable {
      * The interval between the prints
      */
     private double printInterval = 0; // printing progress percentage interval
+    /**
+     * The side of the square packets of primary rays, 0 traces the rays one by one
+     */
+    private int packetSize = 0;
 
 
     /**
@@ -224,6 +230,21 @@ public class Camera implements Cloneable {
             return this;
         }
 
+        /**
+         * Set the size of the packets of primary rays.
+         * The rays of size x size neighbouring pixels are traced together, so an accelerator
+         * walks its nodes once per packet. With anti-aliasing the samples of a pixel are
+         * the packet instead, whatever its size
+         *
+         * @param size the side of a packet in pixels, 0 to trace the rays one by one
+         * @return the camera builder
+         */
+        public Builder setPacketSize(int size) {
+            if (size < 0) throw new IllegalArgumentException("Packet size must not be negative");
+            camera.packetSize = size;
+            return this;
+        }
+
         /**
          * Set the debug print
          *
@@ -322,15 +343,25 @@ public class Camera implements Cloneable {
     public Ray constructRay(int nX, int nY, int j, int i) {
         double Ry = height / nY;
         double Rx = width / nX;
-        Point pIJ = p0;
         double Yi = -(i - (nY - 1) / 2d) * Ry;
         double Xj = (j - (nX - 1) / 2d) * Rx;
-        if (!isZero(Xj)) pIJ = pIJ.add(vRight.scale(Xj));
-        if (!isZero(Yi)) pIJ = pIJ.add(vUp.scale(Yi));
-
-        pIJ = pIJ.add(vTo.scale(distance)); //pIJ is the center of the pixel in the view plane
-        return new Ray(p0, pIJ.subtract(p0).normalize()); //return the ray from the camera to the center of the pixel
+        return constructRay(Xj, Yi); //return the ray from the camera to the center of the pixel
+    }
 
+    /**
+     * Construct a ray through a point in the view plane.
+     * The point is calculated in place in a scratch triad, the ray is the only allocation
+     *
+     * @param Xj the distance of the point from the center of the view plane to the right
+     * @param Yi the distance of the point from the center of the view plane upwards
+     * @return the ray from the camera through the point
+     */
+    private Ray constructRay(double Xj, double Yi) {
+        Vec3 pIJ = new Vec3(p0);
+        if (!isZero(Xj)) pIJ.addScaled(vRight, Xj);
+        if (!isZero(Yi)) pIJ.addScaled(vUp, Yi);
+        pIJ.addScaled(vTo, distance); //pIJ is the point in the view plane
+        return new Ray(p0, pIJ.subtract(p0).normalize().toVector());
     }
 
     /**
@@ -360,13 +391,7 @@ public class Camera implements Cloneable {
                 double offsetJ = (subJ + jitterX) * stepX;
                 double Yi = -(i - (nY - 1) / 2d) * Ry + offsetI;
                 double Xj = (j - (nX - 1) / 2d) * Rx + offsetJ;
-                Point pIJ = p0;
-                if (!isZero(Xj)) pIJ = pIJ.add(vRight.scale(Xj));
-                if (!isZero(Yi)) pIJ = pIJ.add(vUp.scale(Yi));
-                pIJ = pIJ.add(vTo.scale(distance)); // pIJ is the center of the pixel in the view plane
-
-                Ray ray = new Ray(p0, pIJ.subtract(p0).normalize());
-                rays.add(ray);
+                rays.add(constructRay(Xj, Yi));
             }
         }
         return rays;
@@ -383,7 +408,18 @@ public class Camera implements Cloneable {
         int nX = imageWriter.getNx();
         int nY = imageWriter.getNy();
         Pixel.initialize(nY, nX, printInterval);
-        if (threadsCount == 0)
+        if (packetSize > 0 && !blackboard.isAntiAliasingEnabled()) {
+            int tilesX = (nX + packetSize - 1) / packetSize;
+            int tilesY = (nY + packetSize - 1) / packetSize;
+            if (threadsCount == 0)
+                for (int i = 0; i < tilesY; i++)
+                    for (int j = 0; j < tilesX; j++)
+                        castPacket(nX, nY, j * packetSize, i * packetSize);
+            else if (threadsCount == -1)
+                IntStream.range(0, tilesY).parallel() //
+                        .forEach(i -> IntStream.range(0, tilesX).parallel() //
+                                .forEach(j -> castPacket(nX, nY, j * packetSize, i * packetSize)));
+        } else if (threadsCount == 0)
             for (int i = 0; i < nY; i++)
                 for (int j = 0; j < nX; j++)
                     castRay(nX, nY, j, i);
@@ -407,12 +443,18 @@ public class Camera implements Cloneable {
     private void castRay(int nX, int nY, int j, int i) {
         if (blackboard.isAntiAliasingEnabled()) {
             List<Ray> rays = constructRays(nX, nY, j, i);
-            Color color = Color.BLACK;
-            for (Ray ray : rays) {
-                color = color.add(rayTracer.traceRay(ray));
+            ColorAccumulator color = new ColorAccumulator();
+            if (packetSize > 0) {
+                // the samples of a pixel are close together, so they are traced as one packet
+                for (Color sample : rayTracer.traceRays(rays.toArray(new Ray[0])))
+                    color.add(sample);
+            } else {
+                for (Ray ray : rays) {
+                    rayTracer.traceRay(ray, color);
+                }
             }
-            color = color.scale(1d / rays.size());
-            imageWriter.writePixel(j, i, color);
+            color.scale(1d / rays.size());
+            imageWriter.writePixel(j, i, color.toColor());
         } else {
             Ray ray = constructRay(nX, nY, j, i);
             Color color = rayTracer.traceRay(ray);
@@ -422,6 +464,29 @@ public class Camera implements Cloneable {
 
     }
 
+    /**
+     * Cast a packet of rays through a square of neighbouring pixels in the view plane
+     *
+     * @param nX the number of pixels in the x direction
+     * @param nY the number of pixels in the y direction
+     * @param j  the x index of the top left pixel of the square
+     * @param i  the y index of the top left pixel of the square
+     */
+    private void castPacket(int nX, int nY, int j, int i) {
+        int columns = Math.min(packetSize, nX - j);
+        int rows = Math.min(packetSize, nY - i);
+        Ray[] rays = new Ray[columns * rows];
+        for (int row = 0; row < rows; row++)
+            for (int column = 0; column < columns; column++)
+                rays[row * columns + column] = constructRay(nX, nY, j + column, i + row);
+        Color[] colors = rayTracer.traceRays(rays);
+        for (int row = 0; row < rows; row++)
+            for (int column = 0; column < columns; column++) {
+                imageWriter.writePixel(j + column, i + row, colors[row * columns + column]);
+                Pixel.pixelDone();
+            }
+    }
+
 
     /**
      * Print a grid on the view plane
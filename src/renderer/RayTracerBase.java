@@ -1,6 +1,7 @@
 package renderer;
 import  Scene.Scene;
 import primitives.Color;
+import primitives.ColorAccumulator;
 import primitives.Ray;
 
 /**
@@ -17,8 +18,7 @@ public abstract class  RayTracerBase  {
      * @param scene The scene to render.
      */
     public RayTracerBase(Scene scene) {
-        if(scene.isBVH)
-            scene.geometries.setBoxes();
+        scene.prepareAccelerator();
         this.scene = scene;
     }
 
@@ -29,4 +29,27 @@ public abstract class  RayTracerBase  {
      * @return The color of the intersection point.
      */
     public abstract Color traceRay(Ray ray);
+
+    /**
+     * Traces a ray through the scene and adds the color of the intersection point to a sum.
+     * The default implementation adds the color of {@link #traceRay(Ray)}.
+     * @param ray The ray to trace.
+     * @param sum The sum of colors to add to.
+     */
+    public void traceRay(Ray ray, ColorAccumulator sum) {
+        sum.add(traceRay(ray));
+    }
+
+    /**
+     * Traces a packet of neighbouring rays through the scene.
+     * The default implementation traces the rays one by one.
+     * @param rays The rays to trace.
+     * @return The color of every ray.
+     */
+    public Color[] traceRays(Ray[] rays) {
+        Color[] colors = new Color[rays.length];
+        for (int i = 0; i < rays.length; i++)
+            colors[i] = traceRay(rays[i]);
+        return colors;
+    }
 }
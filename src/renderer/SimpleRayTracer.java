@@ -5,10 +5,13 @@ import Scene.Scene;
 import lighting.LightSource;
 import primitives.*;
 
-import java.util.List;
 
 import geometries.Intersectable.GeoPoint;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static primitives.Util.alignZero;
 
 /**
@@ -30,6 +33,31 @@ public class SimpleRayTracer extends RayTracerBase {
      * The minimum value of the color coefficient.
      */
     private static final double MIN_CALC_COLOR_K = 0.001;
+    /**
+     * The amount of cells along every axis of the grid which sorts the secondary rays by their heads
+     */
+    private static final int SORT_CELLS = 16;
+    /**
+     * The maximal amount of sorted secondary rays which are traced together
+     */
+    private static final int BATCH_SIZE = 64;
+    /**
+     * Whether the rays of a packet are traced as a wavefront, one bounce at a time
+     */
+    private boolean wavefront = false;
+
+    /**
+     * A ray waiting in the wavefront queue with the weight of its color in the color of its pixel
+     *
+     * @param ray    the ray
+     * @param pixel  the index of the primary ray it comes from
+     * @param weight the attenuation of the ray which spawned it
+     * @param kx     the reflection or refraction coefficient it was spawned with
+     * @param k      the attenuation coefficient including kx, to stop the weak rays
+     * @param level  the levels of recursion left
+     */
+    private record QueuedRay(Ray ray, int pixel, Double3 weight, Double3 kx, Double3 k, int level) {
+    }
 
     /**
      * Calculate partial shadow
@@ -44,23 +72,9 @@ public class SimpleRayTracer extends RayTracerBase {
         // Calculate the continuous ray from the intersection point
         Ray lightRay = new Ray(geoPoint.point, l.scale(-1), n);
 
-        // Check if there is any intersection between the object
-        // from the intersection point to the light source
-        List<GeoPoint> intersections;
-        intersections = scene.geometries.findGeoIntersections(lightRay, light.getDistance(geoPoint.point));
-        if (intersections == null) return Double3.ONE;
-
-        // Initiate the transparency to 1 (the object is translucent)
-        Double3 ktr = Double3.ONE;
-
-        // For each intersection point with the geometries check if have an intersection
-        // between the intersection point to the light source
-        for (GeoPoint gp : intersections) {
-            ktr = ktr.product(gp.geometry.getMaterial().kT);
-            // If the intensity of the light ray is too small, the object is opaque
-            if (ktr.lowerThan(MIN_CALC_COLOR_K)) return Double3.ZERO;
-        }
-        return ktr;
+        // Accumulate the transparency of the objects between the intersection point and the light source,
+        // the query stops at the first object which blocks the light
+        return scene.getIntersectable().occlusion(lightRay, light.getDistance(geoPoint.point));
     }
 
 
@@ -74,6 +88,21 @@ public class SimpleRayTracer extends RayTracerBase {
         super(scene);
     }
 
+    /**
+     * Set the wavefront mode for the packets of rays.
+     * Instead of following every reflected and refracted ray depth-first, all the secondary rays
+     * of a packet are queued, sorted by the cell of their head and the octant of their direction,
+     * and traced in batches one bounce at a time, so neighbouring rays reuse the same hierarchy nodes.
+     * It applies to the packets of the camera (see {@link Camera.Builder#setPacketSize(int)})
+     *
+     * @param wavefront true to trace the packets as a wavefront
+     * @return the ray tracer
+     */
+    public SimpleRayTracer setWavefront(boolean wavefront) {
+        this.wavefront = wavefront;
+        return this;
+    }
+
     /**
      * Get color of the intersection of the ray with the scene
      *
@@ -82,11 +111,199 @@ public class SimpleRayTracer extends RayTracerBase {
      */
     @Override
     public Color traceRay(Ray ray) {
-        ray.setBVHmprove(scene.isBVH);
         GeoPoint closestPoint = findClosestIntersection(ray);
         return closestPoint == null ? scene.background : calcColor(closestPoint, ray);
     }
 
+    /**
+     * Add the color of the intersection of the ray with the scene to a sum
+     *
+     * @param ray Ray to trace
+     * @param sum the sum of colors to add to
+     */
+    @Override
+    public void traceRay(Ray ray, ColorAccumulator sum) {
+        GeoPoint closestPoint = findClosestIntersection(ray);
+        if (closestPoint == null)
+            sum.add(scene.background);
+        else
+            sum.add(calcColor(closestPoint, ray, new ColorAccumulator()));
+    }
+
+    /**
+     * Get the colors of a packet of neighbouring rays, the scene finds all their closest
+     * intersections in one query
+     *
+     * @param rays Rays to trace
+     * @return Color of intersection of every ray
+     */
+    @Override
+    public Color[] traceRays(Ray[] rays) {
+        if (wavefront)
+            return traceWavefront(rays);
+        GeoPoint[] closestPoints = scene.getIntersectable().findClosestIntersections(rays);
+        Color[] colors = new Color[rays.length];
+        for (int i = 0; i < rays.length; i++)
+            colors[i] = closestPoints[i] == null ? scene.background : calcColor(closestPoints[i], rays[i]);
+        return colors;
+    }
+
+    /**
+     * Get the colors of a packet of rays one bounce at a time.
+     * The color of a ray is the sum of the local effects along its reflection and refraction tree,
+     * each scaled by the coefficients on the way, so every queued ray adds its part to the color
+     * of its pixel and queues its own secondary rays for the next bounce
+     *
+     * @param rays Rays to trace
+     * @return Color of intersection of every ray
+     */
+    private Color[] traceWavefront(Ray[] rays) {
+        ColorAccumulator[] sums = new ColorAccumulator[rays.length];
+        List<QueuedRay> queue = new ArrayList<>(rays.length);
+        for (int i = 0; i < rays.length; i++) {
+            sums[i] = new ColorAccumulator();
+            queue.add(new QueuedRay(rays[i], i, Double3.ONE, Double3.ONE, INITIAL_K, MAX_CALC_COLOR_LEVEL));
+        }
+        // the primary rays are already a coherent packet
+        GeoPoint[] points = scene.getIntersectable().findClosestIntersections(rays);
+        ColorAccumulator local = new ColorAccumulator();
+        while (!queue.isEmpty()) {
+            List<QueuedRay> next = new ArrayList<>();
+            for (int i = 0; i < queue.size(); i++) {
+                QueuedRay queued = queue.get(i);
+                GeoPoint gp = points[i];
+                if (gp == null) {
+                    // the background is not scaled by the coefficient of the missing ray
+                    sums[queued.pixel].addScaled(scene.background, queued.weight);
+                    continue;
+                }
+                Double3 weight = queued.weight.product(queued.kx);
+                local.set(gp.geometry.getEmission());
+                addLocalEffects(gp, queued.ray, queued.k, local);
+                sums[queued.pixel].addScaled(local, weight);
+                if (queued.level == MAX_CALC_COLOR_LEVEL)
+                    sums[queued.pixel].add(scene.ambientLight.getIntensity());
+                if (queued.level > 1) {
+                    Material material = gp.geometry.getMaterial();
+                    enqueue(next, queued, gp, weight, material.kR, true);
+                    enqueue(next, queued, gp, weight, material.kT, false);
+                }
+            }
+            queue = sort(next);
+            points = findClosestIntersections(queue);
+        }
+        Color[] colors = new Color[rays.length];
+        for (int i = 0; i < rays.length; i++)
+            colors[i] = sums[i].toColor();
+        return colors;
+    }
+
+    /**
+     * Queue a reflected or refracted ray unless its effect is too weak, like {@link #addGlobalEffect}
+     *
+     * @param queue        the queue of the next bounce
+     * @param parent       the ray which hit the geometry
+     * @param gp           the hit of the parent ray
+     * @param weight       the attenuation of the parent ray up to the hit
+     * @param kx           the reflection (kR) or refraction (kT) coefficient of the material
+     * @param isReflection true to queue the reflected ray, false to queue the refracted ray
+     */
+    private void enqueue(List<QueuedRay> queue, QueuedRay parent, GeoPoint gp, Double3 weight, Double3 kx,
+                         boolean isReflection) {
+        if (kx.lowerThan(MIN_CALC_COLOR_K))
+            return;
+        Double3 kkx = parent.k.product(kx);
+        if (kkx.lowerThan(MIN_CALC_COLOR_K))
+            return;
+        Ray effectRay = isReflection ? constructReflectedRay(gp, parent.ray) : constructRefractedRay(gp, parent.ray);
+        queue.add(new QueuedRay(effectRay, parent.pixel, weight, kx, kkx, parent.level - 1));
+    }
+
+    /**
+     * Sort queued rays by the octant of their direction and then by the cell of their head
+     * in a coarse grid over the heads, so the rays which meet the same geometries are traced together
+     *
+     * @param queue the queued rays
+     * @return the sorted rays
+     */
+    private static List<QueuedRay> sort(List<QueuedRay> queue) {
+        int size = queue.size();
+        if (size < 2)
+            return queue;
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (QueuedRay queued : queue) {
+            Point head = queued.ray.getHead();
+            double[] xyz = {head.getX(), head.getY(), head.getZ()};
+            for (int axis = 0; axis < 3; axis++) {
+                min[axis] = Math.min(min[axis], xyz[axis]);
+                max[axis] = Math.max(max[axis], xyz[axis]);
+            }
+        }
+        // the key is the octant, then the cell, and the index of the ray in the lower half
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            Ray ray = queue.get(i).ray;
+            Point head = ray.getHead();
+            long octant = octant(ray);
+            long cell = (cell(head.getX(), min[0], max[0]) * SORT_CELLS + cell(head.getY(), min[1], max[1]))
+                    * SORT_CELLS + cell(head.getZ(), min[2], max[2]);
+            keys[i] = (octant * SORT_CELLS * SORT_CELLS * SORT_CELLS + cell) << 32 | i;
+        }
+        Arrays.sort(keys);
+        List<QueuedRay> sorted = new ArrayList<>(size);
+        for (long key : keys)
+            sorted.add(queue.get((int) key));
+        return sorted;
+    }
+
+    /**
+     * Find the cell of a coordinate in the grid which sorts the secondary rays
+     *
+     * @param value the coordinate
+     * @param min   the lowest coordinate of the heads
+     * @param max   the highest coordinate of the heads
+     * @return the cell index from 0 to {@value #SORT_CELLS} - 1
+     */
+    private static int cell(double value, double min, double max) {
+        return max == min ? 0 : Math.min(SORT_CELLS - 1, (int) ((value - min) / (max - min) * SORT_CELLS));
+    }
+
+    /**
+     * Find the closest intersection points of sorted queued rays, in batches of neighbouring rays
+     * with the same direction octant
+     *
+     * @param queue the sorted queued rays
+     * @return the closest intersection point of every ray
+     */
+    private GeoPoint[] findClosestIntersections(List<QueuedRay> queue) {
+        GeoPoint[] points = new GeoPoint[queue.size()];
+        int start = 0;
+        while (start < queue.size()) {
+            int octant = octant(queue.get(start).ray);
+            int end = start + 1;
+            while (end < queue.size() && end - start < BATCH_SIZE && octant(queue.get(end).ray) == octant)
+                end++;
+            Ray[] batch = new Ray[end - start];
+            for (int i = start; i < end; i++)
+                batch[i - start] = queue.get(i).ray;
+            System.arraycopy(scene.getIntersectable().findClosestIntersections(batch), 0, points, start, batch.length);
+            start = end;
+        }
+        return points;
+    }
+
+    /**
+     * Find the octant of the direction of a ray
+     *
+     * @param ray the ray
+     * @return the signs of the direction coordinates as three bits
+     */
+    private static int octant(Ray ray) {
+        Vector dir = ray.getDir();
+        return (dir.getX() < 0 ? 4 : 0) | (dir.getY() < 0 ? 2 : 0) | (dir.getZ() < 0 ? 1 : 0);
+    }
+
     /**
      * Find the closest intersection point of the ray with the scene
      *
@@ -94,21 +311,33 @@ public class SimpleRayTracer extends RayTracerBase {
      * @return the closest intersection point
      */
     private GeoPoint findClosestIntersection(Ray ray) {
-        List<GeoPoint> intersections;
-        intersections = scene.geometries.findGeoIntersections(ray);
-        return intersections == null ? null : ray.findClosestGeoPoint(intersections);
+        return scene.getIntersectable().findClosestIntersection(ray);
     }
 
     /**
-     * Get the color of an intersection point
+     * Calculate the color of an intersection point into an accumulator
      *
      * @param intersection point of intersection and the geometry
-     * @return Color of the intersection point
+     * @param color        the accumulator of the color, its previous sum is replaced
+     */
+    private void calcColor(GeoPoint intersection, Ray ray, int level, Double3 k, ColorAccumulator color) {
+        color.set(intersection.geometry.getEmission());
+        addLocalEffects(intersection, ray, k, color);
+        if (1 != level)
+            addGlobalEffects(intersection, ray, level, k, color);
+    }
+
+    /**
+     * Calculate the color of an intersection point into an accumulator
+     *
+     * @param gp    point of intersection and the geometry
+     * @param ray   the ray
+     * @param color the accumulator of the color, its previous sum is replaced
+     * @return the accumulator
      */
-    private Color calcColor(GeoPoint intersection, Ray ray, int level, Double3 k) {
-        Color color = intersection.geometry.getEmission()
-                .add(calcLocalEffects(intersection, ray, k));
-        return 1 == level ? color : color.add(calcGlobalEffects(intersection, ray, level, k));
+    private ColorAccumulator calcColor(GeoPoint gp, Ray ray, ColorAccumulator color) {
+        calcColor(gp, ray, MAX_CALC_COLOR_LEVEL, INITIAL_K, color);
+        return color.add(scene.ambientLight.getIntensity());
     }
 
     /**
@@ -119,31 +348,26 @@ public class SimpleRayTracer extends RayTracerBase {
      * @return the color of the intersection point
      */
     private Color calcColor(GeoPoint gp, Ray ray) {
-        return calcColor(gp, ray, MAX_CALC_COLOR_LEVEL, INITIAL_K)
-                .add(scene.ambientLight.getIntensity());
+        return calcColor(gp, ray, new ColorAccumulator()).toColor();
     }
 
     /**
-     * Calculate the global effects of the intersection point
+     * Add the global effects of the intersection point to its color
      *
      * @param gp    the intersection point
      * @param ray   the ray
      * @param level the level of recursion
      * @param k     the color coefficient
-     * @return the color of the intersection point
+     * @param color the accumulator of the color of the point
      */
-    private Color calcGlobalEffects(GeoPoint gp, Ray ray, int level, Double3 k) {
-
-
-        // Initiate the result color to BLACK (equal to (0,0,0))
-        Color color = Color.BLACK;
+    private void addGlobalEffects(GeoPoint gp, Ray ray, int level, Double3 k, ColorAccumulator color) {
+        // The effects are summed apart and then added, in the order of the color operations
+        ColorAccumulator global = new ColorAccumulator();
         // The material type of the intersected geometry object
         Material material = gp.geometry.getMaterial();
-        color = color.add(calcGlobalEffect(gp, ray, level, k, material.kR, true))
-                .add(calcGlobalEffect(gp, ray, level, k, material.kT, false));
-
-        // Return the final color
-        return color;
+        addGlobalEffect(gp, ray, level, k, material.kR, true, global);
+        addGlobalEffect(gp, ray, level, k, material.kT, false, global);
+        color.add(global);
     }
 
     /**
@@ -155,24 +379,28 @@ public class SimpleRayTracer extends RayTracerBase {
      * @param k            the attenuation coefficient from previous recursions
      * @param kx           the reflection (kR) or refraction (kT) coefficient of the material at the geo-point
      * @param isReflection true if calculating reflection effect, false if calculating refraction effect
-     * @return the color effect due to reflection or refraction
+     * @param color        the accumulator to add the color effect due to reflection or refraction to
      */
-    private Color calcGlobalEffect(GeoPoint gp, Ray ray, int level, Double3 k, Double3 kx, boolean isReflection) {
+    private void addGlobalEffect(GeoPoint gp, Ray ray, int level, Double3 k, Double3 kx, boolean isReflection,
+                                 ColorAccumulator color) {
 
         if (kx.lowerThan(MIN_CALC_COLOR_K))
-            return Color.BLACK;
+            return;
 
         Double3 kkx = k.product(kx);
         if (kkx.lowerThan(MIN_CALC_COLOR_K))
-            return Color.BLACK;
+            return;
 
         Ray effectRay = isReflection ? constructReflectedRay(gp, ray) : constructRefractedRay(gp, ray);
         GeoPoint effectPoint = findClosestIntersection(effectRay);
-        if (effectPoint == null)
-            return this.scene.background;
-
-        return calcColor(effectPoint, effectRay, level - 1, kkx).scale(kx);
+        if (effectPoint == null) {
+            color.add(this.scene.background);
+            return;
+        }
 
+        ColorAccumulator effect = new ColorAccumulator();
+        calcColor(effectPoint, effectRay, level - 1, kkx, effect);
+        color.addScaled(effect, kx);
     }
 
     /**
@@ -187,10 +415,10 @@ public class SimpleRayTracer extends RayTracerBase {
         Vector v = ray.getDir();
         // Calculate the reflection ray
         double nv = alignZero(n.dotProduct(v));
-        // Calculate the reflection vector r= v - 2 * (v*n)*n
-        Vector r = v.subtract(n.scale(nv).scale(2d)).normalize();
+        // Calculate the reflection vector r= v - 2 * (v*n)*n in scratch triads
+        Vec3 r = new Vec3(v).subtract(new Vec3(n).scale(nv).scale(2d)).normalize();
         // Create the reflection ray, and return it
-        return new Ray(gp.point, r, n);
+        return new Ray(gp.point, r.toVector(), n);
     }
 
     /**
@@ -206,33 +434,37 @@ public class SimpleRayTracer extends RayTracerBase {
     }
 
     /**
-     * Calculate local effects (diffusive and specular) of the intersection point
+     * Add the local effects (diffusive and specular) of the intersection point to its color
      *
      * @param intersection point of intersection and the geometry
      * @param ray          the ray
-     * @return the color of the intersection point
+     * @param color        the accumulator of the color of the point
      */
-    private Color calcLocalEffects(GeoPoint intersection, Ray ray, Double3 k) {
+    private void addLocalEffects(GeoPoint intersection, Ray ray, Double3 k, ColorAccumulator color) {
         Vector n = intersection.geometry.getNormal(intersection.point);
         Vector v = ray.getDir();
         double nv = alignZero(n.dotProduct(v));
         if (nv == 0)
-            return Color.BLACK;
+            return;
         Material material = intersection.geometry.getMaterial();
-        Color color = Color.BLACK;
+        // the effects are summed apart and then added, in the order of the color operations
+        ColorAccumulator local = new ColorAccumulator();
+        ColorAccumulator iL = new ColorAccumulator();
+        ColorAccumulator effect = new ColorAccumulator();
         for (LightSource lightSource : scene.lights) {
             Vector l = lightSource.getL(intersection.point);
             double nl = alignZero(n.dotProduct(l));
             if (nl * nv > 0) { // sign(nl)==sign(nv)
                 Double3 ktr = transparency(lightSource, l, n, intersection);
                 if (ktr.product(k).greaterThan(MIN_CALC_COLOR_K)) {
-                    Color iL = lightSource.getIntensity(intersection.point).scale(ktr); // intensity of the light
-                    color = color.add(calcDiffusive(material.kD, iL, nl)
-                            .add(calcSpecular(material.kS, l, n, v, material.nShininess, iL)));
+                    iL.set(lightSource.getIntensity(intersection.point)).scale(ktr); // intensity of the light
+                    addDiffusive(material.kD, iL, nl, effect.reset());
+                    addSpecular(material.kS, l, n, v, material.nShininess, iL, effect);
+                    local.add(effect);
                 }
             }
         }
-        return color;
+        color.add(local);
     }
 
     /**
@@ -244,15 +476,16 @@ public class SimpleRayTracer extends RayTracerBase {
      * @param v          the vector from the intersection point to the camera
      * @param nShininess the shininess coefficient
      * @param iL         the intensity of the light
-     * @return the color of the specular component
+     * @param color      the accumulator to add the specular component to
      */
-    private Color calcSpecular(Double3 ks, Vector l, Vector n, Vector v, double nShininess, Color iL) {
+    private void addSpecular(Double3 ks, Vector l, Vector n, Vector v, double nShininess, ColorAccumulator iL,
+                             ColorAccumulator color) {
 
-        Vector r = l.subtract(n.scale(l.dotProduct(n)).scale(2)).normalize();
-        double max = Math.max(0, -v.dotProduct(r));
+        // the reflection of the light direction, in scratch triads since only its dot product is needed
+        Vec3 r = new Vec3(l).subtract(new Vec3(n).scale(l.dotProduct(n)).scale(2)).normalize();
+        double max = Math.max(0, -r.dot(v));
         double maxNs = Math.pow(max, nShininess);
-        Double3 ksMaxNs = ks.scale(maxNs);
-        return iL.scale(ksMaxNs);
+        color.addScaled(iL, ks, maxNs);
     }
 
     /**
@@ -261,11 +494,11 @@ public class SimpleRayTracer extends RayTracerBase {
      * @param kD             the diffusive coefficient
      * @param lightIntensity the intensity of the light
      * @param nl             the dot product of the normal vector and the vector from the light source to the intersection point
-     * @return the color of the diffusive component
+     * @param color          the accumulator to add the diffusive component to
      */
-    private Color calcDiffusive(Double3 kD, Color lightIntensity, double nl) {    // Calculate the diffuse intensity color
-        Color diffuse = lightIntensity.scale(kD.scale(Math.abs(nl)));
-        return diffuse;
+    private void addDiffusive(Double3 kD, ColorAccumulator lightIntensity, double nl, ColorAccumulator color) {
+        // Add the diffuse intensity color
+        color.addScaled(lightIntensity, kD, Math.abs(nl));
     }
 
 
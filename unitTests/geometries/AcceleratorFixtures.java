@@ -0,0 +1,109 @@
+package geometries;
+
+import primitives.Point;
+import primitives.Ray;
+import primitives.Vector;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Scenes and comparisons shared by the tests of the acceleration structures.
+ */
+final class AcceleratorFixtures {
+
+    /**
+     * The fixtures are static
+     */
+    private AcceleratorFixtures() {
+    }
+
+    /**
+     * A sphere which counts how many times rays are tested against it
+     */
+    static class CountingSphere extends Sphere {
+        /**
+         * The amount of ray tests so far
+         */
+        int tests = 0;
+
+        /**
+         * constructor for a counting sphere
+         *
+         * @param radius the radius
+         * @param center the center
+         */
+        CountingSphere(double radius, Point center) {
+            super(radius, center);
+        }
+
+        @Override
+        protected List<GeoPoint> findGeoIntersectionsHelper(Ray ray, double maxDistance) {
+            tests++;
+            return super.findGeoIntersectionsHelper(ray, maxDistance);
+        }
+
+        @Override
+        public GeoPoint findClosestIntersection(Ray ray, double tMax) {
+            tests++;
+            return super.findClosestIntersection(ray, tMax);
+        }
+    }
+
+    /**
+     * Builds a cube of small spheres
+     *
+     * @param side the amount of spheres along every axis
+     * @return the spheres
+     */
+    static Geometries spheresCube(int side) {
+        Geometries geometries = new Geometries();
+        for (int x = 0; x < side; x++)
+            for (int y = 0; y < side; y++)
+                for (int z = 0; z < side; z++)
+                    geometries.add(new Sphere(0.4, new Point(x, y, z)));
+        return geometries;
+    }
+
+    /**
+     * Asserts that rays from above the middle of {@link #spheresCube(int) spheresCube(10)}
+     * in many directions get the same closest point from a structure as from a reference
+     *
+     * @param reference the geometries or a trusted structure
+     * @param structure the tested structure
+     * @param rays      the amount of rays
+     * @param name      the name of the structure for the messages
+     */
+    static void assertSameClosestPoints(Intersectable reference, Intersectable structure, int rays, String name) {
+        for (int i = 0; i < rays; i++) {
+            Ray ray = new Ray(new Point(4.5, 4.5, 15), new Vector(Math.cos(i), Math.sin(i), -1.5));
+            var expected = reference.findClosestIntersection(ray);
+            var found = structure.findClosestIntersection(ray);
+            assertEquals(expected == null ? null : expected.point, found == null ? null : found.point,
+                    "Wrong " + name + " closest point for ray " + i);
+        }
+    }
+
+    /**
+     * Asserts that shadow rays from above the middle of {@link #spheresCube(int) spheresCube(6)},
+     * ending at different distances, get the same points and the same transmittance from a structure
+     * as from the geometries it is built over
+     *
+     * @param geometries the geometries
+     * @param structure  the tested structure
+     * @param name       the name of the structure for the messages
+     */
+    static void assertSameShadowRays(Geometries geometries, Intersectable structure, String name) {
+        for (int i = 0; i < 100; i++) {
+            Ray ray = new Ray(new Point(2.5, 2.5, 10), new Vector(Math.cos(i), Math.sin(i), -2));
+            double distance = 4 + i % 10;
+            var expected = geometries.findGeoIntersections(ray, distance);
+            var points = structure.findGeoIntersections(ray, distance);
+            assertEquals(expected == null ? 0 : expected.size(), points == null ? 0 : points.size(),
+                    "Wrong " + name + " amount of points for ray " + i);
+            assertEquals(geometries.occlusion(ray, distance), structure.occlusion(ray, distance),
+                    "Wrong " + name + " transmittance for ray " + i);
+        }
+    }
+}
@@ -0,0 +1,581 @@
+package geometries;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import primitives.Material;
+import primitives.Point;
+import primitives.Ray;
+import primitives.Vector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Random;
+
+import static geometries.AcceleratorFixtures.assertSameClosestPoints;
+import static geometries.AcceleratorFixtures.spheresCube;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the BVHTree class.
+ */
+class BVHTreeTests {
+
+    /**
+     * Test method for {@link geometries.BVHTree#BVHTree(Geometries, int, int)}.
+     */
+    @Test
+    void testConstructor() {
+        Geometries geometries = spheresCube(10);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: the SAH split keeps the hierarchy logarithmic (1000 spheres, 4 per leaf)
+        assertTrue(new BVHTree(geometries).getDepth() <= 12, "The hierarchy is too deep");
+
+        // TC02: a large hierarchy is built in parallel and stays logarithmic (8000 spheres)
+        Geometries many = spheresCube(20);
+        BVHTree large = new BVHTree(many);
+        assertTrue(large.getDepth() <= 16, "The parallel built hierarchy is too deep");
+        Ray ray = new Ray(new Point(-5, 7, 13), new Vector(1, 0.01, 0.02));
+        assertEquals(ray.findClosestGeoPoint(many.findGeoIntersections(ray)).point,
+                large.findClosestIntersection(ray).point, "Wrong closest point in the parallel built hierarchy");
+
+        // TC03: the max depth limits the hierarchy
+        assertEquals(3, new BVHTree(geometries, 4, 3).getDepth(), "Wrong depth for a limited hierarchy");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: leaf size which is not positive
+        assertThrows(IllegalArgumentException.class, () -> new BVHTree(geometries, 0, 10),
+                "Leaf size must be positive");
+        // TC11: max depth which is not positive
+        assertThrows(IllegalArgumentException.class, () -> new BVHTree(geometries, 4, 0),
+                "Max depth must be positive");
+        // TC12: empty geometries
+        assertEquals(0, new BVHTree(new Geometries()).getDepth(), "Empty hierarchy must have no levels");
+    }
+
+    /**
+     * Test method for {@link geometries.BVHTree#BVHTree(Geometries, BVHTree.BuildMode)}.
+     */
+    @Test
+    void testMortonBuild() {
+        Geometries geometries = spheresCube(20);
+        Plane plane = new Plane(new Point(0, 0, -5), new Vector(0, 0, 1));
+        geometries.add(plane);
+        BVHTree tree = new BVHTree(geometries, BVHTree.BuildMode.MORTON);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: the Morton codes of a regular grid give a balanced hierarchy (8000 spheres)
+        assertTrue(tree.getDepth() <= 16, "The Morton hierarchy is too deep");
+
+        // TC02: the Morton hierarchy finds the same closest points as the plain geometries
+        for (int i = 0; i < 50; i++) {
+            Ray ray = new Ray(new Point(9.5, 9.5, 30), new Vector(Math.cos(i), Math.sin(i), -1.5));
+            Point expected = ray.findClosestGeoPoint(geometries.findGeoIntersections(ray)).point;
+            assertEquals(expected, tree.findClosestIntersection(ray).point, "Wrong closest point for ray " + i);
+        }
+
+        // =============== Boundary Values Tests ==================
+        // TC10: all the primitives in the same place get identical codes
+        Geometries same = new Geometries();
+        for (int i = 0; i < 100; i++)
+            same.add(new Sphere(1, new Point(1, 1, 1)));
+        BVHTree sameTree = new BVHTree(same, BVHTree.BuildMode.MORTON);
+        assertTrue(sameTree.getDepth() <= 7, "Identical codes must be split in the middle");
+        assertEquals(200, sameTree.findGeoIntersections(new Ray(new Point(1, 1, -5), new Vector(0, 0, 1))).size(),
+                "Wrong amount of points for identical primitives");
+    }
+
+    /**
+     * Test method for {@link geometries.BVHTree#BVHTree(Geometries, BVHTree.BuildMode)} with spatial splits.
+     *
+     * @param directory a temporary cache directory
+     */
+    @Test
+    void testSpatialBuild(@TempDir Path directory) {
+        // long thin triangles across the cube in all the diagonal directions, a third of them transparent
+        Geometries geometries = new Geometries();
+        Random random = new Random(7);
+        for (int i = 0; i < 400; i++) {
+            Point a = new Point(random.nextDouble() * 20, random.nextDouble() * 20, random.nextDouble() * 20);
+            Point b = new Point(random.nextDouble() * 20, random.nextDouble() * 20, random.nextDouble() * 20);
+            Triangle triangle = new Triangle(a, b, a.add(new Vector(0.2, 0.3, 0.1)));
+            if (i % 3 == 0)
+                triangle.setMaterial(new Material().setKt(0.5));
+            geometries.add(triangle);
+        }
+        BVHTree sah = new BVHTree(geometries);
+        BVHTree spatial = new BVHTree(geometries, BVHTree.BuildMode.SPATIAL);
+        WideBVH wide = new WideBVH(geometries, BVHTree.BuildMode.SPATIAL, 4);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: the slivers are split and referenced from several leaves, within the duplication budget
+        int references = spatial.getPrimitives().length;
+        assertTrue(references > 400, "Long triangles must be split");
+        assertTrue(references <= 400 * (1 + SpatialBuild.DUPLICATION_BUDGET), "Too many references");
+        assertTrue(spatial.getSAHCost() < sah.getSAHCost(), "Spatial splits must lower the SAH cost");
+
+        // TC02: the closest points, all the points and the transmittance match the geometries,
+        // a triangle in several leaves is counted once
+        for (int i = 0; i < 100; i++) {
+            Ray ray = new Ray(new Point(10, 10, 30), new Vector(Math.cos(i), Math.sin(i), -1.2));
+            var expected = geometries.findGeoIntersections(ray);
+            int amount = expected == null ? 0 : expected.size();
+            Point closest = expected == null ? null : ray.findClosestGeoPoint(expected).point;
+            var found = spatial.findClosestIntersection(ray);
+            assertEquals(closest, found == null ? null : found.point, "Wrong closest point for ray " + i);
+            var points = spatial.findGeoIntersections(ray);
+            assertEquals(amount, points == null ? 0 : points.size(), "Wrong amount of points for ray " + i);
+            points = wide.findGeoIntersections(ray);
+            assertEquals(amount, points == null ? 0 : points.size(), "Wrong amount of wide points for ray " + i);
+            assertEquals(geometries.occlusion(ray, 60), spatial.occlusion(ray, 60), "Wrong transmittance for ray " + i);
+            assertEquals(geometries.occlusion(ray, 60), wide.occlusion(ray, 60),
+                    "Wrong wide transmittance for ray " + i);
+        }
+
+        // =============== Boundary Values Tests ==================
+        // TC10: a refit bounds the whole triangles in the leaves and still finds the same points
+        spatial.refit();
+        Ray ray = new Ray(new Point(10, 10, 30), new Vector(0.1, 0.2, -1));
+        assertEquals(sah.findClosestIntersection(ray), spatial.findClosestIntersection(ray),
+                "Wrong closest point after a refit");
+        // TC11: the cache keeps the references
+        BVHTree built = new BVHTree(geometries, BVHTree.BuildMode.SPATIAL, directory);
+        BVHTree cached = new BVHTree(geometries, BVHTree.BuildMode.SPATIAL, directory);
+        assertArrayEquals(built.getPrimitives(), cached.getPrimitives(), "Wrong references read from the cache");
+        assertEquals(built.findGeoIntersections(ray), cached.findGeoIntersections(ray),
+                "Wrong points through the cached hierarchy");
+        // TC12: subtrees large enough to be built in parallel spend the duplication budget the same way every build
+        Geometries many = new Geometries();
+        for (int i = 0; i < 6000; i++) {
+            Point a = new Point(random.nextDouble() * 50, random.nextDouble() * 50, random.nextDouble() * 50);
+            Point b = new Point(random.nextDouble() * 50, random.nextDouble() * 50, random.nextDouble() * 50);
+            many.add(new Triangle(a, b, a.add(new Vector(0.2, 0.3, 0.1))));
+        }
+        BVHTree first = new BVHTree(many, BVHTree.BuildMode.SPATIAL);
+        BVHTree again = new BVHTree(many, BVHTree.BuildMode.SPATIAL);
+        assertArrayEquals(first.getNodeData(), again.getNodeData(), "The spatial build must be deterministic");
+        assertArrayEquals(first.getPrimitives(), again.getPrimitives(), "The spatial build must be deterministic");
+    }
+
+    /**
+     * Test method for {@link geometries.BVHTree#refit()}.
+     */
+    @Test
+    void testRefit() {
+        Geometries geometries = new Geometries();
+        Sphere[][] spheres = new Sphere[10][10];
+        for (int x = 0; x < 10; x++)
+            for (int y = 0; y < 10; y++) {
+                spheres[x][y] = new Sphere(0.4, new Point(x, y, 0));
+                geometries.add(spheres[x][y]);
+            }
+        BVHTree tree = new BVHTree(geometries);
+        double cost = tree.getSAHCost();
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: all the spheres move together - refitted without a rebuild
+        for (int x = 0; x < 10; x++)
+            for (int y = 0; y < 10; y++)
+                spheres[x][y].setCenter(new Point(x, y, 5));
+        assertFalse(tree.refit(), "Moving all the spheres together must not rebuild");
+        assertEquals(cost, tree.getSAHCost(), 1e-9, "Moving all the spheres together must keep the cost");
+        Ray ray = new Ray(new Point(3, 4, 20), new Vector(0, 0, -1));
+        assertEquals(new Point(3, 4, 5.4), tree.findClosestIntersection(ray).point, "Wrong point after a refit");
+
+        // TC02: the spheres are shuffled - the refitted tree is too slow and it is rebuilt
+        for (int x = 0; x < 10; x++)
+            for (int y = 0; y < 10; y++) {
+                int position = (37 * (10 * x + y)) % 100;
+                spheres[x][y].setCenter(new Point(position / 10, position % 10, 5));
+            }
+        assertTrue(tree.refit(), "Shuffling the spheres must rebuild");
+        assertEquals(cost, tree.getSAHCost(), cost / 10, "The rebuilt tree must be as good as the first one");
+        // sphere (1,1) moved to position 37*11 % 100 = 7 which is (0,7)
+        ray = new Ray(new Point(0, 7, 20), new Vector(0, 0, -1));
+        assertEquals(spheres[1][1], tree.findClosestIntersection(ray).geometry, "Wrong sphere after a rebuild");
+    }
+
+    /**
+     * Test method for {@link geometries.BVHTree#getIntersectedGeometries(Ray)}.
+     */
+    @Test
+    void testGetIntersectedGeometries() {
+        Geometries geometries = spheresCube(10);
+        Plane plane = new Plane(new Point(0, 0, -5), new Vector(0, 0, 1));
+        geometries.add(plane);
+        BVHTree tree = new BVHTree(geometries);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: ray along a row of spheres - all the row is found and only few other spheres are tested
+        Ray ray = new Ray(new Point(-5, 3, 4), new Vector(1, 0, 0));
+        Geometries candidates = tree.getIntersectedGeometries(ray);
+        assertEquals(geometries.findIntersections(ray).size(), candidates.findIntersections(ray).size(),
+                "Wrong intersections along a row");
+        assertTrue(candidates.size() < 100, "Too many candidates along a row");
+
+        // TC02: diagonal ray through the spheres and the unbounded plane
+        ray = new Ray(new Point(-1, -1, 12), new Vector(1, 1, -1));
+        List<Point> expected = geometries.findIntersections(ray);
+        assertEquals(expected.size(), tree.getIntersectedGeometries(ray).findIntersections(ray).size(),
+                "Wrong intersections along a diagonal");
+
+        // TC03: ray which misses all the spheres - only the unbounded plane is left
+        ray = new Ray(new Point(-5, -5, 20), new Vector(0, 1, 0));
+        assertEquals(List.of(plane), tree.getIntersectedGeometries(ray).geometries,
+                "Only the unbounded plane should be a candidate");
+    }
+
+    /**
+     * Test method for {@link geometries.BVHTree#findClosestIntersection(Ray)}.
+     */
+    @Test
+    void testFindClosestIntersection() {
+        Geometries geometries = spheresCube(10);
+        Plane plane = new Plane(new Point(0, 0, -5), new Vector(0, 0, 1));
+        geometries.add(plane);
+        BVHTree tree = new BVHTree(geometries);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: ray along a row of spheres from outside - the first sphere of the row
+        Ray ray = new Ray(new Point(-5, 3, 4), new Vector(1, 0, 0));
+        assertEquals(new Point(-0.4, 3, 4), tree.findClosestIntersection(ray).point, "Wrong closest point along a row");
+
+        // TC02: rays in many directions get the same closest point as the plain geometries
+        assertSameClosestPoints(geometries, tree, 100, "hierarchy");
+
+        // TC03: ray which misses the spheres hits the unbounded plane
+        ray = new Ray(new Point(-5, -5, 20), new Vector(0, 0.1, -1));
+        assertEquals(plane, tree.findClosestIntersection(ray).geometry, "The plane should be hit");
+
+        // TC04: ray which misses everything
+        ray = new Ray(new Point(-5, -5, 20), new Vector(0, 0.1, 1));
+        assertNull(tree.findClosestIntersection(ray), "The ray should miss all the geometries");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: ray from inside a sphere
+        ray = new Ray(new Point(3, 3, 3), new Vector(0, 0, 1));
+        assertEquals(new Point(3, 3, 3.4), tree.findClosestIntersection(ray).point, "Wrong closest point from inside");
+    }
+
+    /**
+     * Test method for {@link geometries.BVHTree#BVHTree(Geometries, BVHTree.BuildMode, Path)}.
+     *
+     * @param directory a temporary cache directory
+     * @throws IOException if the cache directory cannot be listed or written
+     */
+    @Test
+    void testCache(@TempDir Path directory) throws IOException {
+        Geometries geometries = spheresCube(6);
+        BVHTree built = new BVHTree(geometries, BVHTree.BuildMode.SAH, directory);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: the first build writes one cache file
+        assertEquals(1, count(directory), "The build must write a cache file");
+
+        // TC02: the same geometries read the same hierarchy from the file
+        BVHTree cached = new BVHTree(geometries, BVHTree.BuildMode.SAH, directory);
+        assertArrayEquals(built.getNodeData(), cached.getNodeData(), "Wrong topology read from the cache");
+        assertArrayEquals(built.getNodeBounds(), cached.getNodeBounds(), "Wrong boxes read from the cache");
+        assertArrayEquals(built.getPrimitives(), cached.getPrimitives(), "Wrong primitives read from the cache");
+        Ray ray = new Ray(new Point(-5, 3, 4), new Vector(1, 0.01, 0));
+        assertEquals(built.findClosestIntersection(ray), cached.findClosestIntersection(ray),
+                "Wrong closest point through the cached hierarchy");
+
+        // TC03: other geometries or another build mode have another key
+        new BVHTree(spheresCube(5), BVHTree.BuildMode.SAH, directory);
+        new BVHTree(geometries, BVHTree.BuildMode.MORTON, directory);
+        assertEquals(3, count(directory), "Other hierarchies must have their own files");
+
+        // TC04: another leaf size has its own file and is kept with its leaves
+        BVHTree small = new BVHTree(geometries, BVHTree.BuildMode.SAH, 1, BVHTree.DEFAULT_MAX_DEPTH, directory);
+        assertEquals(4, count(directory), "Another leaf size must have its own file");
+        assertArrayEquals(small.getNodeData(),
+                new BVHTree(geometries, BVHTree.BuildMode.SAH, 1, BVHTree.DEFAULT_MAX_DEPTH, directory).getNodeData(),
+                "Wrong topology of the small leaves read from the cache");
+        assertEquals(1, small.getReport().leafSizes().length - 1, "The leaves must hold one primitive");
+
+        // TC05: a wide hierarchy is collapsed from the kept binary hierarchy
+        WideBVH wide = new WideBVH(geometries, BVHTree.BuildMode.SAH, 4, directory);
+        assertEquals(4, count(directory), "A wide hierarchy must map the binary hierarchy");
+        assertEquals(built.findClosestIntersection(ray), wide.findClosestIntersection(ray),
+                "Wrong closest point through the cached wide hierarchy");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: a damaged file is built again and replaced
+        Path single = Files.createDirectory(directory.resolve("single"));
+        new BVHTree(geometries, BVHTree.BuildMode.SAH, single);
+        Path file;
+        try (var files = Files.list(single)) {
+            file = files.findFirst().orElseThrow();
+        }
+        long size = Files.size(file);
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        BVHTree rebuilt = new BVHTree(geometries, BVHTree.BuildMode.SAH, single);
+        assertArrayEquals(built.getNodeData(), rebuilt.getNodeData(), "A damaged cache must be built again");
+        assertEquals(size, Files.size(file), "A damaged cache must be replaced");
+
+        // TC11: a square split along the other diagonal has the same boxes, but the spatial splits clip
+        // other triangles, so it has another key
+        Path squares = Files.createDirectory(directory.resolve("squares"));
+        Point p0 = new Point(0, 0, 0), p1 = new Point(4, 0, 2), p2 = new Point(4, 4, 2), p3 = new Point(0, 4, 0);
+        new BVHTree(new Geometries(new Triangle(p0, p1, p2), new Triangle(p0, p2, p3)), BVHTree.BuildMode.SPATIAL, squares);
+        Triangle far = new Triangle(p1, p2, p3);
+        BVHTree flipped = new BVHTree(new Geometries(new Triangle(p0, p1, p3), far), BVHTree.BuildMode.SPATIAL, squares);
+        assertEquals(2, count(squares), "Other triangles in the same boxes must have their own files");
+        Ray across = new Ray(new Point(3.5, 1, 5), new Vector(0, 0, -1));
+        assertSame(far, flipped.findClosestIntersection(across).geometry, "Wrong triangle through the flipped square");
+
+        // TC12: a valid file is mapped, not built again
+        byte[] valid = Files.readAllBytes(file);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+        new BVHTree(geometries, BVHTree.BuildMode.SAH, single);
+        assertEquals(0, Files.getLastModifiedTime(file).toMillis(), "A valid cache must be mapped");
+
+        // TC13: a stored depth other than the depth of the nodes, which sizes the traversal stacks
+        ByteBuffer bytes = ByteBuffer.wrap(valid).order(ByteOrder.LITTLE_ENDIAN);
+        int levels = bytes.getInt(44);
+        assertRebuilt(geometries, file, valid, 44, levels - 1, "A tree deeper than its depth must be built again");
+        assertRebuilt(geometries, file, valid, 44, levels + 1, "A tree shallower than its depth must be built again");
+        // TC14: the left child of the root sharing the right child of the root
+        int nodes = 56 + 48 * bytes.getInt(40);
+        assertEquals(0, bytes.getInt(nodes + 8 + 4), "The left child of the root must be an inner node");
+        assertRebuilt(geometries, file, valid, nodes + 8, bytes.getInt(nodes),
+                "A child reached twice must be built again");
+    }
+
+    /**
+     * Asserts that a cache file with one integer changed is built again and replaced
+     *
+     * @param geometries the geometries of the cache file
+     * @param file       the cache file
+     * @param valid      the bytes of the valid cache file
+     * @param offset     the offset of the changed integer
+     * @param value      the value written at the offset
+     * @param message    the message of the failure
+     * @throws IOException if the cache file cannot be written or read
+     */
+    private static void assertRebuilt(Geometries geometries, Path file, byte[] valid, int offset, int value,
+                                      String message) throws IOException {
+        ByteBuffer damaged = ByteBuffer.wrap(valid.clone()).order(ByteOrder.LITTLE_ENDIAN);
+        damaged.putInt(offset, value);
+        Files.write(file, damaged.array());
+        new BVHTree(geometries, BVHTree.BuildMode.SAH, file.getParent());
+        assertArrayEquals(valid, Files.readAllBytes(file), message);
+    }
+
+    /**
+     * Counts the files in a directory
+     *
+     * @param directory the directory
+     * @return the amount of files
+     * @throws IOException if the directory cannot be listed
+     */
+    private static long count(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    /**
+     * Test method for {@link geometries.BVHTree#findClosestIntersections(Ray[])}.
+     */
+    @Test
+    void testFindClosestIntersections() {
+        Geometries geometries = spheresCube(10);
+        geometries.add(new Plane(new Point(0, 0, -5), new Vector(0, 0, 1)));
+        BVHTree tree = new BVHTree(geometries);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: a coherent 8x8 packet from one head - every ray gets its own closest point
+        Ray[] rays = new Ray[64];
+        for (int i = 0; i < 64; i++)
+            rays[i] = new Ray(new Point(4.5, 4.5, 15), new Vector(-0.3 + 0.01 * (i % 8), -0.3 + 0.01 * (i / 8), -1));
+        assertPacket(tree, rays, "coherent");
+
+        // TC02: a packet which spreads over the whole cube and diverges in the hierarchy
+        for (int i = 0; i < 64; i++)
+            rays[i] = new Ray(new Point(4.5, 4.5, 15), new Vector(-0.5 + 0.1 * (i % 8), -0.5 + 0.1 * (i / 8), -1));
+        assertPacket(tree, rays, "diverging");
+
+        // TC03: an incoherent packet - the directions have different signs
+        for (int i = 0; i < 64; i++)
+            rays[i] = new Ray(new Point(4.5, 4.5, 4.5), new Vector(Math.cos(i), Math.sin(i), i % 2 == 0 ? 1 : -1));
+        assertPacket(tree, rays, "incoherent");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: a packet of a single ray
+        assertPacket(tree, new Ray[]{new Ray(new Point(-5, 3, 4), new Vector(1, 0.01, 0.01))}, "single ray");
+        // TC11: rays parallel to an axis are traced one by one
+        assertPacket(tree, new Ray[]{new Ray(new Point(-5, 3, 4), new Vector(1, 0, 0)),
+                new Ray(new Point(-5, 4, 4), new Vector(1, 0, 0))}, "axis parallel");
+    }
+
+    /**
+     * Checks that a packet gets the same closest points as its rays one by one
+     * @param tree the hierarchy
+     * @param rays the packet
+     * @param name the name of the packet for the messages
+     */
+    private static void assertPacket(BVHTree tree, Ray[] rays, String name) {
+        Intersectable.GeoPoint[] closest = tree.findClosestIntersections(rays);
+        for (int i = 0; i < rays.length; i++)
+            assertEquals(tree.findClosestIntersection(rays[i]), closest[i], "Wrong point of ray " + i + " in a " + name + " packet");
+    }
+
+    /**
+     * Test method for {@link geometries.BVHTree#findGeoIntersections(Ray, double)}.
+     */
+    @Test
+    void testFindGeoIntersections() {
+        Geometries geometries = spheresCube(10);
+        BVHTree tree = new BVHTree(geometries);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: all the points along a row
+        Ray ray = new Ray(new Point(-5, 3, 4), new Vector(1, 0, 0));
+        assertEquals(20, tree.findGeoIntersections(ray).size(), "Wrong amount of points along a row");
+
+        // TC02: only the points within the distance
+        assertEquals(4, tree.findGeoIntersections(ray, 6.5).size(), "Wrong amount of points within the distance");
+
+        // TC03: no points
+        assertNull(tree.findGeoIntersections(ray, 4), "There are no points within the distance");
+    }
+
+    /**
+     * Test method for {@link geometries.BVHTree#getReport()}.
+     */
+    @Test
+    void testGetReport() {
+        BVHTree tree = new BVHTree(spheresCube(10));
+        BVHTree.Report report = tree.getReport();
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: the counts match the node arrays of the binary tree
+        assertEquals(tree.getNodeData().length / 2, report.nodes(), "Wrong amount of nodes");
+        assertEquals((report.nodes() + 1) / 2, report.leaves(), "A binary tree has a leaf more than inner nodes");
+        assertEquals(tree.getDepth(), report.maxDepth(), "Wrong depth");
+        assertTrue(report.averageDepth() > 1 && report.averageDepth() <= report.maxDepth(), "Wrong average depth");
+        assertEquals(tree.getSAHCost(), report.sahCost(), 1e-10, "Wrong SAH cost");
+
+        // TC02: the histogram covers all the primitives in leaves of at most the leaf size
+        int primitives = 0;
+        int leaves = 0;
+        for (int count = 0; count < report.leafSizes().length; count++) {
+            primitives += count * report.leafSizes()[count];
+            leaves += report.leafSizes()[count];
+        }
+        assertEquals(1000, primitives, "Wrong amount of primitives in the histogram");
+        assertEquals(report.leaves(), leaves, "Wrong amount of leaves in the histogram");
+        assertTrue(report.leafSizes().length <= BVHTree.DEFAULT_LEAF_SIZE + 1, "Leaves larger than the leaf size");
+        assertTrue(report.memory() > 56L * report.nodes(), "The node arrays take 56 bytes per node");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: a single primitive is a root leaf
+        report = new BVHTree(new Geometries(new Sphere(1, new Point(0, 0, 5)))).getReport();
+        assertEquals(1, report.nodes(), "A single primitive must be one node");
+        assertEquals(1, report.averageDepth(), "A root leaf is at level 1");
+        // TC11: empty hierarchy
+        report = new BVHTree(new Geometries()).getReport();
+        assertEquals(0, report.leaves(), "Empty hierarchy must have no leaves");
+        assertEquals(0, report.averageDepth(), "Empty hierarchy must have no depth");
+    }
+
+    /**
+     * Test method for {@link geometries.BVHTree#setCounting(boolean)}.
+     */
+    @Test
+    void testCounters() {
+        BVHTree tree = new BVHTree(spheresCube(10));
+        Ray row = new Ray(new Point(-5, 3, 4), new Vector(1, 0, 0));
+        Ray miss = new Ray(new Point(-5, -5, 0), new Vector(1, 0, 0));
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: nothing is counted unless counting is on
+        tree.findClosestIntersection(row);
+        assertEquals(new BVHTree.Counters(0, 0, 0), tree.getCounters(), "Counting must be off by default");
+
+        // TC02: the closest point along a row tests fewer primitives than all the points along it
+        tree.setCounting(true);
+        tree.findClosestIntersection(row);
+        BVHTree.Counters closest = tree.getCounters();
+        assertEquals(1, closest.rays(), "Wrong amount of rays");
+        assertTrue(closest.nodeVisits() > 0 && closest.primitiveTests() > 0, "The ray must enter nodes and test");
+        tree.resetCounters();
+        tree.findGeoIntersections(row);
+        BVHTree.Counters all = tree.getCounters();
+        assertTrue(all.primitiveTests() >= 10, "All the points need the whole row tested");
+        assertTrue(closest.primitiveTests() < all.primitiveTests(), "The closest point must skip far nodes");
+
+        // TC03: a packet counts all its rays
+        tree.resetCounters();
+        Ray[] rays = new Ray[16];
+        for (int i = 0; i < rays.length; i++)
+            rays[i] = new Ray(new Point(i % 4 + 2, i / 4 + 2, 20), new Vector(0, 0, -1));
+        tree.findClosestIntersections(rays);
+        assertEquals(16, tree.getCounters().rays(), "Wrong amount of rays of a packet");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: a ray which misses the root enters nothing
+        tree.resetCounters();
+        tree.occlusion(miss, 100);
+        assertEquals(0, tree.getCounters().nodeVisits(), "A ray which misses the root must enter nothing");
+        assertEquals(1, tree.getCounters().rays(), "Wrong amount of rays");
+        // TC11: turning counting off resets the counters
+        tree.setCounting(false);
+        tree.findClosestIntersection(row);
+        assertEquals(0, tree.getCounters().nodeVisits(), "Counting must stop");
+    }
+
+    /**
+     * Test method for {@link geometries.BVHTree#setSinglePrecision(boolean)}.
+     */
+    @Test
+    void testSinglePrecision() {
+        // spheres at coordinates which are not floats
+        Geometries geometries = new Geometries();
+        for (int x = 0; x < 8; x++)
+            for (int y = 0; y < 8; y++)
+                for (int z = 0; z < 8; z++)
+                    geometries.add(new Sphere(0.3, new Point(x * 1.1, y * 1.3, z * 0.7)));
+        BVHTree exact = new BVHTree(geometries);
+        BVHTree single = new BVHTree(geometries).setSinglePrecision(true);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: every box is rounded outwards to the nearest float
+        double[] exactBounds = exact.getNodeBounds();
+        double[] singleBounds = single.getNodeBounds();
+        assertTrue(single.isSinglePrecision(), "The boxes must be in single precision");
+        for (int i = 0; i < exactBounds.length; i++) {
+            boolean min = i % 6 < 3;
+            assertTrue(min ? singleBounds[i] <= exactBounds[i] : singleBounds[i] >= exactBounds[i],
+                    "The box must not shrink at " + i);
+            assertEquals((float) singleBounds[i], singleBounds[i], "The side must be a float at " + i);
+            assertTrue(Math.abs(singleBounds[i] - exactBounds[i]) <= Math.ulp((float) exactBounds[i]),
+                    "The side must be rounded to a neighbouring float at " + i);
+        }
+        assertTrue(single.getReport().memory() < exact.getReport().memory(), "Float boxes must take less memory");
+
+        // TC02: the points and the transmittance are those of double precision
+        for (int i = 0; i < 100; i++) {
+            Ray ray = new Ray(new Point(-2, -2, -2), new Vector(1 + Math.sin(i), 1 + Math.cos(i), 1));
+            assertEquals(exact.findClosestIntersection(ray), single.findClosestIntersection(ray),
+                    "Wrong closest point for ray " + i);
+            assertEquals(exact.findGeoIntersections(ray), single.findGeoIntersections(ray), "Wrong points for ray " + i);
+            assertEquals(exact.occlusion(ray, 20), single.occlusion(ray, 20), "Wrong transmittance for ray " + i);
+        }
+
+        // =============== Boundary Values Tests ==================
+        // TC10: a refit keeps the precision, and double precision restores boxes which still bound the primitives
+        single.refit();
+        assertTrue(single.isSinglePrecision(), "A refit must keep single precision");
+        single.setSinglePrecision(false);
+        assertFalse(single.isSinglePrecision(), "The boxes must be back in double precision");
+        assertArrayEquals(singleBounds, single.getNodeBounds(), "Widening must keep the rounded boxes");
+    }
+}
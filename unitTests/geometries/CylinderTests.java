@@ -205,9 +205,33 @@ class CylinderTests {
                 "Ray's line out of cylinder");
     }
 
-}
-
-
-
-
+    /**
+     * Test method for {@link geometries.Cylinder#constructBox()}.
+     */
+    @Test
+    void testConstructBox() {
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: tilted axis - the bases reach radius * sin of the angle to every coordinate axis
+        Cylinder cylinder = new Cylinder(new Ray(new Point(0, 0, 0), new Vector(1, 0, 1)), 1, Math.sqrt(2));
+        cylinder.constructBox();
+        double extent = Math.sqrt(0.5);
+        assertEquals(-extent, cylinder.box.minX, DELTA, "Wrong box minimum x");
+        assertEquals(1 + extent, cylinder.box.maxX, DELTA, "Wrong box maximum x");
+        assertEquals(-1, cylinder.box.minY, DELTA, "Wrong box minimum y");
+        assertEquals(1, cylinder.box.maxY, DELTA, "Wrong box maximum y");
+        assertEquals(-extent, cylinder.box.minZ, DELTA, "Wrong box minimum z");
+        assertEquals(1 + extent, cylinder.box.maxZ, DELTA, "Wrong box maximum z");
+
+        // TC02: a ray which passes the corner of the box misses it
+        assertFalse(cylinder.isIntersectBox(new Ray(new Point(1.9, 0, -1), new Vector(0, 0, 1)), Double.POSITIVE_INFINITY),
+                "The ray should miss the box");
 
+        // =============== Boundary Values Tests ==================
+        // TC10: axis along a coordinate axis - the box is tight around the bases
+        cylinder = new Cylinder(new Ray(new Point(0, 0, 0), new Vector(0, 0, 1)), 1, 5);
+        cylinder.constructBox();
+        assertEquals(-1, cylinder.box.minX, DELTA, "Wrong box minimum x");
+        assertEquals(0, cylinder.box.minZ, DELTA, "Wrong box minimum z");
+        assertEquals(5, cylinder.box.maxZ, DELTA, "Wrong box maximum z");
+    }
+}
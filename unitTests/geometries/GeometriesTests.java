@@ -1,6 +1,8 @@
 package geometries;
 
 import org.junit.jupiter.api.Test;
+import primitives.Double3;
+import primitives.Material;
 import primitives.Point;
 import primitives.Ray;
 import primitives.Vector;
@@ -50,5 +52,98 @@ class GeometriesTests {
         assertEquals(4, geometries.findIntersections(rayAllObjectIntersect).size(),
                 "Suppose to be 4 intersection points");
     }
-}
 
+    /**
+     * Test method for {@link geometries.Geometries#constructBox()}.
+     */
+    @Test
+    void testConstructBox() {
+        Sphere sphere = new Sphere(1, new Point(1, 0, 1));
+        Triangle triangle = new Triangle(new Point(0, 2, 0), new Point(2, 2, 0), new Point(1.5, 2, 2));
+        Geometries geometries = new Geometries(sphere, triangle);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: the box bounds all the geometries
+        geometries.constructBox();
+        assertEquals(-1, geometries.box.minY, 1e-9, "Wrong box minimum y");
+        assertEquals(2, geometries.box.maxY, 1e-9, "Wrong box maximum y");
+        assertFalse(geometries.isIntersectBox(new Ray(new Point(5, 0, 0), new Vector(0, 1, 0)), Double.POSITIVE_INFINITY),
+                "The ray should miss the box");
+
+        // TC02: a ray which misses the box of a geometry still finds the others
+        Ray ray = new Ray(new Point(1, 5, 1), new Vector(0, -1, 0));
+        assertEquals(3, geometries.findIntersections(ray).size(), "Wrong amount of points");
+        assertEquals(1, geometries.findGeoIntersections(ray, 3.5).size(), "Wrong amount of points within the distance");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: an unbounded geometry leaves the collection without a box
+        geometries.add(new Plane(new Point(1, 0, 0), new Vector(0, 0, 1)));
+        geometries.constructBox();
+        assertNull(geometries.box, "A collection with a plane has no box");
+        assertTrue(geometries.isIntersectBox(new Ray(new Point(5, 0, 5), new Vector(0, 0, -1)), Double.POSITIVE_INFINITY),
+                "The plane can always be hit");
+    }
+
+    /**
+     * Test method for {@link geometries.Geometries#findClosestIntersection(Ray, double)}.
+     */
+    @Test
+    void testFindClosestIntersection() {
+        Sphere sphere = new Sphere(1, new Point(0, 0, 5));
+        Triangle triangle = new Triangle(new Point(-2, -2, 2), new Point(2, -2, 2), new Point(0, 2, 2));
+        Plane plane = new Plane(new Point(0, 0, 10), new Vector(0, 0, 1));
+        Geometries geometries = new Geometries(plane, sphere, triangle);
+        geometries.constructBox();
+        Ray ray = new Ray(new Point(0, 0, 0), new Vector(0, 0, 1));
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: several geometries on the ray - the nearest of all of them
+        Intersectable.GeoPoint closest = geometries.findClosestIntersection(ray);
+        assertNotNull(closest, "The ray crosses the geometries");
+        assertEquals(triangle, closest.geometry, "Wrong closest geometry");
+        assertEquals(new Point(0, 0, 2), closest.point, "Wrong closest point");
+        // TC02: tMax before the triangle - nothing
+        assertNull(geometries.findClosestIntersection(ray, 1.5), "No point is nearer than tMax");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: the ray starts after the triangle - the triangle behind it is skipped
+        closest = geometries.findClosestIntersection(new Ray(new Point(0, 0, 3), new Vector(0, 0, 1)));
+        assertNotNull(closest, "The ray crosses the sphere");
+        assertEquals(new Point(0, 0, 4), closest.point, "Wrong closest point after the triangle");
+    }
+
+    /**
+     * Test method for {@link geometries.Intersectable#occlusion(Ray, double)}.
+     */
+    @Test
+    void testOcclusion() {
+        Sphere glass = new Sphere(1, new Point(0, 0, 3));
+        glass.setMaterial(new Material().setKt(0.5));
+        Triangle wall = new Triangle(new Point(-2, -2, 6), new Point(2, -2, 6), new Point(0, 2, 6));
+        Geometries geometries = new Geometries(glass, wall);
+        geometries.constructBox();
+        Ray ray = new Ray(new Point(0, 0, 0), new Vector(0, 0, 1));
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: the light crosses both sides of a transparent sphere
+        assertEquals(new Double3(0.25), geometries.occlusion(ray, 5), "Wrong transmittance through the sphere");
+        // TC02: an opaque triangle blocks the light
+        assertEquals(Double3.ZERO, geometries.occlusion(ray, 10), "The triangle must block the light");
+        // TC03: nothing between the point and the light
+        assertEquals(Double3.ONE, geometries.occlusion(new Ray(new Point(5, 0, 0), new Vector(0, 0, 1)), 10),
+                "Nothing blocks the light");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: the light is inside the sphere - only the entry point attenuates it
+        assertEquals(new Double3(0.5), geometries.occlusion(ray, 3), "Wrong transmittance to a light inside the sphere");
+        // TC11: many transparent hits fall below the minimum transmittance - the light is blocked
+        glass.setMaterial(new Material().setKt(0.01));
+        assertEquals(Double3.ZERO, geometries.occlusion(ray, 5), "A very dense sphere must block the light");
+        // TC12: an opaque triangle exactly at the distance of the light blocks it, like findGeoIntersections counts it
+        assertEquals(Double3.ZERO, wall.occlusion(ray, 6), "A wall at the light must block it");
+        assertEquals(Double3.ZERO, wall.occlusion(ray, Math.nextDown(6.0)),
+                "A wall within the accuracy beyond the light must block it");
+        // TC13: an opaque triangle beyond the light does not block it
+        assertEquals(Double3.ONE, wall.occlusion(ray, 5.999), "A wall beyond the light must not block it");
+    }
+}
@@ -0,0 +1,79 @@
+package geometries;
+
+import org.junit.jupiter.api.Test;
+import primitives.*;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the Instance class.
+ */
+class InstanceTests {
+
+    /**
+     * Test method for {@link geometries.Instance#findGeoIntersections(Ray, double)}.
+     */
+    @Test
+    void testFindGeoIntersections() {
+        Sphere sphere = new Sphere(1, Point.ZERO);
+        sphere.setMaterial(new Material().setKd(0.5));
+        BVHTree shape = new BVHTree(new Geometries(sphere));
+        Instance instance = new Instance(shape,
+                Transform.scaling(2).then(Transform.translation(new Vector(10, 0, 0))));
+        Ray ray = new Ray(new Point(10, 0, 10), new Vector(0, 0, -1));
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: the ray crosses the scaled and moved sphere
+        List<Intersectable.GeoPoint> hits = instance.findGeoIntersections(ray);
+        assertEquals(2, hits.size(), "Wrong amount of points");
+        Intersectable.GeoPoint first = ray.findClosestGeoPoint(hits);
+        assertEquals(0, first.point.distance(new Point(10, 0, 2)), 1e-9, "Wrong point on the instance");
+        assertEquals(new Vector(0, 0, 1), first.geometry.getNormal(first.point), "Wrong normal of the instance");
+
+        // TC02: the distance is measured in the world space
+        assertEquals(1, instance.findGeoIntersections(ray, 9).size(), "Wrong amount of points within the distance");
+        assertNull(instance.findGeoIntersections(ray, 7), "There are no points within the distance");
+
+        // TC03: the material of the shape is kept unless it is overridden
+        assertEquals(sphere.getMaterial(), first.geometry.getMaterial(), "The material of the shape is kept");
+        Material material = new Material().setKd(0.1);
+        instance.setMaterial(material);
+        assertEquals(material, ray.findClosestGeoPoint(instance.findGeoIntersections(ray)).geometry.getMaterial(),
+                "The material of the instance overrides the shape");
+
+        // TC04: the ray misses the instance although it crosses the shape in its object space
+        assertNull(instance.findGeoIntersections(new Ray(new Point(0, 0, 10), new Vector(0, 0, -1))),
+                "The ray misses the instance");
+    }
+
+    /**
+     * Test method for {@link geometries.Instance#constructBox()}.
+     */
+    @Test
+    void testConstructBox() {
+        BVHTree shape = new BVHTree(new Geometries(new Sphere(1, Point.ZERO)));
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: the box of a rotated shape bounds all of its transformed corners
+        Instance instance = new Instance(shape, Transform.rotation(new Vector(0, 0, 1), 45));
+        instance.constructBox();
+        assertEquals(Math.sqrt(2), instance.box.maxX, 1e-9, "Wrong box of a rotated instance");
+        assertEquals(1, instance.box.maxZ, 1e-9, "Wrong box of a rotated instance");
+
+        // TC02: many instances of one shape under a top-level hierarchy
+        Geometries field = new Geometries();
+        for (int i = 0; i < 100; i++)
+            field.add(new Instance(shape, Transform.translation(3 * (i % 10), 3 * (i / 10), 0)));
+        BVHTree top = new BVHTree(field);
+        Ray ray = new Ray(new Point(12, 21, 10), new Vector(0, 0, -1));
+        assertEquals(new Point(12, 21, 1), top.findClosestIntersection(ray).point, "Wrong closest instance");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: an instance of an unbounded shape is unbounded
+        Instance plane = new Instance(new Plane(Point.ZERO, new Vector(0, 0, 1)), Transform.IDENTITY);
+        plane.constructBox();
+        assertNull(plane.box, "An instance of an unbounded shape has no box");
+    }
+}
@@ -0,0 +1,229 @@
+package geometries;
+
+import geometries.AcceleratorFixtures.CountingSphere;
+import org.junit.jupiter.api.Test;
+import primitives.Double3;
+import primitives.Material;
+import primitives.Point;
+import primitives.Ray;
+import primitives.Vector;
+
+import static geometries.AcceleratorFixtures.assertSameClosestPoints;
+import static geometries.AcceleratorFixtures.assertSameShadowRays;
+import static geometries.AcceleratorFixtures.spheresCube;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the KdTree class.
+ */
+class KdTreeTests {
+
+    /**
+     * Test method for {@link geometries.KdTree#KdTree(Geometries)}.
+     */
+    @Test
+    void testConstructor() {
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: the SAH splits separate the spheres of a cube into small leaves
+        KdTree tree = new KdTree(spheresCube(10));
+        assertTrue(tree.getSize() > 1000, "The spheres must be split into small leaves");
+
+        // TC02: primitives in the same place cannot be split - the tree stays a single leaf
+        Geometries same = new Geometries();
+        for (int i = 0; i < 100; i++)
+            same.add(new Sphere(1, new Point(1, 1, 1)));
+        KdTree sameTree = new KdTree(same);
+        assertEquals(1, sameTree.getSize(), "Identical primitives must stay in one leaf");
+        assertEquals(200, sameTree.findGeoIntersections(new Ray(new Point(1, 1, -5), new Vector(0, 0, 1))).size(),
+                "Wrong amount of points for identical primitives");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: empty geometries
+        assertEquals(0, new KdTree(new Geometries()).getSize(), "Empty tree must have no nodes");
+        assertNull(new KdTree(new Geometries()).findClosestIntersection(new Ray(Point.ZERO, new Vector(1, 0, 0))),
+                "Empty tree has no intersections");
+    }
+
+    /**
+     * Test method for {@link geometries.KdTree#findClosestIntersection(Ray)}.
+     */
+    @Test
+    void testFindClosestIntersection() {
+        Geometries geometries = spheresCube(10);
+        Plane plane = new Plane(new Point(0, 0, -5), new Vector(0, 0, 1));
+        geometries.add(plane);
+        KdTree kdTree = new KdTree(geometries);
+        BVHTree tree = new BVHTree(geometries);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: ray along a row of spheres from outside - the first sphere of the row
+        Ray ray = new Ray(new Point(-5, 3, 4), new Vector(1, 0, 0));
+        assertEquals(new Point(-0.4, 3, 4), kdTree.findClosestIntersection(ray).point, "Wrong closest point along a row");
+
+        // TC02: rays in many directions get the same closest point as the hierarchy
+        assertSameClosestPoints(tree, kdTree, 100, "kd-tree");
+
+        // TC03: ray which misses the spheres hits the unbounded plane
+        ray = new Ray(new Point(-5, -5, 20), new Vector(0, 0.1, -1));
+        assertEquals(plane, kdTree.findClosestIntersection(ray).geometry, "The plane should be hit");
+
+        // TC04: ray which misses everything
+        ray = new Ray(new Point(-5, -5, 20), new Vector(0, 0.1, 1));
+        assertNull(kdTree.findClosestIntersection(ray), "The ray should miss all the geometries");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: ray from inside a sphere
+        ray = new Ray(new Point(3, 3, 3), new Vector(0, 0, 1));
+        assertEquals(new Point(3, 3, 3.4), kdTree.findClosestIntersection(ray).point, "Wrong closest point from inside");
+        // TC11: ray along the split planes
+        ray = new Ray(new Point(2, -5, 2), new Vector(0, 1, 0));
+        assertEquals(new Point(2, -0.4, 2), kdTree.findClosestIntersection(ray).point, "Wrong closest point along a split plane");
+    }
+
+    /**
+     * Test method for {@link geometries.KdTree#findGeoIntersections(Ray, double)}.
+     */
+    @Test
+    void testFindGeoIntersections() {
+        Geometries geometries = spheresCube(10);
+        Sphere big = new Sphere(3, new Point(20, 20, 20));
+        geometries.add(big);
+        KdTree kdTree = new KdTree(geometries);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: all the points along a row
+        Ray ray = new Ray(new Point(-5, 3, 4), new Vector(1, 0, 0));
+        assertEquals(20, kdTree.findGeoIntersections(ray).size(), "Wrong amount of points along a row");
+
+        // TC02: only the points within the distance
+        assertEquals(4, kdTree.findGeoIntersections(ray, 6.5).size(), "Wrong amount of points within the distance");
+
+        // TC03: a sphere over many cells is tested once
+        ray = new Ray(new Point(20, 20, 40), new Vector(0, 0, -1));
+        assertEquals(2, kdTree.findGeoIntersections(ray).size(), "A sphere over many cells must be tested once");
+
+        // TC04: no points
+        assertNull(kdTree.findGeoIntersections(new Ray(new Point(-5, 3, 4), new Vector(1, 0, 0)), 4),
+                "There are no points within the distance");
+    }
+
+    /**
+     * Test method for the split planes of {@link geometries.KdTree#findGeoIntersections(Ray)}
+     * and the early termination of its queries.
+     */
+    @Test
+    void testSplitPlanes() {
+        // two clusters of spheres with a gap between them, and a big sphere over both clusters and the gap,
+        // so the split planes between the clusters cut through the big sphere
+        Geometries geometries = new Geometries();
+        for (int x = 0; x < 4; x++)
+            for (int y = 0; y < 4; y++)
+                for (int z = 0; z < 4; z++) {
+                    geometries.add(new Sphere(0.4, new Point(x, y, z)));
+                    geometries.add(new Sphere(0.4, new Point(x + 8, y, z)));
+                }
+        CountingSphere straddling = new CountingSphere(3, new Point(5.5, 1.5, 1.5));
+        geometries.add(straddling);
+        KdTree kdTree = new KdTree(geometries);
+        assertTrue(kdTree.getSize() > 1, "The clusters must be split");
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: a primitive on both sides of split planes is found from every side, and tested once per ray
+        // the rays pass between the rows of the clusters
+        Ray along = new Ray(new Point(-5, 1.5, 1.5), new Vector(1, 0, 0));
+        assertEquals(2, kdTree.findGeoIntersections(along).size(), "Wrong amount of points of the straddling sphere");
+        assertEquals(1, straddling.tests, "The straddling sphere must be tested once");
+        assertEquals(new Point(2.5, 1.5, 1.5), kdTree.findClosestIntersection(along).point,
+                "Wrong point entering the straddling sphere from the left");
+        Ray back = new Ray(new Point(15, 1.5, 1.5), new Vector(-1, 0, 0));
+        assertEquals(new Point(8.5, 1.5, 1.5), kdTree.findClosestIntersection(back).point,
+                "Wrong point entering the straddling sphere from the right");
+
+        // TC02: the closest point query stops in the first cell with a point, the far cluster is not tested
+        Geometries row = new Geometries();
+        CountingSphere[] spheres = new CountingSphere[20];
+        for (int i = 0; i < spheres.length; i++) {
+            spheres[i] = new CountingSphere(0.4, new Point(2 * i, 0, 0));
+            row.add(spheres[i], new Sphere(0.4, new Point(2 * i, 3, 0)));
+        }
+        KdTree rowTree = new KdTree(row);
+        Ray ray = new Ray(new Point(-5, 0, 0), new Vector(1, 0, 0));
+        assertSame(spheres[0], rowTree.findClosestIntersection(ray).geometry, "The first sphere of the row must be hit");
+        assertTrue(tests(spheres) < spheres.length / 2, "The far spheres of the row must not be tested");
+
+        // TC03: the shadow query stops at the first opaque sphere
+        for (CountingSphere sphere : spheres)
+            sphere.tests = 0;
+        assertEquals(Double3.ZERO, rowTree.occlusion(ray, 100), "The row must block the light");
+        assertTrue(tests(spheres) < spheres.length / 2, "The shadow query must stop at the first sphere");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: a ray lying in a split plane between two rows, which touches none of them
+        assertNull(rowTree.findClosestIntersection(new Ray(new Point(-5, 1.5, 0), new Vector(1, 0, 0))),
+                "The ray between the rows must miss");
+        // TC11: a transparent first sphere does not stop the shadow query
+        for (CountingSphere sphere : spheres)
+            sphere.tests = 0;
+        spheres[0].setMaterial(new Material().setKt(0.5));
+        assertEquals(Double3.ZERO, rowTree.occlusion(ray, 100), "The second sphere must block the light");
+        assertTrue(spheres[1].tests > 0, "The query must go on behind a transparent sphere");
+    }
+
+    /**
+     * Sums the ray tests of spheres
+     *
+     * @param spheres the spheres
+     * @return the total amount of tests
+     */
+    private static int tests(CountingSphere[] spheres) {
+        int total = 0;
+        for (CountingSphere sphere : spheres)
+            total += sphere.tests;
+        return total;
+    }
+
+    /**
+     * Test method for {@link geometries.KdTree#refit()}.
+     */
+    @Test
+    void testRefit() {
+        Sphere sphere = new Sphere(0.4, new Point(0, 0, 0));
+        Geometries geometries = spheresCube(5);
+        geometries.add(sphere);
+        KdTree kdTree = new KdTree(geometries);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: a sphere moved out of the bounds is found after the refit
+        sphere.setCenter(new Point(10, 2, 2));
+        assertTrue(kdTree.refit(), "The tree is always rebuilt");
+        Ray ray = new Ray(new Point(20, 2, 2), new Vector(-1, 0, 0));
+        assertEquals(sphere, kdTree.findClosestIntersection(ray).geometry, "The moved sphere should be hit");
+    }
+
+    /**
+     * Test method for {@link geometries.KdTree#occlusion(Ray, double)}.
+     */
+    @Test
+    void testOcclusion() {
+        Geometries geometries = spheresCube(6);
+        // every other sphere is transparent
+        int n = 0;
+        for (Intersectable g : geometries.geometries)
+            if (n++ % 2 == 0)
+                ((Sphere) g).setMaterial(new Material().setKt(0.8));
+        KdTree kdTree = new KdTree(geometries);
+        UniformGrid grid = new UniformGrid(geometries);
+        BVHTree tree = new BVHTree(geometries);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: shadow rays in many directions get the same points and transmittance from all the structures
+        assertSameShadowRays(geometries, kdTree, "kd-tree");
+        assertSameShadowRays(geometries, grid, "grid");
+        assertSameShadowRays(geometries, tree, "hierarchy");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: a ray along a row of transparent spheres which stops inside the first one
+        Ray ray = new Ray(new Point(-5, 0, 0), new Vector(1, 0, 0));
+        assertEquals(new Double3(0.8), kdTree.occlusion(ray, 5), "Only the entry point is before the light");
+    }
+}
@@ -0,0 +1,180 @@
+package geometries;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import primitives.Material;
+import primitives.Point;
+import primitives.Ray;
+import primitives.Vector;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the OffHeapMesh class.
+ */
+class OffHeapMeshTests {
+
+    /**
+     * Builds a single precision mesh of a wavy height field
+     *
+     * @param side the amount of vertices along each axis
+     * @return the mesh
+     */
+    private static TriangleMesh heightField(int side) {
+        float[] positions = new float[3 * side * side];
+        for (int y = 0; y < side; y++)
+            for (int x = 0; x < side; x++) {
+                int v = 3 * (y * side + x);
+                positions[v] = x * 0.5f;
+                positions[v + 1] = y * 0.5f;
+                positions[v + 2] = (float) (Math.sin(x * 0.4) * Math.cos(y * 0.3));
+            }
+        int[] indices = new int[6 * (side - 1) * (side - 1)];
+        int k = 0;
+        for (int y = 0; y < side - 1; y++)
+            for (int x = 0; x < side - 1; x++) {
+                int v = y * side + x;
+                indices[k++] = v;
+                indices[k++] = v + 1;
+                indices[k++] = v + side;
+                indices[k++] = v + 1;
+                indices[k++] = v + side + 1;
+                indices[k++] = v + side;
+            }
+        return new TriangleMesh(positions, indices);
+    }
+
+    /**
+     * Test method for {@link geometries.OffHeapMesh#OffHeapMesh(TriangleMesh, Arena)}.
+     */
+    @Test
+    void testConstructor() {
+        TriangleMesh mesh = heightField(30);
+        Material material = new Material().setKd(0.4);
+        mesh.setMaterial(material);
+        // the hierarchy constructs the boxes of its primitives on several threads
+        try (Arena arena = Arena.ofShared()) {
+            OffHeapMesh offHeap = new OffHeapMesh(mesh, arena);
+
+            // ============ Equivalence Partitions Tests ==============
+            // TC01: the off-heap copy finds the points and the normals of the mesh
+            assertEquals(mesh.size(), offHeap.size(), "Wrong amount of triangles");
+            assertSame(material, offHeap.getMaterial(), "The copy must take the material of the mesh");
+            Random random = new Random(3);
+            for (int i = 0; i < 200; i++) {
+                Ray ray = new Ray(new Point(random.nextDouble() * 14, random.nextDouble() * 14, 5),
+                        new Vector(random.nextDouble() - 0.5, random.nextDouble() - 0.5, -1));
+                var expected = mesh.findClosestIntersection(ray);
+                var found = offHeap.findClosestIntersection(ray);
+                assertEquals(expected == null ? null : expected.point, found == null ? null : found.point,
+                        "Wrong closest point for ray " + i);
+                if (found != null) {
+                    assertEquals(expected.geometry.getNormal(expected.point), found.geometry.getNormal(found.point),
+                            "Wrong normal for ray " + i);
+                    assertSame(material, found.geometry.getMaterial(), "The point must have the material of the mesh");
+                }
+                assertEquals(mesh.findIntersections(ray) == null ? 0 : mesh.findIntersections(ray).size(),
+                        offHeap.findIntersections(ray) == null ? 0 : offHeap.findIntersections(ray).size(),
+                        "Wrong amount of points for ray " + i);
+            }
+
+            // TC02: the mesh is one primitive of a hierarchy with other geometries
+            Sphere sphere = new Sphere(1, new Point(7, 7, 3));
+            BVHTree tree = new BVHTree(new Geometries(offHeap, sphere));
+            assertEquals(2, tree.getPrimitives().length, "The off-heap mesh must be a single primitive");
+            Ray ray = new Ray(new Point(7, 7, 10), new Vector(0, 0, -1));
+            assertSame(sphere, tree.findClosestIntersection(ray).geometry, "The sphere is in front of the mesh");
+            ray = new Ray(new Point(3.1, 4.2, 10), new Vector(0, 0, -1));
+            assertEquals(mesh.findClosestIntersection(ray).point, tree.findClosestIntersection(ray).point,
+                    "Wrong point of the mesh through the hierarchy");
+
+            // =============== Boundary Values Tests ==================
+            // TC10: an empty mesh has no box and no points
+            OffHeapMesh empty = new OffHeapMesh(new TriangleMesh(new float[0], new int[0]), arena);
+            empty.constructBox();
+            assertNull(empty.box, "An empty mesh has no box");
+            assertNull(empty.findClosestIntersection(ray), "An empty mesh has no points");
+        }
+    }
+
+    /**
+     * Test method for {@link geometries.OffHeapMesh#map(Path, Arena)}.
+     *
+     * @param directory a temporary directory for the mesh file
+     * @throws IOException if the file cannot be written or mapped
+     */
+    @Test
+    void testMap(@TempDir Path directory) throws IOException {
+        TriangleMesh mesh = heightField(20);
+        Path file = directory.resolve("mesh.bin");
+        try (Arena arena = Arena.ofConfined()) {
+            new OffHeapMesh(mesh, arena).write(file);
+        }
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: the mapped file finds the points of the mesh after the arena it was written from is closed
+        Ray ray = new Ray(new Point(2.3, 3.4, 5), new Vector(0.1, 0.05, -1));
+        OffHeapMesh mapped;
+        try (Arena arena = Arena.ofConfined()) {
+            mapped = OffHeapMesh.map(file, arena);
+            assertEquals(Files.size(file), mapped.byteSize(), "The whole file must be mapped");
+            assertEquals(mesh.findClosestIntersection(ray).point, mapped.findClosestIntersection(ray).point,
+                    "Wrong point through the mapped file");
+            assertEquals(mapped.findClosestIntersection(ray), mapped.findClosestIntersection(ray),
+                    "The points of a triangle must be equal");
+        }
+
+        // =============== Boundary Values Tests ==================
+        // TC10: the mesh cannot be used after its arena is closed
+        assertThrows(IllegalStateException.class, () -> mapped.findClosestIntersection(ray),
+                "A closed mapping must not be read");
+        // TC11: a triangle with a vertex beyond the vertices
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        int vertices = bytes.getInt(4);
+        int triangles = bytes.getInt(8);
+        int indices = 32 + 12 * vertices;
+        int nodes = indices + 12 * triangles;
+        assertDamaged(directory, bytes, indices + 8, vertices, "A vertex beyond the vertices must not be mapped");
+        assertDamaged(directory, bytes, indices, -1, "A negative vertex must not be mapped");
+        // TC12: a header depth smaller than the tree would overflow the traversal stacks
+        assertDamaged(directory, bytes, 16, 1, "A wrong depth must not be mapped");
+        // TC13: the left child of the root sharing the right child of the root
+        assertEquals(0, bytes.getInt(nodes + 32 + 28), "The left child of the root must be an inner node");
+        assertDamaged(directory, bytes, nodes + 32 + 24, bytes.getInt(nodes + 24),
+                "A child reached twice must not be mapped");
+        // TC14: a damaged file is not a mesh
+        Files.write(file, new byte[64]);
+        try (Arena arena = Arena.ofConfined()) {
+            assertThrows(IllegalArgumentException.class, () -> OffHeapMesh.map(file, arena),
+                    "A damaged file must not be mapped");
+        }
+    }
+
+    /**
+     * Asserts that a file with one integer of a written mesh changed is not mapped
+     *
+     * @param directory the directory to write the damaged file in
+     * @param bytes     the bytes of the written mesh, left unchanged
+     * @param offset    the offset of the changed integer
+     * @param value     the value written at the offset
+     * @param message   the message of the failure
+     * @throws IOException if the damaged file cannot be written
+     */
+    private static void assertDamaged(Path directory, ByteBuffer bytes, int offset, int value, String message)
+            throws IOException {
+        ByteBuffer damaged = ByteBuffer.wrap(bytes.array().clone()).order(ByteOrder.LITTLE_ENDIAN);
+        damaged.putInt(offset, value);
+        Path file = Files.write(directory.resolve("damaged.bin"), damaged.array());
+        try (Arena arena = Arena.ofConfined()) {
+            assertThrows(IllegalArgumentException.class, () -> OffHeapMesh.map(file, arena), message);
+        }
+    }
+}
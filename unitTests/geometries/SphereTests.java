@@ -173,4 +173,31 @@ public class SphereTests {
                 "Ray's line out of sphere");
    }
 
+   /**
+    * Test method for {@link geometries.Sphere#findClosestIntersection(Ray, double)}.
+    */
+   @Test
+   void testFindClosestIntersection() {
+       Sphere sphere = new Sphere(1d, p100);
+       // ============ Equivalence Partitions Tests ==============
+       // TC01: Ray crosses the sphere - only the nearer point
+       Intersectable.GeoPoint closest = sphere.findClosestIntersection(new Ray(new Point(-1, 0, 0), new Vector(1, 0, 0)));
+       assertNotNull(closest, "Ray crosses the sphere");
+       assertEquals(new Point(0, 0, 0), closest.point, "Wrong closest point");
+       // TC02: Ray starts inside the sphere - the point in front of the head
+       closest = sphere.findClosestIntersection(new Ray(new Point(0.5, 0, 0), new Vector(1, 0, 0)));
+       assertNotNull(closest, "Ray starts inside the sphere");
+       assertEquals(new Point(2, 0, 0), closest.point, "Wrong point from inside");
+       // TC03: Ray misses the sphere
+       assertNull(sphere.findClosestIntersection(new Ray(p001, new Vector(1, 1, 0))), "Ray's line out of sphere");
+
+       // =============== Boundary Values Tests ==================
+       // TC10: the nearer point is exactly at tMax - it must be strictly nearer
+       assertNull(sphere.findClosestIntersection(new Ray(new Point(-1, 0, 0), new Vector(1, 0, 0)), 1),
+               "The point at tMax is not nearer than tMax");
+       // TC11: the nearer point is just before tMax
+       assertNotNull(sphere.findClosestIntersection(new Ray(new Point(-1, 0, 0), new Vector(1, 0, 0)), 1.5),
+               "The point before tMax is found");
+   }
+
 }
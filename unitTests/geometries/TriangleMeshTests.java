@@ -0,0 +1,175 @@
+package geometries;
+
+import org.junit.jupiter.api.Test;
+import primitives.Color;
+import primitives.Material;
+import primitives.Point;
+import primitives.Ray;
+import primitives.Vector;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the TriangleMesh class.
+ */
+class TriangleMeshTests {
+
+    /**
+     * A square in the plane z = 0 from (0,0) to (2,2), split into two triangles along its diagonal
+     */
+    private final Point[] square = {new Point(0, 0, 0), new Point(2, 0, 0), new Point(2, 2, 0), new Point(0, 2, 0)};
+    /**
+     * The triangles of the square
+     */
+    private final int[] squareIndices = {0, 1, 2, 0, 2, 3};
+
+    /**
+     * Test method for {@link geometries.TriangleMesh#TriangleMesh(Point[], int[])}.
+     */
+    @Test
+    void testConstructor() {
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: a correct mesh
+        assertEquals(2, new TriangleMesh(square, squareIndices).size(), "Wrong amount of triangles");
+        // TC02: an index which is not a vertex
+        assertThrows(IllegalArgumentException.class, () -> new TriangleMesh(square, new int[]{0, 1, 4}),
+                "Index out of the vertices must throw");
+        // TC03: a triangle without area
+        assertThrows(IllegalArgumentException.class, () -> new TriangleMesh(square, new int[]{0, 1, 1}),
+                "Degenerate triangle must throw");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: the indices are not whole triangles
+        assertThrows(IllegalArgumentException.class, () -> new TriangleMesh(square, new int[]{0, 1, 2, 3}),
+                "Partial triangle must throw");
+        // TC11: the positions are not whole vertices
+        assertThrows(IllegalArgumentException.class, () -> new TriangleMesh(new double[]{0, 0, 0, 1}, new int[0]),
+                "Partial vertex must throw");
+    }
+
+    /**
+     * Test method for {@link geometries.TriangleMesh#findGeoIntersections(Ray)}.
+     */
+    @Test
+    void testFindGeoIntersections() {
+        Material material = new Material().setKd(0.5);
+        Color emission = new Color(10, 20, 30);
+        TriangleMesh mesh = (TriangleMesh) new TriangleMesh(square, squareIndices)
+                .setEmission(emission).setMaterial(material);
+        Vector down = new Vector(0, 0, -1);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: a ray through the second triangle hits it, with the look of the mesh
+        var points = mesh.findGeoIntersections(new Ray(new Point(0.5, 1.5, 1), down));
+        assertEquals(1, points.size(), "Wrong amount of points");
+        assertEquals(new Point(0.5, 1.5, 0), points.get(0).point, "Wrong point");
+        assertSame(mesh.getFaces()[1], points.get(0).geometry, "The point must be on the second triangle");
+        assertSame(material, points.get(0).geometry.getMaterial(), "The triangle must have the material of the mesh");
+        assertSame(emission, points.get(0).geometry.getEmission(), "The triangle must have the emission of the mesh");
+        assertEquals(new Vector(0, 0, 1), points.get(0).geometry.getNormal(points.get(0).point), "Wrong normal");
+        // TC02: a ray beside the mesh
+        assertNull(mesh.findGeoIntersections(new Ray(new Point(3, 1, 1), down)), "The ray must miss");
+        // TC03: the normal of a point on the mesh itself
+        assertEquals(new Vector(0, 0, 1), mesh.getNormal(new Point(1.5, 0.5, 0)), "Wrong mesh normal");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: like a triangle, the shared edge is not intersected
+        assertNull(mesh.findGeoIntersections(new Ray(new Point(1, 1, 1), down)), "The edge must not be hit");
+        // TC11: the point is beyond the maximum distance
+        assertNull(mesh.findClosestIntersection(new Ray(new Point(0.5, 1.5, 1), down), 0.5),
+                "The point is too far");
+        // TC12: the normal of a point off the mesh
+        assertThrows(IllegalArgumentException.class, () -> mesh.getNormal(new Point(1, 1, 1)),
+                "A point off the mesh has no normal");
+    }
+
+    /**
+     * Test method for the triangles of a mesh in the acceleration structures.
+     */
+    @Test
+    void testAccelerators() {
+        // a random soup of triangles, both as a mesh and as triangles
+        Random random = new Random(5);
+        int count = 300;
+        double[] positions = new double[9 * count];
+        int[] indices = new int[3 * count];
+        Geometries triangles = new Geometries();
+        for (int i = 0; i < count; i++) {
+            Point a = new Point(random.nextDouble() * 10, random.nextDouble() * 10, random.nextDouble() * 10);
+            Point b = a.add(new Vector(random.nextDouble() - 0.5, random.nextDouble() - 0.5, random.nextDouble()));
+            Point c = a.add(new Vector(random.nextDouble(), random.nextDouble() - 0.5, random.nextDouble() - 0.5));
+            Point[] vertices = {a, b, c};
+            for (int k = 0; k < 3; k++) {
+                positions[9 * i + 3 * k] = vertices[k].getX();
+                positions[9 * i + 3 * k + 1] = vertices[k].getY();
+                positions[9 * i + 3 * k + 2] = vertices[k].getZ();
+                indices[3 * i + k] = 3 * i + k;
+            }
+            triangles.add(new Triangle(a, b, c));
+        }
+        TriangleMesh mesh = new TriangleMesh(positions, indices);
+        Geometries meshGeometries = new Geometries(mesh);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: the mesh and the structures over its triangles find the points of the separate triangles
+        BVHTree tree = new BVHTree(meshGeometries);
+        BVHTree spatial = new BVHTree(meshGeometries, BVHTree.BuildMode.SPATIAL);
+        assertEquals(count, tree.getPrimitives().length, "The structure must hold the triangles of the mesh");
+        for (int i = 0; i < 200; i++) {
+            Ray ray = new Ray(new Point(5, 5, 20), new Vector(Math.cos(i) * 0.6, Math.sin(i) * 0.6, -1));
+            var expected = triangles.findGeoIntersections(ray);
+            int amount = expected == null ? 0 : expected.size();
+            Point closest = expected == null ? null : ray.findClosestGeoPoint(expected).point;
+            var points = mesh.findGeoIntersections(ray);
+            assertEquals(amount, points == null ? 0 : points.size(), "Wrong amount of points for ray " + i);
+            points = tree.findGeoIntersections(ray);
+            assertEquals(amount, points == null ? 0 : points.size(), "Wrong amount of tree points for ray " + i);
+            var found = mesh.findClosestIntersection(ray);
+            assertEquals(closest, found == null ? null : found.point, "Wrong closest point for ray " + i);
+            found = tree.findClosestIntersection(ray);
+            assertEquals(closest, found == null ? null : found.point, "Wrong tree closest point for ray " + i);
+            found = spatial.findClosestIntersection(ray);
+            assertEquals(closest, found == null ? null : found.point, "Wrong spatial closest point for ray " + i);
+        }
+
+        // =============== Boundary Values Tests ==================
+        // TC10: an empty mesh has no box and no points
+        TriangleMesh empty = new TriangleMesh(new double[0], new int[0]);
+        empty.constructBox();
+        assertNull(empty.box, "An empty mesh has no box");
+        assertNull(empty.findGeoIntersections(new Ray(new Point(0, 0, 1), new Vector(0, 0, -1))),
+                "An empty mesh has no points");
+    }
+
+    /**
+     * Test method for {@link geometries.TriangleMesh#TriangleMesh(float[], int[])}.
+     */
+    @Test
+    void testSinglePrecision() {
+        float[] positions = {0, 0, 0, 2, 0, 0, 2, 2, 0, 0, 2, 0};
+        TriangleMesh single = new TriangleMesh(positions, squareIndices);
+        TriangleMesh exact = new TriangleMesh(square, squareIndices);
+        positions[0] = 5;
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: positions which are floats give exactly the points and normals of double precision,
+        // and the mesh does not change with the array
+        assertTrue(single.isSinglePrecision(), "The mesh must keep single precision");
+        for (int i = 0; i < 20; i++) {
+            Ray ray = new Ray(new Point(0.1 * i, 0.07 * i, 1), new Vector(0.01, 0.02, -1));
+            assertEquals(exact.findIntersections(ray), single.findIntersections(ray), "Wrong points for ray " + i);
+            var point = single.findClosestIntersection(ray);
+            if (point != null)
+                assertEquals(new Vector(0, 0, 1), point.geometry.getNormal(point.point), "Wrong normal for ray " + i);
+        }
+
+        // =============== Boundary Values Tests ==================
+        // TC10: positions which are not floats are rounded once, and the points are exactly on the rounded triangle
+        TriangleMesh rounded = new TriangleMesh(new float[]{0.1f, 0, 0.3f, 2.1f, 0, 0.3f, 0.1f, 2.1f, 0.3f},
+                new int[]{0, 1, 2});
+        var points = rounded.findGeoIntersections(new Ray(new Point(0.5, 0.5, 1), new Vector(0, 0, -1)));
+        assertEquals(new Point(0.5, 0.5, (double) 0.3f), points.get(0).point, "The point must be on the float plane");
+    }
+}
@@ -0,0 +1,183 @@
+package geometries;
+
+import geometries.AcceleratorFixtures.CountingSphere;
+import org.junit.jupiter.api.Test;
+import primitives.Double3;
+import primitives.Point;
+import primitives.Ray;
+import primitives.Vector;
+
+import static geometries.AcceleratorFixtures.assertSameClosestPoints;
+import static geometries.AcceleratorFixtures.spheresCube;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the UniformGrid class.
+ */
+class UniformGridTests {
+
+    /**
+     * Test method for {@link geometries.UniformGrid#UniformGrid(Geometries, double)}.
+     */
+    @Test
+    void testConstructor() {
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: a cube of 1000 spheres gets 3 cells per sphere along every axis
+        assertArrayEquals(new int[]{30, 30, 30}, new UniformGrid(spheresCube(10)).getResolution(),
+                "Wrong resolution of a cube");
+
+        // TC02: a flat scene gets a single layer of cells
+        Geometries flat = new Geometries();
+        for (int x = 0; x < 20; x++)
+            for (int z = 0; z < 20; z++)
+                flat.add(new Triangle(new Point(x, 0, z), new Point(x + 1, 0, z), new Point(x, 0, z + 1)));
+        int[] resolution = new UniformGrid(flat, 1).getResolution();
+        assertEquals(1, resolution[1], "A flat scene must have one layer of cells");
+        assertEquals(resolution[0], resolution[2], "Wrong resolution of a flat scene");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: density which is not positive
+        assertThrows(IllegalArgumentException.class, () -> new UniformGrid(flat, 0),
+                "Density must be positive");
+        // TC11: empty geometries
+        assertArrayEquals(new int[]{0, 0, 0}, new UniformGrid(new Geometries()).getResolution(),
+                "Empty grid must have no cells");
+        assertNull(new UniformGrid(new Geometries()).findClosestIntersection(new Ray(Point.ZERO, new Vector(1, 0, 0))),
+                "Empty grid has no intersections");
+    }
+
+    /**
+     * Test method for {@link geometries.UniformGrid#findClosestIntersection(Ray)}.
+     */
+    @Test
+    void testFindClosestIntersection() {
+        Geometries geometries = spheresCube(10);
+        Plane plane = new Plane(new Point(0, 0, -5), new Vector(0, 0, 1));
+        geometries.add(plane);
+        UniformGrid grid = new UniformGrid(geometries);
+        BVHTree tree = new BVHTree(geometries);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: ray along a row of spheres from outside - the first sphere of the row
+        Ray ray = new Ray(new Point(-5, 3, 4), new Vector(1, 0, 0));
+        assertEquals(new Point(-0.4, 3, 4), grid.findClosestIntersection(ray).point, "Wrong closest point along a row");
+
+        // TC02: rays in many directions get the same closest point as the hierarchy
+        assertSameClosestPoints(tree, grid, 100, "grid");
+
+        // TC03: ray which misses the spheres hits the unbounded plane
+        ray = new Ray(new Point(-5, -5, 20), new Vector(0, 0.1, -1));
+        assertEquals(plane, grid.findClosestIntersection(ray).geometry, "The plane should be hit");
+
+        // TC04: ray which misses everything
+        ray = new Ray(new Point(-5, -5, 20), new Vector(0, 0.1, 1));
+        assertNull(grid.findClosestIntersection(ray), "The ray should miss all the geometries");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: ray from inside a sphere
+        ray = new Ray(new Point(3, 3, 3), new Vector(0, 0, 1));
+        assertEquals(new Point(3, 3, 3.4), grid.findClosestIntersection(ray).point, "Wrong closest point from inside");
+        // TC11: ray along the cell walls
+        ray = new Ray(new Point(2, -5, 2), new Vector(0, 1, 0));
+        assertEquals(new Point(2, -0.4, 2), grid.findClosestIntersection(ray).point, "Wrong closest point along a wall");
+    }
+
+    /**
+     * Test method for {@link geometries.UniformGrid#findGeoIntersections(Ray, double)}.
+     */
+    @Test
+    void testFindGeoIntersections() {
+        Geometries geometries = spheresCube(10);
+        Sphere big = new Sphere(3, new Point(20, 20, 20));
+        geometries.add(big);
+        UniformGrid grid = new UniformGrid(geometries);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: all the points along a row
+        Ray ray = new Ray(new Point(-5, 3, 4), new Vector(1, 0, 0));
+        assertEquals(20, grid.findGeoIntersections(ray).size(), "Wrong amount of points along a row");
+
+        // TC02: only the points within the distance
+        assertEquals(4, grid.findGeoIntersections(ray, 6.5).size(), "Wrong amount of points within the distance");
+
+        // TC03: a sphere over many cells is tested once
+        ray = new Ray(new Point(20, 20, 40), new Vector(0, 0, -1));
+        assertEquals(2, grid.findGeoIntersections(ray).size(), "A sphere over many cells must be tested once");
+
+        // TC04: no points
+        assertNull(grid.findGeoIntersections(new Ray(new Point(-5, 3, 4), new Vector(1, 0, 0)), 4),
+                "There are no points within the distance");
+    }
+
+    /**
+     * Test method for the 3D-DDA walk of {@link geometries.UniformGrid#findClosestIntersection(Ray)}
+     * and its mailbox.
+     */
+    @Test
+    void testTraversal() {
+        Geometries geometries = spheresCube(5);
+        // a slanted triangle whose box covers the cells along the ray from x = 0, while the ray meets it at x = 8
+        Triangle slanted = new Triangle(new Point(0, -3.5, -5), new Point(0, -3.5, 5), new Point(10, 1.5, 0));
+        geometries.add(slanted);
+        UniformGrid grid = new UniformGrid(geometries);
+        // the ray passes between the rows of the cube
+        Ray ray = new Ray(new Point(-2, 0.5, 0.5), new Vector(1, 0, 0));
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: a point found in the first cell beyond its walls is kept while the walk goes on
+        assertEquals(new Point(8, 0.5, 0.5), grid.findClosestIntersection(ray).point,
+                "The point beyond the cell of the test must be found");
+
+        // TC02: a nearer primitive in a later cell wins over the point found beyond the first cell
+        Sphere nearer = new Sphere(0.2, new Point(4, 0.5, 0.5));
+        geometries.add(nearer);
+        grid = new UniformGrid(geometries);
+        assertEquals(new Point(3.8, 0.5, 0.5), grid.findClosestIntersection(ray).point,
+                "The nearer primitive of a later cell must be found");
+
+        // TC03: a primitive over many cells is tested once per ray, for every kind of query
+        CountingSphere big = new CountingSphere(3, new Point(20, 20, 20));
+        geometries.add(big);
+        grid = new UniformGrid(geometries);
+        Ray through = new Ray(new Point(20, 20, 40), new Vector(0, 0.01, -1));
+        assertEquals(2, grid.findGeoIntersections(through).size(), "Wrong amount of points of the big sphere");
+        assertEquals(1, big.tests, "The big sphere must be tested once by all the points query");
+        big.tests = 0;
+        assertSame(big, grid.findClosestIntersection(through).geometry, "The big sphere must be hit");
+        assertEquals(1, big.tests, "The big sphere must be tested once by the closest point query");
+        big.tests = 0;
+        assertEquals(Double3.ZERO, grid.occlusion(through, 100), "The big sphere must block the light");
+        assertEquals(1, big.tests, "The big sphere must be tested once by the shadow query");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: diagonal rays through the corners of the cells, where the walk steps on all the axes at once
+        Geometries cube = spheresCube(5);
+        UniformGrid cubeGrid = new UniformGrid(cube);
+        for (int sx = -1; sx <= 1; sx += 2)
+            for (int sy = -1; sy <= 1; sy += 2)
+                for (int sz = -1; sz <= 1; sz += 2) {
+                    Ray diagonal = new Ray(new Point(2 - 10 * sx, 2 - 10 * sy, 2 - 10 * sz), new Vector(sx, sy, sz));
+                    assertEquals(cube.findClosestIntersection(diagonal).point,
+                            cubeGrid.findClosestIntersection(diagonal).point,
+                            "Wrong closest point of the diagonal " + sx + "," + sy + "," + sz);
+                }
+    }
+
+    /**
+     * Test method for {@link geometries.UniformGrid#refit()}.
+     */
+    @Test
+    void testRefit() {
+        Sphere sphere = new Sphere(0.4, new Point(0, 0, 0));
+        Geometries geometries = spheresCube(5);
+        geometries.add(sphere);
+        UniformGrid grid = new UniformGrid(geometries);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: a sphere moved out of the bounds is found after the refit
+        sphere.setCenter(new Point(10, 2, 2));
+        assertTrue(grid.refit(), "The grid is always rebuilt");
+        Ray ray = new Ray(new Point(20, 2, 2), new Vector(-1, 0, 0));
+        assertEquals(sphere, grid.findClosestIntersection(ray).geometry, "The moved sphere should be hit");
+    }
+}
@@ -0,0 +1,224 @@
+package geometries;
+
+import org.junit.jupiter.api.Test;
+import primitives.Material;
+import primitives.Point;
+import primitives.Ray;
+import primitives.Vector;
+
+import static geometries.AcceleratorFixtures.assertSameClosestPoints;
+import static geometries.AcceleratorFixtures.assertSameShadowRays;
+import static geometries.AcceleratorFixtures.spheresCube;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the WideBVH class.
+ */
+class WideBVHTests {
+
+    /**
+     * Test method for {@link geometries.WideBVH#WideBVH(Geometries, BVHTree.BuildMode, int)}.
+     */
+    @Test
+    void testConstructor() {
+        Geometries geometries = spheresCube(10);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: wider nodes need fewer nodes - a 4-wide node replaces about three binary inner nodes
+        int inner = (new BVHTree(geometries).getNodeData().length / 2 - 1) / 2;
+        int size4 = new WideBVH(geometries).getSize();
+        int size8 = new WideBVH(geometries, BVHTree.BuildMode.SAH, 8).getSize();
+        assertTrue(size4 <= inner / 2, "A 4-wide hierarchy has too many nodes");
+        assertTrue(size8 < size4, "An 8-wide hierarchy must have fewer nodes than a 4-wide one");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: 2 children per node - every binary inner node stays a node
+        assertEquals(inner, new WideBVH(geometries, BVHTree.BuildMode.SAH, 2).getSize(),
+                "A 2-wide hierarchy must have the nodes of the binary one");
+        // TC11: a single primitive is one node with one leaf
+        WideBVH single = new WideBVH(new Geometries(new Sphere(1, new Point(0, 0, 5))));
+        assertEquals(1, single.getSize(), "A single primitive must be one node");
+        assertEquals(new Point(0, 0, 4),
+                single.findClosestIntersection(new Ray(Point.ZERO, new Vector(0, 0, 1))).point,
+                "Wrong point of a single primitive");
+        // TC12: empty geometries
+        assertEquals(0, new WideBVH(new Geometries()).getSize(), "Empty hierarchy must have no nodes");
+        assertNull(new WideBVH(new Geometries()).findClosestIntersection(new Ray(Point.ZERO, new Vector(1, 0, 0))),
+                "Empty hierarchy has no intersections");
+        // TC13: width out of range
+        assertThrows(IllegalArgumentException.class, () -> new WideBVH(geometries, BVHTree.BuildMode.SAH, 1),
+                "Width must be at least 2");
+        assertThrows(IllegalArgumentException.class, () -> new WideBVH(geometries, BVHTree.BuildMode.SAH, 9),
+                "Width must be at most 8");
+        assertThrows(IllegalArgumentException.class, () -> new WideBVH(geometries, BVHTree.BuildMode.SAH, 6),
+                "Width must fill whole vector registers");
+    }
+
+    /**
+     * Test method for {@link geometries.WideBVH#findClosestIntersection(Ray, double)}.
+     */
+    @Test
+    void testFindClosestIntersection() {
+        Geometries geometries = spheresCube(10);
+        geometries.add(new Plane(new Point(0, 0, -5), new Vector(0, 0, 1)));
+        BVHTree tree = new BVHTree(geometries);
+        WideBVH wide4 = new WideBVH(geometries);
+        WideBVH wide8 = new WideBVH(geometries, BVHTree.BuildMode.MORTON, 8);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: ray along a row of spheres from outside - the first sphere of the row
+        Ray ray = new Ray(new Point(-5, 3, 4), new Vector(1, 0, 0));
+        assertEquals(new Point(-0.4, 3, 4), wide4.findClosestIntersection(ray).point, "Wrong closest point along a row");
+
+        // TC02: rays in many directions get the same closest point as the binary hierarchy
+        assertSameClosestPoints(tree, wide4, 100, "4-wide");
+        assertSameClosestPoints(tree, wide8, 100, "8-wide");
+
+        // TC03: ray which misses the spheres hits the unbounded plane
+        ray = new Ray(new Point(-5, -5, 20), new Vector(0, 0.1, -1));
+        assertEquals(new Point(-5, -2.5, -5), wide4.findClosestIntersection(ray).point, "Wrong point on the plane");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: axis parallel ray between two rows of spheres - misses them and the plane
+        assertNull(wide4.findClosestIntersection(new Ray(new Point(-5, 0.5, 0), new Vector(1, 0, 0))),
+                "Ray between the rows must miss");
+    }
+
+    /**
+     * Test method for {@link geometries.WideBVH#findGeoIntersections(Ray, double)}
+     * and {@link geometries.WideBVH#occlusion(Ray, double)}.
+     */
+    @Test
+    void testFindGeoIntersections() {
+        Geometries geometries = spheresCube(6);
+        int n = 0;
+        for (Intersectable g : geometries.geometries)
+            if (n++ % 3 == 0)
+                ((Sphere) g).setMaterial(new Material().setKt(0.9));
+        WideBVH wide = new WideBVH(geometries);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: all the points and the transmittance match the geometries without a hierarchy
+        assertSameShadowRays(geometries, wide, "4-wide");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: the maximum distance ends inside the first sphere of a row
+        assertEquals(1, wide.findGeoIntersections(new Ray(new Point(-5, 0, 0), new Vector(1, 0, 0)), 5).size(),
+                "Only the entry point is within the distance");
+    }
+
+    /**
+     * Test method for the box tests of the children of a node, {@link WideBVH.ScalarLanes#entries},
+     * with empty child slots.
+     */
+    @Test
+    void testLanes() {
+        // a node of 4 slots with two boxes, the last two slots are empty
+        double inf = Double.POSITIVE_INFINITY;
+        double[] bounds = {
+                0, 3, inf, inf, // minX
+                0, 0, inf, inf, // minY
+                0, 0, inf, inf, // minZ
+                1, 4, inf, inf, // maxX
+                1, 1, inf, inf, // maxY
+                1, 1, inf, inf  // maxZ
+        };
+        WideBVH.Lanes lanes = new WideBVH.ScalarLanes();
+        double[] hits = new double[4];
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: a ray through both boxes gets the entry distance of each box, the empty slots are missed
+        entries(lanes, bounds, new Ray(new Point(-1, 0.5, 0.5), new Vector(1, 0, 0)), 100, hits);
+        assertArrayEquals(new double[]{1, 4, inf, inf}, hits, "Wrong entry distances");
+        // TC02: a head inside the first box enters it at 0
+        entries(lanes, bounds, new Ray(new Point(0.5, 0.5, 0.5), new Vector(1, 0, 0)), 100, hits);
+        assertArrayEquals(new double[]{0, 2.5, inf, inf}, hits, "Wrong entry distances from inside");
+        // TC03: the maximum distance ends before the second box
+        entries(lanes, bounds, new Ray(new Point(-1, 0.5, 0.5), new Vector(1, 0, 0)), 3, hits);
+        assertArrayEquals(new double[]{1, inf, inf, inf}, hits, "The far box is beyond the distance");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: rays in all the 26 axis and diagonal directions, from inside, beside and far beyond the boxes,
+        // never enter the empty slots
+        Point[] heads = {new Point(0.5, 0.5, 0.5), new Point(2, 0.5, 0.5), new Point(-1e6, -1e6, -1e6),
+                new Point(1e6, 1e6, 1e6)};
+        for (Point head : heads)
+            for (int x = -1; x <= 1; x++)
+                for (int y = -1; y <= 1; y++)
+                    for (int z = -1; z <= 1; z++) {
+                        if (x == 0 && y == 0 && z == 0) continue;
+                        entries(lanes, bounds, new Ray(head, new Vector(x, y, z)), inf, hits);
+                        assertEquals(inf, hits[2], "An empty slot was entered from " + head + " along " + x + y + z);
+                        assertEquals(inf, hits[3], "An empty slot was entered from " + head + " along " + x + y + z);
+                    }
+
+        // TC11: hierarchies whose last nodes are not full find the points of the geometries in every direction
+        Geometries few = new Geometries();
+        for (int i = 0; i < 5; i++)
+            few.add(new Sphere(0.4, new Point(2 * i, i % 2, 0)));
+        WideBVH wide8 = new WideBVH(few, BVHTree.BuildMode.SAH, 8);
+        WideBVH wide4 = new WideBVH(few, BVHTree.BuildMode.SAH, 4);
+        for (int x = -1; x <= 1; x++)
+            for (int y = -1; y <= 1; y++)
+                for (int z = -1; z <= 1; z++) {
+                    if (x == 0 && y == 0 && z == 0) continue;
+                    Ray ray = new Ray(new Point(4, 0.5, 0), new Vector(x, y, z));
+                    var expected = few.findClosestIntersection(ray);
+                    Point point = expected == null ? null : expected.point;
+                    var found8 = wide8.findClosestIntersection(ray);
+                    var found4 = wide4.findClosestIntersection(ray);
+                    assertEquals(point, found8 == null ? null : found8.point, "Wrong 8-wide point along " + x + y + z);
+                    assertEquals(point, found4 == null ? null : found4.point, "Wrong 4-wide point along " + x + y + z);
+                }
+    }
+
+    /**
+     * Tests a ray against the boxes of a node
+     *
+     * @param lanes       the box tests
+     * @param bounds      the boxes of the node
+     * @param ray         the ray
+     * @param maxDistance the maximum distance
+     * @param hits        the entry distances to fill
+     */
+    private static void entries(WideBVH.Lanes lanes, double[] bounds, Ray ray, double maxDistance, double[] hits) {
+        double[] inverse = ray.getInverseDirection();
+        lanes.entries(bounds, 0, ray.getHead().getX(), ray.getHead().getY(), ray.getHead().getZ(),
+                inverse[0], inverse[1], inverse[2], maxDistance, hits);
+    }
+
+    /**
+     * Test method for {@link geometries.WideBVH#refit()}.
+     */
+    @Test
+    void testRefit() {
+        Geometries geometries = new Geometries();
+        Sphere[][] spheres = new Sphere[10][10];
+        for (int x = 0; x < 10; x++)
+            for (int y = 0; y < 10; y++) {
+                spheres[x][y] = new Sphere(0.4, new Point(x, y, 0));
+                geometries.add(spheres[x][y]);
+            }
+        WideBVH wide = new WideBVH(geometries);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: all the spheres move together - refitted without a rebuild
+        for (int x = 0; x < 10; x++)
+            for (int y = 0; y < 10; y++)
+                spheres[x][y].setCenter(new Point(x, y, 5));
+        assertFalse(wide.refit(), "Moving all the spheres together must not rebuild");
+        Ray ray = new Ray(new Point(3, 4, 20), new Vector(0, 0, -1));
+        assertEquals(new Point(3, 4, 5.4), wide.findClosestIntersection(ray).point, "Wrong point after a refit");
+
+        // TC02: the spheres are shuffled - the binary hierarchy is rebuilt and collapsed again
+        for (int x = 0; x < 10; x++)
+            for (int y = 0; y < 10; y++) {
+                int position = (37 * (10 * x + y)) % 100;
+                spheres[x][y].setCenter(new Point(position / 10, position % 10, 5));
+            }
+        assertTrue(wide.refit(), "Shuffling the spheres must rebuild");
+        // sphere (1,1) moved to position 37*11 % 100 = 7 which is (0,7)
+        ray = new Ray(new Point(0, 7, 20), new Vector(0, 0, -1));
+        assertEquals(spheres[1][1], wide.findClosestIntersection(ray).geometry, "Wrong sphere after a rebuild");
+    }
+}
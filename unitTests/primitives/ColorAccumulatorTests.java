@@ -0,0 +1,49 @@
+package primitives;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the ColorAccumulator class.
+ */
+class ColorAccumulatorTests {
+
+    /**
+     * Test method for the in place operations of {@link primitives.ColorAccumulator}.
+     */
+    @Test
+    void testOperations() {
+        Color c1 = new Color(10.3, 20.7, 30.1);
+        Color c2 = new Color(0.7, 5.9, 100.3);
+        Double3 k = new Double3(0.3, 0.55, 0.9);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: every operation gives exactly the color of the immutable one
+        assertEquals(c1.add(c2).toString(), new ColorAccumulator().set(c1).add(c2).toColor().toString(),
+                "Wrong sum");
+        assertEquals(c1.add(c2.scale(k)).toString(), new ColorAccumulator().set(c1).addScaled(c2, k).toColor().toString(),
+                "Wrong scaled sum");
+        assertEquals(c1.add(c2.scale(k.scale(0.7))).toString(),
+                new ColorAccumulator().set(c1).addScaled(new ColorAccumulator().set(c2), k, 0.7).toColor().toString(),
+                "Wrong sum scaled twice");
+        assertEquals(c1.scale(k).toString(), new ColorAccumulator().set(c1).scale(k).toColor().toString(),
+                "Wrong triad scale");
+        assertEquals(c1.scale(1d / 3).toString(), new ColorAccumulator().set(c1).scale(1d / 3).toColor().toString(),
+                "Wrong scale");
+
+        // TC02: the operations change the accumulator itself
+        ColorAccumulator sum = new ColorAccumulator();
+        assertSame(sum, sum.add(c1).add(c2).scale(0.5), "The operations must return the accumulator");
+        assertEquals(c1.add(c2).scale(0.5).toString(), sum.toColor().toString(), "Wrong chained result");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: a reset accumulator is black
+        assertEquals(Color.BLACK.toString(), sum.reset().toColor().toString(), "Reset must give black");
+        // TC11: the sum is not checked until it becomes a color
+        ColorAccumulator negative = new ColorAccumulator().add(c1).scale(-1).add(c1);
+        assertEquals(Color.BLACK.toString(), negative.toColor().toString(), "A negative sum on the way is allowed");
+        assertThrows(IllegalArgumentException.class, () -> new ColorAccumulator().add(c1).scale(-1).toColor(),
+                "A negative color must not be created");
+    }
+}
@@ -33,6 +33,23 @@ class RayTests {
 
 
     }
+    @Test
+    void testGetInverseDirection() {
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: A direction with no zero coordinate
+        Ray ray = new Ray(new Point(1, 1, 1), new Vector(1, 2, -2));
+        assertArrayEquals(new double[]{3, 1.5, -1.5}, ray.getInverseDirection(), 1e-10,
+                "Wrong inverse of the direction");
+        assertArrayEquals(new int[]{0, 0, 1}, ray.getSigns(), "Wrong signs of the direction");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: A ray parallel to an axis - the zero coordinates get a positive infinite inverse
+        ray = new Ray(new Point(1, 1, 1), new Vector(0, 0, -3));
+        assertArrayEquals(new double[]{Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, -1},
+                ray.getInverseDirection(), "Wrong inverse of an axis parallel direction");
+        assertArrayEquals(new int[]{0, 0, 1}, ray.getSigns(), "Wrong signs of an axis parallel direction");
+    }
+
     @Test
     void testFindClosestPoint() {
         List<Point> pointList = new LinkedList<>();
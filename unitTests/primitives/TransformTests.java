@@ -0,0 +1,57 @@
+package primitives;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the Transform class.
+ */
+class TransformTests {
+
+    /**
+     * Test method for {@link primitives.Transform#apply(Point)}.
+     */
+    @Test
+    void testApply() {
+        Transform transform = Transform.scaling(2)
+                .then(Transform.rotation(new Vector(0, 0, 1), 90))
+                .then(Transform.translation(new Vector(1, 2, 3)));
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: the point is scaled, rotated and then moved
+        Point p = transform.apply(new Point(1, 0, 1));
+        assertEquals(1, p.getX(), 1e-9, "Wrong x of the transformed point");
+        assertEquals(4, p.getY(), 1e-9, "Wrong y of the transformed point");
+        assertEquals(5, p.getZ(), 1e-9, "Wrong z of the transformed point");
+
+        // TC02: a direction is not moved
+        Vector v = transform.apply(new Vector(1, 0, 0));
+        assertEquals(0, v.getX(), 1e-9, "Wrong x of the transformed direction");
+        assertEquals(2, v.getY(), 1e-9, "Wrong y of the transformed direction");
+        assertEquals(0, v.getZ(), 1e-9, "Wrong z of the transformed direction");
+
+        // TC03: the inverse transformation moves the point back
+        Point back = transform.applyInverse(p);
+        assertEquals(0, back.distance(new Point(1, 0, 1)), 1e-9, "Wrong point after the inverse transformation");
+        assertEquals(0, transform.inverse().apply(p).distance(back), 1e-9, "Wrong inverse transformation");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: a singular transformation
+        assertThrows(IllegalArgumentException.class, () -> Transform.scaling(1, 0, 1),
+                "A singular transformation must throw");
+    }
+
+    /**
+     * Test method for {@link primitives.Transform#applyNormal(Vector)}.
+     */
+    @Test
+    void testApplyNormal() {
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: the normal of a plane stays perpendicular to it after a non-uniform scaling
+        Transform transform = Transform.scaling(1, 4, 1);
+        Vector tangent = transform.apply(new Vector(1, -1, 0));
+        Vector normal = transform.applyNormal(new Vector(1, 1, 0));
+        assertEquals(0, tangent.dotProduct(normal), 1e-9, "The transformed normal is not perpendicular");
+    }
+}
@@ -0,0 +1,54 @@
+package primitives;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the Vec3 class.
+ */
+class Vec3Tests {
+
+    /**
+     * Test method for the in place operations of {@link primitives.Vec3}.
+     */
+    @Test
+    void testOperations() {
+        Vector v1 = new Vector(1, 2, 3);
+        Vector v2 = new Vector(-2, 0.5, 4);
+        Point p = new Point(3, -1, 7);
+
+        // ============ Equivalence Partitions Tests ==============
+        // TC01: every operation gives exactly the result of the immutable one
+        assertEquals(p.subtract(v1), new Vec3().setDifference(p, v1).toVector(), "Wrong difference");
+        assertEquals(v1.add(v2), new Vec3(v1).add(v2).toVector(), "Wrong sum");
+        assertEquals(p.add(v2.scale(2.5)), new Vec3(p).addScaled(v2, 2.5).toPoint(), "Wrong scaled sum");
+        assertEquals(v1.scale(-3), new Vec3(v1).scale(-3).toVector(), "Wrong scale");
+        assertEquals(v1.crossProduct(v2), new Vec3().cross(new Vec3(v1), new Vec3(v2)).toVector(), "Wrong cross product");
+        assertEquals(v1.dotProduct(v2), new Vec3(v1).dot(v2), "Wrong dot product");
+        assertEquals(v1.lengthSquared(), new Vec3(v1).lengthSquared(), "Wrong squared length");
+        Vector normalized = v2.normalize();
+        Vec3 inPlace = new Vec3(v2).normalize();
+        assertEquals(normalized.getX(), inPlace.getX(), "Normalizing must calculate like Vector");
+        assertEquals(normalized.getY(), inPlace.getY(), "Normalizing must calculate like Vector");
+        assertEquals(normalized.getZ(), inPlace.getZ(), "Normalizing must calculate like Vector");
+        assertTrue(inPlace.toVector().isNormalized(), "The vector of a normalized triad is a unit vector");
+        assertFalse(inPlace.scale(1).toVector().isNormalized(), "A changed triad is not known to be normalized");
+
+        // TC02: the operations change the triad itself
+        Vec3 v = new Vec3(v1);
+        assertSame(v, v.add(v2).scale(2).subtract(p), "The operations must return the triad");
+        assertEquals(new Point(-5, 6, 7), v.toPoint(), "Wrong chained result");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: the cross product of a triad with itself in place
+        Vec3 a = new Vec3(v1);
+        assertEquals(v1.crossProduct(v2), a.cross(a, new Vec3(v2)).toVector(), "The cross product must allow aliasing");
+        // TC11: the zero triad cannot be normalized or become a vector
+        assertThrows(ArithmeticException.class, () -> new Vec3().normalize(), "Zero triad must not normalize");
+        assertThrows(IllegalArgumentException.class, () -> new Vec3().toVector(), "Zero triad is not a vector");
+        // TC12: equality with a point within the tolerance of Point
+        assertTrue(new Vec3(p).addScaled(v1, 1e-13).equalsPoint(p), "Nearly equal must be equal");
+        assertFalse(new Vec3(p).addScaled(v1, 1e-3).equalsPoint(p), "Different must not be equal");
+    }
+}
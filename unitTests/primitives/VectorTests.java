@@ -199,6 +199,16 @@ class VectorTests {
         assertEquals(new Vector(0, 0.6, 0.8),
                 n,
                 "wrong normalized vector");
+        // TC02: a normalized vector is known to be a unit vector and is not normalized again
+        assertFalse(v.isNormalized(), "ERROR: a vector is not known to be a unit vector");
+        assertTrue(n.isNormalized(), "ERROR: the normalized vector must be known to be a unit vector");
+        assertSame(n, n.normalize(), "ERROR: a normalized vector must not be normalized again");
+        assertFalse(new Vector(0, 0.6, 0.8).isNormalized(), "ERROR: only a normalization makes a unit vector known");
+
+        // =============== Boundary Values Tests ==================
+        // TC10: turning a unit vector around keeps it known to be a unit vector, other scales do not
+        assertTrue(n.scale(-1).isNormalized(), "ERROR: the opposite unit vector is a unit vector");
+        assertFalse(n.scale(2).isNormalized(), "ERROR: a scaled unit vector is not a unit vector");
     }
 
 }
\ No newline at end of file
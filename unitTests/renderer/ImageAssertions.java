@@ -0,0 +1,54 @@
+package renderer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Comparisons of the images written by the render tests
+ */
+final class ImageAssertions {
+    /**
+     * The directory the image writer writes the images to
+     */
+    private static final String FOLDER_PATH = System.getProperty("user.dir") + "/images";
+
+    /**
+     * The assertions are static
+     */
+    private ImageAssertions() {
+    }
+
+    /**
+     * Asserts that two written images have the same pixels
+     *
+     * @param expected the name of the expected image, without the '.png' extension
+     * @param actual   the name of the compared image, without the '.png' extension
+     */
+    static void assertSameImage(String expected, String actual) {
+        BufferedImage expectedImage = read(expected);
+        BufferedImage actualImage = read(actual);
+        int width = expectedImage.getWidth();
+        int height = expectedImage.getHeight();
+        assertEquals(width, actualImage.getWidth(), "Wrong width of " + actual);
+        assertEquals(height, actualImage.getHeight(), "Wrong height of " + actual);
+        assertArrayEquals(expectedImage.getRGB(0, 0, width, height, null, 0, width),
+                actualImage.getRGB(0, 0, width, height, null, 0, width),
+                "The pixels of " + actual + " differ from " + expected);
+    }
+
+    /**
+     * Reads a written image
+     *
+     * @param name the name of the image, without the '.png' extension
+     * @return the image
+     */
+    private static BufferedImage read(String name) {
+        BufferedImage image = assertDoesNotThrow(() -> ImageIO.read(new File(FOLDER_PATH + '/' + name + ".png")),
+                "Cannot read " + name);
+        assertNotNull(image, "Cannot read " + name);
+        return image;
+    }
+}
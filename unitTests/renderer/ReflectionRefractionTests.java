@@ -67,6 +67,38 @@ public class ReflectionRefractionTests {
      */
     @Test
     public void twoSpheresOnMirrors() {
+        addSpheresOnMirrors();
+
+        cameraBuilder.setLocation(new Point(0, 0, 10000)).setVpDistance(10000)
+                .setVpSize(2500, 2500)
+                .setImageWriter(new ImageWriter("reflectionTwoSpheresMirrored", 500, 500))
+                .build()
+                .renderImage()
+                .writeToImage();
+    }
+
+    /**
+     * Produce the picture of the spheres on mirrors with the secondary rays of 8x8 pixel packets
+     * traced as a wavefront, it should be the same as {@link #twoSpheresOnMirrors()}
+     */
+    @Test
+    public void twoSpheresOnMirrorsWavefront() {
+        addSpheresOnMirrors();
+
+        cameraBuilder.setRayTracer(new SimpleRayTracer(scene).setWavefront(true))
+                .setPacketSize(8)
+                .setLocation(new Point(0, 0, 10000)).setVpDistance(10000)
+                .setVpSize(2500, 2500)
+                .setImageWriter(new ImageWriter("reflectionTwoSpheresMirroredWavefront", 500, 500))
+                .build()
+                .renderImage()
+                .writeToImage();
+    }
+
+    /**
+     * Add two spheres, a transparent one around the other, and two mirrors to the scene
+     */
+    private void addSpheresOnMirrors() {
         scene.geometries.add(
                 new Sphere(400d, new Point(-950, -900, -1000)).setEmission(new Color(0, 50, 100))
                         .setMaterial(new Material().setKd(0.25).setKs(0.25).setShininess(20)
@@ -84,13 +116,6 @@ public class ReflectionRefractionTests {
         scene.setAmbientLight(new AmbientLight(new Color(255, 255, 255), 0.1));
         scene.lights.add(new SpotLight(new Vector(-1, -1, -4), new Color(1020, 400, 400), new Point(-750, -750, -150))
                 .setKl(0.00001).setKq(0.000005));
-
-        cameraBuilder.setLocation(new Point(0, 0, 10000)).setVpDistance(10000)
-                .setVpSize(2500, 2500)
-                .setImageWriter(new ImageWriter("reflectionTwoSpheresMirrored", 500, 500))
-                .build()
-                .renderImage()
-                .writeToImage();
     }
 
     /**
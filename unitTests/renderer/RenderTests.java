@@ -1,6 +1,7 @@
 package renderer;
 import static java.awt.Color.*;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static renderer.ImageAssertions.assertSameImage;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import geometries.*;
@@ -233,6 +234,104 @@ public class RenderTests {
 
 
 
+    /**
+     * Produce a field of diamond rings - every ring is an instance of one shared hierarchy
+     * with its own transformation and material, under the top-level hierarchy of the scene
+     */
+    @Test
+    public void diamondField() {
+        assertDoesNotThrow(() -> {
+                    Scene diamond = JsonScene.importScene("jsonScenes/diamondScene.json");
+                    Geometries ring = new Geometries();
+                    for (Intersectable geometry : diamond.geometries.geometries)
+                        if (geometry instanceof Plane) scene.geometries.add(geometry);
+                        else ring.add(geometry);
+                    BVHTree shape = new BVHTree(ring);
+
+                    for (int x = -1; x <= 1; x++)
+                        for (int y = -1; y <= 1; y++) {
+                            Transform transform = Transform.rotation(new Vector(0, 0, 1), 40 * (x + 3 * y))
+                                    .then(Transform.translation(60 * x, 60 * y, 0));
+                            Instance instance = new Instance(shape, transform);
+                            if (x == y)
+                                instance.setMaterial(new Material().setKd(0.3).setKs(0.8).setShininess(30).setKr(0.3));
+                            scene.geometries.add(instance);
+                        }
+                    scene.setBackground(diamond.background).setAmbientLight(diamond.ambientLight)
+                            .setLights(diamond.lights);
+                    scene.setBVH(true);
+
+                    Camera.getBuilder()
+                            .setRayTracer(new SimpleRayTracer(scene))
+                            .setDirection(new Vector(0, 350, -150).normalize(), new Vector(0, 150, 350).normalize())
+                            .setLocation(new Point(0, -350, 150))
+                            .setVpDistance(500)
+                            .setVpSize(300, 300)
+                            .setImageWriter(new ImageWriter("diamondField", 500, 500))
+                            .setMultithreading(-1)
+                            .build()
+                            .renderImage()
+                            .writeToImage();
+                }, "Failed to render image"
+        );
+    }
+
+    /**
+     * Render the diamond ring through every acceleration structure,
+     * all the structures must produce the image of the plain geometries
+     */
+    @Test
+    public void diamondAccelerators() {
+        Scene scene = assertDoesNotThrow(() -> JsonScene.importScene("jsonScenes/diamondScene.json"),
+                "Failed to import the scene");
+        for (Scene.Acceleration acceleration : Scene.Acceleration.values()) {
+            scene.setAcceleration(acceleration);
+            Camera.getBuilder()
+                    .setRayTracer(new SimpleRayTracer(scene))
+                    .setDirection(new Vector(-50, 354, -37).normalize(), new Vector(0, 37, 354).normalize())
+                    .setLocation(new Point(50, -354, 45))
+                    .setVpDistance(500)
+                    .setVpSize(150, 150)
+                    .setImageWriter(new ImageWriter("diamond " + acceleration, 300, 300))
+                    .build()
+                    .renderImage()
+                    .writeToImage();
+            assertSameImage("diamond " + Scene.Acceleration.NONE, "diamond " + acceleration);
+        }
+    }
+
+    /**
+     * Render the same field of many similar spheres through every acceleration structure,
+     * all the structures must produce the image of the hierarchy
+     */
+    @Test
+    public void accelerationField() {
+        for (int x = 0; x < 40; x++)
+            for (int y = 0; y < 40; y++)
+                for (int z = 0; z < 3; z++)
+                    scene.geometries.add(new Sphere(0.35 + 0.1 * ((x * 7 + y * 3 + z) % 4), new Point(2 * x - 40, 2 * y - 40, -2 * z))
+                            .setEmission(new Color(20 + 5 * x, 20 + 5 * y, 60 * z))
+                            .setMaterial(new Material().setKd(0.5).setKs(0.5).setShininess(30)));
+        scene.geometries.add(new Plane(new Point(0, 0, -6), new Vector(0, 0, 1))
+                .setMaterial(new Material().setKd(0.5)));
+        scene.setAmbientLight(new AmbientLight(new Color(WHITE), 0.1));
+        scene.lights.add(new DirectionalLight(new Vector(1, 1, -2), new Color(400, 400, 400)));
+
+        for (Scene.Acceleration acceleration : new Scene.Acceleration[]{
+                Scene.Acceleration.BVH, Scene.Acceleration.WIDE_BVH, Scene.Acceleration.GRID, Scene.Acceleration.KD}) {
+            scene.setAcceleration(acceleration);
+            Camera.getBuilder()
+                    .setRayTracer(new SimpleRayTracer(scene))
+                    .setLocation(new Point(0, -120, 90)).setDirection(new Vector(0, 4, -3), new Vector(0, 3, 4))
+                    .setVpDistance(100).setVpSize(120, 120)
+                    .setImageWriter(new ImageWriter("acceleration " + acceleration, 400, 400))
+                    .build()
+                    .renderImage()
+                    .writeToImage();
+            assertSameImage("acceleration " + Scene.Acceleration.BVH, "acceleration " + acceleration);
+        }
+    }
+
     /**
      * the bonus for stage 7, Produces a spectacular image with many bodies.
      */